@@ -0,0 +1,29 @@
+package org.mql.ia.rag.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Exécuteur partagé des tâches d'ingestion (un appel bloquant au serveur
+ * d'embeddings par tâche). Avec spring.threads.virtual.enabled, chaque tâche
+ * a son thread virtuel : le nombre d'appels simultanés n'est plus borné par un
+ * pool mais par le limiteur d'embeddings et BackendCallGate.
+ */
+@Configuration
+public class ExecutionConfig {
+
+    @Bean(destroyMethod = "close")
+    public ExecutorService ingestionExecutor(@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                                             @Value("${execution.platform-threads:16}") int platformThreads) {
+        if (virtualThreads) {
+            System.out.println("Ingestion sur threads virtuels");
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ingestion-", 0).factory());
+        }
+        System.out.println("Ingestion sur " + platformThreads + " threads plateforme");
+        return Executors.newFixedThreadPool(Math.max(1, platformThreads));
+    }
+}
@@ -1,8 +1,9 @@
 package org.mql.ia.rag.controller;
 
-import org.mql.ia.rag.model.Document;
-import org.mql.ia.rag.service.DocumentService;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.mql.ia.rag.ingestion.IngestionJob;
+import org.mql.ia.rag.ingestion.IngestionQueue;
+import org.mql.ia.rag.ingestion.TextExtractor;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
@@ -13,16 +14,19 @@ import java.util.Map;
 @RequestMapping("/api/documents")
 public class DocumentController {
 
-    private final DocumentService documentService;
+    private final IngestionQueue ingestionQueue;
+    private final TextExtractor textExtractor;
 
-    public DocumentController(DocumentService documentService) {
-        this.documentService = documentService;
+    public DocumentController(IngestionQueue ingestionQueue, TextExtractor textExtractor) {
+        this.ingestionQueue = ingestionQueue;
+        this.textExtractor = textExtractor;
     }
 
     @PostMapping("/upload")
     public ResponseEntity<?> uploadDocument(
             @RequestParam("file") MultipartFile file,
-            @RequestParam("userId") Long userId) {
+            @RequestParam("userId") Long userId,
+            @RequestParam(value = "documentKey", required = false) String documentKey) {
 
         System.out.println("Réception upload:");
         System.out.println("   - Fichier: " + file.getOriginalFilename());
@@ -35,14 +39,20 @@ public class DocumentController {
                         .body(Map.of("error", "Le fichier est vide"));
             }
 
-            if (!file.getOriginalFilename().endsWith(".txt")) {
+            if (!textExtractor.supports(file.getOriginalFilename())) {
                 return ResponseEntity.badRequest()
-                        .body(Map.of("error", "Seuls les fichiers .txt sont acceptés"));
+                        .body(Map.of("error", "Formats acceptés : .txt, .pdf, .docx, .html"));
             }
 
-            Document document = documentService.uploadDocument(file, userId);
-            return ResponseEntity.ok(document);
+            // Le traitement se fait en arrière-plan : on rend l'id du job à suivre sur /api/documents/jobs/{jobId}.
+            // Même utilisateur et même documentKey (ou nom de fichier) : le document est remplacé
+            IngestionJob job = ingestionQueue.submit(IngestionJob.Kind.SIMPLE, userId,
+                    file.getOriginalFilename(), documentKey, file.getInputStream());
+            return ResponseEntity.accepted().body(job.toMap());
 
+        } catch (IngestionQueue.QueueFullException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .body(Map.of("error", e.getMessage()));
         } catch (Exception e) {
             System.err.println("Err upload: " + e.getMessage());
             e.printStackTrace();
@@ -1,6 +1,10 @@
 package org.mql.ia.rag.controller;
 
+import org.mql.ia.rag.ingestion.IngestionJob;
+import org.mql.ia.rag.ingestion.IngestionQueue;
+import org.mql.ia.rag.ingestion.TextExtractor;
 import org.mql.ia.rag.service.LangChainRAGService;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
@@ -10,9 +14,18 @@ import jakarta.validation.Valid;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.List;
 import java.util.Arrays;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 @RestController
 @RequestMapping("/api")
@@ -20,30 +33,43 @@ import java.util.Arrays;
 public class LangChainController {
 
     private final LangChainRAGService ragService;
+    private final IngestionQueue ingestionQueue;
+    private final TextExtractor textExtractor;
     
     private static final long MAX_FILE_SIZE = 10 * 1024 * 1024;
     private static final List<String> ALLOWED_MIME_TYPES = List.of(
-    "text/plain"
+    "text/plain",
+    "text/html",
+    "application/pdf",
+    "application/vnd.openxmlformats-officedocument.wordprocessingml.document"
     );
 
-    public LangChainController(LangChainRAGService ragService) {
+    public LangChainController(LangChainRAGService ragService, IngestionQueue ingestionQueue,
+                               TextExtractor textExtractor) {
         this.ragService = ragService;
+        this.ingestionQueue = ingestionQueue;
+        this.textExtractor = textExtractor;
     }
 
     @PostMapping("/documents/upload-langchain")
     public ResponseEntity<?> uploadDocument(
             @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "documentKey", required = false) String documentKey,
             Authentication authentication) {
         
         try {
             validateFile(file);
             Long userId = extractUserIdFromAuth(authentication);
-            Map<String, Object> result = ragService.uploadDocument(file, userId);
-            return ResponseEntity.ok(result);
+            IngestionJob job = ingestionQueue.submit(IngestionJob.Kind.LANGCHAIN, userId,
+                file.getOriginalFilename(), documentKey, file.getInputStream());
+            return ResponseEntity.accepted().body(job.toMap());
             
         } catch (IllegalArgumentException e) {
             return ResponseEntity.badRequest()
                 .body(Map.of("error", e.getMessage()));
+        } catch (IngestionQueue.QueueFullException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .body(Map.of("error", e.getMessage()));
         } catch (Exception e) {
             System.err.println("Upload error: " + e.getMessage());
             return ResponseEntity.internalServerError()
@@ -51,6 +77,90 @@ public class LangChainController {
         }
     }
 
+    /**
+     * Import en masse : une archive .zip, ou plusieurs fichiers .txt regroupés
+     * en archive avant mise en file. Chaque fichier devient un document (clé =
+     * chemin dans l'archive) ; le job rend le débit de chaque étage du pipeline.
+     */
+    @PostMapping("/documents/upload-bulk")
+    public ResponseEntity<?> uploadBulk(
+            @RequestParam("files") List<MultipartFile> files,
+            Authentication authentication) {
+
+        try {
+            Long userId = extractUserIdFromAuth(authentication);
+            if (files.isEmpty() || files.stream().allMatch(MultipartFile::isEmpty)) {
+                throw new IllegalArgumentException("Aucun fichier reçu");
+            }
+            IngestionJob job;
+            if (files.size() == 1 && isZip(files.get(0))) {
+                MultipartFile archive = files.get(0);
+                job = ingestionQueue.submit(IngestionJob.Kind.BULK, userId,
+                    archive.getOriginalFilename(), null, archive.getInputStream());
+            } else {
+                for (MultipartFile file : files) {
+                    validateFile(file);
+                }
+                job = ingestionQueue.submit(IngestionJob.Kind.BULK, userId, "upload-" + files.size() + "-fichiers.zip",
+                    null, out -> zip(files, out));
+            }
+            return ResponseEntity.accepted().body(job.toMap());
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                .body(Map.of("error", e.getMessage()));
+        } catch (IngestionQueue.QueueFullException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            System.err.println("Bulk upload error: " + e.getMessage());
+            return ResponseEntity.internalServerError()
+                .body(Map.of("error", "Erreur lors du traitement des fichiers"));
+        }
+    }
+
+    /** Suivi d'un job d'ingestion, pour l'utilisateur authentifié qui l'a soumis. */
+    @GetMapping("/documents/jobs/{jobId}")
+    public ResponseEntity<?> getJob(@PathVariable String jobId, Authentication authentication) {
+        try {
+            Long userId = extractUserIdFromAuth(authentication);
+            // Un job d'un autre utilisateur est traité comme inconnu
+            IngestionJob job = ingestionQueue.getJob(jobId, userId);
+            if (job == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "Job inconnu: " + jobId));
+            }
+            return ResponseEntity.ok(job.toMap());
+
+        } catch (Exception e) {
+            return ResponseEntity.badRequest()
+                .body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    private static boolean isZip(MultipartFile file) {
+        String filename = file.getOriginalFilename();
+        return filename != null && filename.toLowerCase().endsWith(".zip");
+    }
+
+    private static void zip(List<MultipartFile> files, OutputStream out) throws IOException {
+        // Archive non compressée : elle n'est relue qu'une fois, par le pipeline
+        ZipOutputStream zip = new ZipOutputStream(out, StandardCharsets.UTF_8);
+        zip.setLevel(Deflater.NO_COMPRESSION);
+        Set<String> names = new HashSet<>();
+        for (MultipartFile file : files) {
+            if (!names.add(file.getOriginalFilename())) {
+                throw new IllegalArgumentException("Fichier en double: " + file.getOriginalFilename());
+            }
+            zip.putNextEntry(new ZipEntry(file.getOriginalFilename()));
+            try (InputStream in = file.getInputStream()) {
+                in.transferTo(zip);
+            }
+            zip.closeEntry();
+        }
+        zip.finish();
+    }
+
     @PostMapping("/query-langchain")
     public ResponseEntity<?> queryDocuments(
             @Valid @RequestBody QueryRequest request,
@@ -135,6 +245,11 @@ public class LangChainController {
         if (filename == null || filename.contains("..") || filename.contains("/")) {
             throw new IllegalArgumentException("Nom de fichier invalide");
         }
+
+        // Le type MIME est déclaré par le client : l'extension choisit le traitement (lecture directe ou Tika)
+        if (!textExtractor.supports(filename)) {
+            throw new IllegalArgumentException("Extension non autorisée. Acceptées: .txt, .pdf, .docx, .html");
+        }
     }
 
     private Long extractUserIdFromAuth(Authentication authentication) {
@@ -0,0 +1,52 @@
+package org.mql.ia.rag.controller;
+
+import org.mql.ia.rag.embedding.AdaptiveConcurrencyLimiter;
+import org.mql.ia.rag.embedding.EmbeddingCache;
+import org.mql.ia.rag.ingestion.IngestionQueue;
+import org.mql.ia.rag.ingestion.NearDuplicateDetector;
+import org.mql.ia.rag.ingestion.TextExtractor;
+import org.mql.ia.rag.service.BackendCallGate;
+import org.mql.ia.rag.service.ChromaDBService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/store")
+@CrossOrigin(origins = "${app.cors.allowed-origins}")
+public class VectorStoreController {
+
+	private final ChromaDBService chromaDBService;
+	private final EmbeddingCache embeddingCache;
+	private final AdaptiveConcurrencyLimiter embeddingLimiter;
+	private final BackendCallGate chatGate;
+	private final IngestionQueue ingestionQueue;
+	private final NearDuplicateDetector nearDuplicateDetector;
+	private final TextExtractor textExtractor;
+
+	public VectorStoreController(ChromaDBService chromaDBService, EmbeddingCache embeddingCache,
+			AdaptiveConcurrencyLimiter embeddingLimiter, BackendCallGate chatGate, IngestionQueue ingestionQueue,
+			NearDuplicateDetector nearDuplicateDetector, TextExtractor textExtractor) {
+		this.chromaDBService = chromaDBService;
+		this.embeddingCache = embeddingCache;
+		this.embeddingLimiter = embeddingLimiter;
+		this.chatGate = chatGate;
+		this.ingestionQueue = ingestionQueue;
+		this.nearDuplicateDetector = nearDuplicateDetector;
+		this.textExtractor = textExtractor;
+	}
+
+	@GetMapping("/stats")
+	public ResponseEntity<Map<String, Object>> stats() {
+		Map<String, Object> stats = new LinkedHashMap<>(chromaDBService.getStats());
+		stats.put("embeddingCache", embeddingCache.stats());
+		stats.put("embeddingLimiter", embeddingLimiter.stats());
+		stats.put("chatGate", chatGate.stats());
+		stats.put("ingestionQueue", ingestionQueue.stats());
+		stats.put("dedup", nearDuplicateDetector.stats());
+		stats.put("parsing", textExtractor.stats());
+		return ResponseEntity.ok(stats);
+	}
+}
@@ -0,0 +1,168 @@
+package org.mql.ia.rag.embedding;
+
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Limiteur de concurrence adaptatif (AIMD) pour tous les appels au serveur
+ * d'embeddings. Chaque réponse rapide ajoute 1/limite (environ +1 par
+ * fenêtre complète) ; une erreur ou une latence supérieure à
+ * latencyTolerance x latence de référence multiplie la limite par
+ * backoffRatio, au plus une fois par latence observée pour ne pas
+ * s'effondrer sur une rafale de réponses lentes.
+ *
+ * La latence de référence suit la plus petite latence observée et remonte
+ * lentement, pour suivre un serveur dont le temps de réponse à vide change
+ * (modèle rechargé, autre machine). Elle est tenue par classe de taille
+ * (puissance de 2 du nombre de caractères envoyés) : un lot de 64 chunks
+ * n'est comparé qu'aux lots de taille voisine, pas à une requête d'un seul
+ * texte court. La limite de concurrence, elle, reste commune.
+ */
+@Component
+public class AdaptiveConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    // baselineNanos[c] : classe c = tailles de 2^(c-1) à 2^c - 1 caractères
+    private final double[] baselineNanos = new double[Integer.SIZE + 1];
+    private long lastDecreaseNanos;
+
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong backoffs = new AtomicLong();
+
+    public AdaptiveConcurrencyLimiter(@Value("${embedding.limiter.initial-limit:4}") int initialLimit,
+                                      @Value("${embedding.limiter.min-limit:1}") int minLimit,
+                                      @Value("${embedding.limiter.max-limit:64}") int maxLimit,
+                                      @Value("${embedding.limiter.backoff-ratio:0.7}") double backoffRatio,
+                                      @Value("${embedding.limiter.latency-tolerance:2.0}") double latencyTolerance) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        Arrays.fill(baselineNanos, Double.NaN);
+    }
+
+    /** Exécute l'appel dès qu'une place est libre sous la limite courante. */
+    public <T> T execute(Supplier<T> call) {
+        return execute(1, call);
+    }
+
+    /**
+     * Comme execute(call), pour un appel qui envoie size caractères : sa
+     * latence est jugée par rapport aux appels de taille voisine.
+     */
+    public <T> T execute(long size, Supplier<T> call) {
+        int sizeClass = 64 - Long.numberOfLeadingZeros(Math.max(1, size));
+        acquire();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = call.get();
+            failed = false;
+            return result;
+        } finally {
+            release(Math.min(sizeClass, Integer.SIZE), System.nanoTime() - start, failed);
+        }
+    }
+
+    /** Modèle LangChain dont chaque embedAll passe par le limiteur. */
+    public EmbeddingModel wrap(EmbeddingModel delegate) {
+        return segments -> execute(segments.stream().mapToLong(segment -> segment.text().length()).sum(),
+            () -> delegate.embedAll(segments));
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            stats.put("limit", (int) limit);
+            stats.put("inFlight", inFlight);
+            Map<String, Double> baselines = new LinkedHashMap<>();
+            for (int c = 0; c < baselineNanos.length; c++) {
+                if (!Double.isNaN(baselineNanos[c])) {
+                    baselines.put("<" + (1L << c), baselineNanos[c] / 1_000_000.0);
+                }
+            }
+            stats.put("baselineLatencyMsBySize", baselines);
+        } finally {
+            lock.unlock();
+        }
+        stats.put("successes", successes.get());
+        stats.put("failures", failures.get());
+        stats.put("backoffs", backoffs.get());
+        return stats;
+    }
+
+    // Verrou explicite : les threads virtuels en attente d'une place ne bloquent pas leur porteur
+    private void acquire() {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                released.awaitUninterruptibly();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(int sizeClass, long latencyNanos, boolean failed) {
+        lock.lock();
+        try {
+            update(sizeClass, latencyNanos, failed);
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void update(int sizeClass, long latencyNanos, boolean failed) {
+        inFlight--;
+        long now = System.nanoTime();
+
+        double baseline = baselineNanos[sizeClass];
+        if (!failed) {
+            successes.incrementAndGet();
+            baseline = Double.isNaN(baseline)
+                ? latencyNanos
+                : Math.min(latencyNanos, baseline * 1.01);
+            baselineNanos[sizeClass] = baseline;
+        } else {
+            failures.incrementAndGet();
+        }
+
+        boolean overloaded = failed || latencyNanos > baseline * latencyTolerance;
+        if (overloaded) {
+            if (now - lastDecreaseNanos > latencyNanos) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDecreaseNanos = now;
+                backoffs.incrementAndGet();
+            }
+        } else if (inFlight + 1 >= (int) limit) {
+            // On n'augmente que si la limite était effectivement atteinte
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+}
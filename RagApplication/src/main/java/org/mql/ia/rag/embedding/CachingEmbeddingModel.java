@@ -0,0 +1,70 @@
+package org.mql.ia.rag.embedding;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Décorateur d'EmbeddingModel : les textes déjà vus sont servis par
+ * l'EmbeddingCache, les autres partent en un seul embedAll (dédoublonnés).
+ */
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final EmbeddingCache cache;
+    private final String modelName;
+
+    public CachingEmbeddingModel(EmbeddingModel delegate, EmbeddingCache cache, String modelName) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.modelName = modelName;
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+        float[][] vectors = new float[segments.size()][];
+        String[] keys = new String[segments.size()];
+        Map<String, TextSegment> missing = new LinkedHashMap<>();
+
+        for (int i = 0; i < segments.size(); i++) {
+            keys[i] = EmbeddingCache.key(modelName, segments.get(i).text());
+            vectors[i] = cache.get(keys[i]);
+            if (vectors[i] == null) {
+                missing.putIfAbsent(keys[i], segments.get(i));
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            List<Embedding> computed = delegate.embedAll(new ArrayList<>(missing.values())).content();
+            Map<String, float[]> byKey = new LinkedHashMap<>();
+            int j = 0;
+            for (String key : missing.keySet()) {
+                float[] vector = computed.get(j++).vector();
+                byKey.put(key, vector);
+                cache.put(key, vector);
+            }
+            for (int i = 0; i < vectors.length; i++) {
+                if (vectors[i] == null) {
+                    vectors[i] = byKey.get(keys[i]);
+                }
+            }
+        }
+
+        List<Embedding> embeddings = new ArrayList<>(vectors.length);
+        for (float[] vector : vectors) {
+            embeddings.add(Embedding.from(vector));
+        }
+        return Response.from(embeddings);
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+}
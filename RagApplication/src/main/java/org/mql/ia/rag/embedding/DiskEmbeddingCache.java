@@ -0,0 +1,360 @@
+package org.mql.ia.rag.embedding;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Cache disque des embeddings, survit aux redémarrages :
+ * vectors.bin contient les vecteurs float32 bout à bout (ajout seul) et
+ * index.bin les entrées (clé, position, dimension) qui y renvoient.
+ * Un vecteur est écrit avant son entrée d'index : au chargement, une
+ * entrée incomplète ou pointant hors du fichier marque la fin des données
+ * valides et les deux fichiers sont tronqués à cet endroit.
+ *
+ * model.txt garde le nom du modèle (embedding.model.name) : s'il change,
+ * le cache est vidé.
+ *
+ * Les fichiers sont synchronisés toutes les flush-interval-seconds (et à la
+ * fermeture). Quand vectors.bin atteindrait max-bytes, il est compacté : seule
+ * la moitié la plus récente des vecteurs est recopiée dans de nouveaux
+ * fichiers. index.bin est supprimé avant le remplacement, si bien qu'un arrêt
+ * pendant la compaction laisse au pire un cache vide, jamais un index qui
+ * pointerait dans le mauvais fichier de vecteurs.
+ */
+@Component
+public class DiskEmbeddingCache {
+
+    private static final String VECTORS_FILE = "vectors.bin";
+    private static final String INDEX_FILE = "index.bin";
+    private static final String MODEL_FILE = "model.txt";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private record Location(long offset, int dimension) {
+    }
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long maxBytes;
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    // Écritures entre elles ; la compaction prend en plus swapLock en écriture,
+    // les lectures le prennent en lecture (les canaux et positions changent)
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService flushScheduler;
+    private FileChannel vectors;
+    private FileChannel indexChannel;
+    private long vectorsSize;
+    private boolean dirty;
+    private long compactions;
+
+    public DiskEmbeddingCache(@Value("${embedding.cache.disk.enabled:true}") boolean enabled,
+                              @Value("${embedding.cache.disk.dir:./data/embedding-cache}") String directory,
+                              @Value("${embedding.model.name}") String modelName,
+                              @Value("${embedding.cache.disk.max-bytes:1073741824}") long maxBytes,
+                              @Value("${embedding.cache.disk.flush-interval-seconds:5}") long flushIntervalSeconds) {
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.maxBytes = maxBytes;
+        if (!enabled) {
+            this.flushScheduler = null;
+            return;
+        }
+        try {
+            open(modelName);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ouverture du cache d'embeddings impossible: " + directory, e);
+        }
+        this.flushScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "embedding-cache-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flushScheduler.scheduleWithFixedDelay(this::flush,
+            flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+        System.out.println("Cache disque des embeddings : " + index.size() + " vecteurs (" + this.directory + ")");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public float[] get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        swapLock.readLock().lock();
+        try {
+            Location location = index.get(key);
+            if (location == null) {
+                return null;
+            }
+            return read(vectors, location);
+        } catch (IOException e) {
+            System.err.println("Lecture du cache d'embeddings impossible: " + e.getMessage());
+            return null;
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    private static float[] read(FileChannel channel, Location location) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(location.dimension() * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long position = location.offset();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("vecteur hors du fichier");
+            }
+            position += read;
+        }
+        buffer.flip();
+        float[] vector = new float[location.dimension()];
+        buffer.asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    public void put(String key, float[] vector) {
+        if (!enabled || index.containsKey(key)) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            append(key, vector);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void append(String key, float[] vector) {
+        if (index.containsKey(key)) {
+            return;
+        }
+        long size = (long) vector.length * Float.BYTES;
+        if (size > maxBytes / 2) {
+            return;
+        }
+        if (vectorsSize + size > maxBytes) {
+            try {
+                compact();
+            } catch (IOException e) {
+                System.err.println("Compaction du cache d'embeddings impossible: " + e.getMessage());
+                return;
+            }
+        }
+        try {
+            writeFully(vectors, encode(vector));
+            writeFully(indexChannel, indexEntry(key, vectorsSize, vector.length));
+        } catch (IOException e) {
+            System.err.println("Écriture du cache d'embeddings impossible: " + e.getMessage());
+            try {
+                vectors.position(vectorsSize);
+            } catch (IOException ignored) {
+                // le canal est inutilisable, les écritures suivantes échoueront aussi
+            }
+            return;
+        }
+        index.put(key, new Location(vectorsSize, vector.length));
+        vectorsSize += size;
+        dirty = true;
+    }
+
+    /**
+     * Recopie la moitié la plus récente des vecteurs dans de nouveaux
+     * fichiers puis les substitue aux anciens. Appelé sous writeLock.
+     */
+    private void compact() throws IOException {
+        long cut = vectorsSize - maxBytes / 2;
+        List<Map.Entry<String, Location>> kept = new ArrayList<>();
+        for (Map.Entry<String, Location> entry : index.entrySet()) {
+            if (entry.getValue().offset() >= cut) {
+                kept.add(entry);
+            }
+        }
+        kept.sort(Comparator.comparingLong(entry -> entry.getValue().offset()));
+
+        Path vectorsFile = directory.resolve(VECTORS_FILE);
+        Path indexFile = directory.resolve(INDEX_FILE);
+        Path vectorsTemp = directory.resolve(VECTORS_FILE + TEMP_SUFFIX);
+        Path indexTemp = directory.resolve(INDEX_FILE + TEMP_SUFFIX);
+        swapLock.writeLock().lock();
+        try {
+            Map<String, Location> compacted = new LinkedHashMap<>();
+            long offset = 0;
+            try (FileChannel newVectors = FileChannel.open(vectorsTemp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                 FileChannel newIndex = FileChannel.open(indexTemp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (Map.Entry<String, Location> entry : kept) {
+                    float[] vector = read(vectors, entry.getValue());
+                    writeFully(newVectors, encode(vector));
+                    writeFully(newIndex, indexEntry(entry.getKey(), offset, vector.length));
+                    compacted.put(entry.getKey(), new Location(offset, vector.length));
+                    offset += (long) vector.length * Float.BYTES;
+                }
+                newVectors.force(false);
+                newIndex.force(false);
+            }
+            vectors.close();
+            indexChannel.close();
+            Files.delete(indexFile);
+            Files.move(vectorsTemp, vectorsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(indexTemp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            vectors = FileChannel.open(vectorsFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            vectors.position(offset);
+            indexChannel.position(indexChannel.size());
+            index.clear();
+            index.putAll(compacted);
+            vectorsSize = offset;
+            dirty = false;
+            compactions++;
+            System.out.println("Cache disque des embeddings compacté : " + compacted.size() + " vecteurs gardés");
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+    }
+
+    /** Synchronise les fichiers si des entrées ont été ajoutées depuis le dernier appel. */
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            if (!dirty) {
+                return;
+            }
+            vectors.force(false);
+            indexChannel.force(false);
+            dirty = false;
+        } catch (IOException e) {
+            System.err.println("Synchronisation du cache d'embeddings impossible: " + e.getMessage());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("entries", index.size());
+        stats.put("bytes", vectorsSize);
+        stats.put("maxBytes", maxBytes);
+        stats.put("compactions", compactions);
+        return stats;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (!enabled) {
+            return;
+        }
+        flushScheduler.shutdown();
+        writeLock.lock();
+        try {
+            vectors.force(false);
+            indexChannel.force(false);
+            vectors.close();
+            indexChannel.close();
+        } catch (IOException e) {
+            System.err.println("Fermeture du cache d'embeddings: " + e.getMessage());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void open(String modelName) throws IOException {
+        Files.createDirectories(directory);
+        Path modelFile = directory.resolve(MODEL_FILE);
+        Path vectorsFile = directory.resolve(VECTORS_FILE);
+        Path indexFile = directory.resolve(INDEX_FILE);
+
+        if (Files.exists(modelFile) && !Files.readString(modelFile).trim().equals(modelName)) {
+            System.out.println("Modèle d'embedding changé : cache disque invalidé");
+            Files.deleteIfExists(vectorsFile);
+            Files.deleteIfExists(indexFile);
+        }
+        Files.writeString(modelFile, modelName);
+        Files.deleteIfExists(directory.resolve(VECTORS_FILE + TEMP_SUFFIX));
+        Files.deleteIfExists(directory.resolve(INDEX_FILE + TEMP_SUFFIX));
+
+        vectors = FileChannel.open(vectorsFile, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long vectorsLength = vectors.size();
+        long validIndexBytes = 0;
+        long validVectorBytes = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            while (true) {
+                int keyLength = in.readUnsignedShort();
+                byte[] key = new byte[keyLength];
+                in.readFully(key);
+                long offset = in.readLong();
+                int dimension = in.readInt();
+                long end = offset + (long) dimension * Float.BYTES;
+                if (dimension <= 0 || offset != validVectorBytes || end > vectorsLength) {
+                    break;
+                }
+                index.put(new String(key, StandardCharsets.UTF_8), new Location(offset, dimension));
+                validIndexBytes += Short.BYTES + keyLength + Long.BYTES + Integer.BYTES;
+                validVectorBytes = end;
+            }
+        } catch (EOFException e) {
+            // fin du fichier (éventuellement sur une entrée incomplète)
+        }
+
+        indexChannel.truncate(validIndexBytes);
+        indexChannel.position(validIndexBytes);
+        vectors.truncate(validVectorBytes);
+        vectors.position(validVectorBytes);
+        vectorsSize = validVectorBytes;
+    }
+
+    private static ByteBuffer encode(float[] vector) {
+        ByteBuffer data = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        data.asFloatBuffer().put(vector);
+        return data;
+    }
+
+    private static ByteBuffer indexEntry(String key, long offset, int dimension) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(Short.BYTES + keyBytes.length + Long.BYTES + Integer.BYTES);
+        entry.putShort((short) keyBytes.length).put(keyBytes).putLong(offset).putInt(dimension).flip();
+        return entry;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.mql.ia.rag.embedding;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache mémoire des embeddings partagé par l'ingestion et les requêtes
+ * (EmbeddingService et le modèle LangChain). Clé = nom du modèle + SHA-256
+ * du texte normalisé (NFC, espaces compactés). Éviction LRU bornée en octets.
+ * Un défaut est ensuite cherché dans le cache disque (DiskEmbeddingCache),
+ * qui reçoit aussi chaque nouvel embedding.
+ */
+@Component
+public class EmbeddingCache {
+
+    // Clé (64 caractères hex + modèle) et entrée du LinkedHashMap, approximativement
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+    private final long maxBytes;
+    private final DiskEmbeddingCache disk;
+    private final LinkedHashMap<String, float[]> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public EmbeddingCache(long maxBytes) {
+        this(maxBytes, null);
+    }
+
+    @Autowired
+    public EmbeddingCache(@Value("${embedding.cache.max-bytes:67108864}") long maxBytes,
+                          DiskEmbeddingCache disk) {
+        this.maxBytes = maxBytes;
+        this.disk = disk;
+    }
+
+    public float[] get(String model, String text) {
+        return get(key(model, text));
+    }
+
+    public float[] get(String key) {
+        float[] vector;
+        synchronized (entries) {
+            vector = entries.get(key);
+        }
+        if (vector != null) {
+            hits.incrementAndGet();
+            return vector;
+        }
+        vector = disk == null ? null : disk.get(key);
+        if (vector != null) {
+            diskHits.incrementAndGet();
+            putInMemory(key, vector);
+            return vector;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String model, String text, float[] vector) {
+        put(key(model, text), vector);
+    }
+
+    public void put(String key, float[] vector) {
+        putInMemory(key, vector);
+        if (disk != null) {
+            disk.put(key, vector);
+        }
+    }
+
+    private void putInMemory(String key, float[] vector) {
+        long size = sizeOf(vector);
+        if (maxBytes <= 0 || size > maxBytes) {
+            return;
+        }
+        synchronized (entries) {
+            float[] previous = entries.put(key, vector);
+            if (previous != null) {
+                bytes -= sizeOf(previous);
+            }
+            bytes += size;
+            Iterator<float[]> eldest = entries.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= sizeOf(eldest.next());
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("entries", entries.size());
+            stats.put("bytes", bytes);
+        }
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits.get());
+        stats.put("diskHits", diskHits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        long lookups = hits.get() + diskHits.get() + misses.get();
+        stats.put("hitRatio", lookups == 0 ? 0.0 : (double) (hits.get() + diskHits.get()) / lookups);
+        if (disk != null) {
+            stats.put("disk", disk.stats());
+        }
+        return stats;
+    }
+
+    /** Clé de cache : modèle + SHA-256 (hex) du texte normalisé. */
+    public static String key(String model, String text) {
+        return model + ":" + hash(text);
+    }
+
+    public static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(normalize(text).getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 indisponible", e);
+        }
+    }
+
+    static String normalize(String text) {
+        return Normalizer.normalize(text, Normalizer.Form.NFC).strip().replaceAll("\\s+", " ");
+    }
+
+    private static long sizeOf(float[] vector) {
+        return (long) vector.length * Float.BYTES + ENTRY_OVERHEAD_BYTES;
+    }
+}
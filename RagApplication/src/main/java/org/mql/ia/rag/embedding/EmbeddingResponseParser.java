@@ -0,0 +1,158 @@
+package org.mql.ia.rag.embedding;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Lecture en flux d'une réponse /v1/embeddings (format OpenAI) : chaque
+ * objet de data[] est converti dès qu'il est lu, embedding directement dans
+ * un float[], sans arbre JsonNode ni Double intermédiaires. Les autres
+ * champs (model, usage...) sont sautés.
+ *
+ * Le décodage est piloté jeton par jeton : parse() les tire d'un parser
+ * bloquant, tandis qu'une instance incremental() reçoit les morceaux de la
+ * réponse HTTP au fil de leur arrivée (parser non bloquant de Jackson) et
+ * n'a jamais le corps entier en mémoire.
+ */
+public final class EmbeddingResponseParser {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+    private final float[][] vectors;
+
+    // Profondeur : 1 = objet racine, 2 = tableau data, 3 = entrée, 4 = tableau embedding
+    private int depth;
+    private boolean started;
+    private String rootField;
+    private String entryField;
+    private boolean inData;
+    private boolean inEmbedding;
+    private int position;
+    private int index;
+    private float[] vector;
+    private float[] scratch = new float[1024];
+    private int length;
+
+    private EmbeddingResponseParser(JsonParser parser, ByteArrayFeeder feeder, int expected) {
+        this.parser = parser;
+        this.feeder = feeder;
+        this.vectors = new float[expected][];
+    }
+
+    /**
+     * Embeddings rangés selon leur champ index (ordre d'arrivée à défaut).
+     * @param expected nombre d'entrées envoyées dans la requête
+     */
+    public static float[][] parse(JsonParser parser, int expected) throws IOException {
+        EmbeddingResponseParser decoder = new EmbeddingResponseParser(parser, null, expected);
+        JsonToken token;
+        while ((token = parser.nextToken()) != null) {
+            decoder.accept(token);
+        }
+        return decoder.result();
+    }
+
+    /** Décodeur alimenté par feed() puis terminé par finish(). */
+    public static EmbeddingResponseParser incremental(int expected) throws IOException {
+        JsonParser parser = FACTORY.createNonBlockingByteArrayParser();
+        return new EmbeddingResponseParser(parser, (ByteArrayFeeder) parser.getNonBlockingInputFeeder(), expected);
+    }
+
+    /** Décode tout ce que le morceau permet ; bytes n'est plus lu au retour. */
+    public void feed(byte[] bytes) throws IOException {
+        feeder.feedInput(bytes, 0, bytes.length);
+        drain();
+    }
+
+    /** Fin de la réponse : embeddings rangés selon leur index. */
+    public float[][] finish() throws IOException {
+        feeder.endOfInput();
+        drain();
+        parser.close();
+        return result();
+    }
+
+    private void drain() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            accept(token);
+        }
+    }
+
+    private void accept(JsonToken token) throws IOException {
+        if (!started) {
+            if (token != JsonToken.START_OBJECT) {
+                throw new IOException("Réponse d'embeddings invalide: objet attendu");
+            }
+            started = true;
+        }
+        switch (token) {
+            case START_OBJECT, START_ARRAY -> {
+                depth++;
+                if (depth == 2 && token == JsonToken.START_ARRAY && "data".equals(rootField)) {
+                    inData = true;
+                } else if (depth == 3 && inData && token == JsonToken.START_OBJECT) {
+                    index = position++;
+                    vector = null;
+                    entryField = null;
+                } else if (depth == 4 && inData && token == JsonToken.START_ARRAY && "embedding".equals(entryField)) {
+                    inEmbedding = true;
+                    length = 0;
+                }
+            }
+            case END_OBJECT, END_ARRAY -> {
+                if (depth == 4 && inEmbedding) {
+                    vector = Arrays.copyOf(scratch, length);
+                    inEmbedding = false;
+                } else if (depth == 3 && inData) {
+                    if (vector == null || index < 0 || index >= vectors.length) {
+                        throw new IOException("Entrée d'embedding invalide à l'index " + index);
+                    }
+                    vectors[index] = vector;
+                } else if (depth == 2) {
+                    inData = false;
+                }
+                depth--;
+            }
+            case FIELD_NAME -> {
+                if (depth == 1) {
+                    rootField = parser.currentName();
+                } else if (depth == 3) {
+                    entryField = parser.currentName();
+                }
+            }
+            case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> {
+                if (depth == 4 && inEmbedding) {
+                    if (length == scratch.length) {
+                        scratch = Arrays.copyOf(scratch, length * 2);
+                    }
+                    scratch[length++] = parser.getFloatValue();
+                } else if (depth == 3 && inData && token == JsonToken.VALUE_NUMBER_INT
+                        && "index".equals(entryField)) {
+                    index = parser.getIntValue();
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    private float[][] result() throws IOException {
+        if (!started || depth != 0) {
+            throw new IOException("Réponse d'embeddings incomplète");
+        }
+        for (int i = 0; i < vectors.length; i++) {
+            if (vectors[i] == null) {
+                throw new IOException("Embedding manquant pour l'entrée " + i + " sur " + vectors.length);
+            }
+        }
+        return vectors;
+    }
+}
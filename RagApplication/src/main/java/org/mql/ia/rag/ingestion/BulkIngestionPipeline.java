@@ -0,0 +1,564 @@
+package org.mql.ia.rag.ingestion;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+import org.mql.ia.rag.service.ChromaDBService;
+import org.mql.ia.rag.service.LangChainRAGService;
+import org.mql.ia.rag.store.EmbeddingVector;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Ingestion d'une archive zip de documents en cinq étages reliés par des
+ * files bornées : lecture (un thread, l'archive est lue en flux) → décodage
+ * (.txt) ou extraction Tika (PDF, DOCX, HTML, voir TextExtractor) → découpage en chunks (CPU) → embedding (appels au serveur) → écriture
+ * dans le store. Chaque étage a son propre nombre de workers ; une file
+ * pleine bloque l'étage amont, si bien que le découpage des fichiers suivants
+ * avance pendant que les précédents attendent leurs embeddings, sans que la
+ * mémoire dépasse quelques fichiers par file.
+ *
+ * Chaque entrée est un document à part entière (clé = chemin dans
+ * l'archive) : ré-importer l'archive ne recalcule que les chunks modifiés.
+ * Le remplacement d'un document n'est ouvert (beginDocument, qui le
+ * verrouille) qu'à l'étage d'écriture : les étages amont décident des
+ * reprises sur une vue du document, sans le bloquer.
+ * L'étage d'embedding regroupe les petits fichiers déjà en attente dans une
+ * même requête multi-input.
+ */
+@Component
+public class BulkIngestionPipeline {
+
+    // Fin de flux, transmise une fois par worker de l'étage suivant
+    private static final Object END = new Object();
+    private static final int MAX_REPORTED_ERRORS = 20;
+
+    private final LangChainRAGService langChainService;
+    private final ChromaDBService chromaDBService;
+    private final TextChunker chunker;
+    private final TextExtractor extractor;
+    private final NearDuplicateDetector duplicates;
+    private final Thread.Builder threads;
+    private final int queueCapacity;
+    private final int parseWorkers;
+    private final int chunkWorkers;
+    private final int embedWorkers;
+    private final int storeWorkers;
+    private final int maxFileBytes;
+    private final int maxFiles;
+    private final int batchMaxTokens;
+    private final int batchMaxInputs;
+
+    public BulkIngestionPipeline(LangChainRAGService langChainService,
+                                 ChromaDBService chromaDBService,
+                                 TextChunker chunker,
+                                 TextExtractor extractor,
+                                 NearDuplicateDetector duplicates,
+                                 @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                                 @Value("${ingestion.bulk.queue-capacity:16}") int queueCapacity,
+                                 @Value("${ingestion.bulk.parse-workers:2}") int parseWorkers,
+                                 @Value("${ingestion.bulk.chunk-workers:0}") int chunkWorkers,
+                                 @Value("${ingestion.bulk.embed-workers:4}") int embedWorkers,
+                                 @Value("${ingestion.bulk.store-workers:2}") int storeWorkers,
+                                 @Value("${ingestion.bulk.max-file-bytes:10485760}") int maxFileBytes,
+                                 @Value("${ingestion.bulk.max-files:100000}") int maxFiles,
+                                 @Value("${embedding.batch.max-tokens:8192}") int batchMaxTokens,
+                                 @Value("${embedding.batch.max-inputs:64}") int batchMaxInputs) {
+        this.langChainService = langChainService;
+        this.chromaDBService = chromaDBService;
+        this.chunker = chunker;
+        this.extractor = extractor;
+        this.duplicates = duplicates;
+        this.threads = virtualThreads ? Thread.ofVirtual() : Thread.ofPlatform().daemon();
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.parseWorkers = Math.max(1, parseWorkers);
+        // 0 : un worker par cœur pour l'étage CPU
+        this.chunkWorkers = chunkWorkers > 0 ? chunkWorkers : Runtime.getRuntime().availableProcessors();
+        this.embedWorkers = Math.max(1, embedWorkers);
+        this.storeWorkers = Math.max(1, storeWorkers);
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        this.batchMaxTokens = batchMaxTokens;
+        this.batchMaxInputs = batchMaxInputs;
+    }
+
+    public Run newRun(Long userId, IngestionProgress progress) {
+        return new Run(userId, progress);
+    }
+
+    private record RawFile(String name, byte[] content) {
+    }
+
+    private record ParsedFile(String name, String text) {
+    }
+
+    /**
+     * Chunk prêt à écrire : vector null tant que l'embedding n'est pas calculé
+     * (ou si exact). Un quasi-doublon (aliasOf) porte la copie du vecteur de sa source.
+     */
+    private static final class PlannedChunk {
+        final String id;
+        final TextSegment segment;
+        final int tokens;
+        // Remis à false si le chunk a disparu du store avant l'écriture
+        boolean exact;
+        final String aliasOf;
+        EmbeddingVector vector;
+
+        PlannedChunk(String id, TextSegment segment, int tokens, boolean exact, String aliasOf,
+                     EmbeddingVector vector) {
+            this.id = id;
+            this.segment = segment;
+            this.tokens = tokens;
+            this.exact = exact;
+            this.aliasOf = aliasOf;
+            this.vector = vector;
+        }
+
+        boolean needsEmbedding() {
+            return !exact && vector == null;
+        }
+    }
+
+    private record ChunkedFile(String name, String docId, List<PlannedChunk> chunks) {
+    }
+
+    /** Compteurs d'un étage : éléments traités, temps de travail, temps bloqué sur la file suivante. */
+    private static final class Stage {
+        final String name;
+        final int workers;
+        final BlockingQueue<Object> input;
+        final AtomicInteger running;
+        final AtomicLong items = new AtomicLong();
+        final AtomicLong busyNanos = new AtomicLong();
+        final AtomicLong blockedNanos = new AtomicLong();
+        volatile long finishedAt;
+
+        Stage(String name, int workers, int capacity) {
+            this.name = name;
+            this.workers = workers;
+            this.input = capacity > 0 ? new ArrayBlockingQueue<>(capacity) : null;
+            this.running = new AtomicInteger(workers);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(Object item) throws InterruptedException;
+    }
+
+    /** Une exécution du pipeline sur une archive. */
+    public final class Run {
+
+        private final Long userId;
+        private final String tenant;
+        private final IngestionProgress progress;
+        private final Stage read = new Stage("read", 1, 0);
+        private final Stage parse = new Stage("parse", parseWorkers, queueCapacity);
+        private final Stage chunk = new Stage("chunk", chunkWorkers, queueCapacity);
+        private final Stage embed = new Stage("embed", embedWorkers, queueCapacity);
+        private final Stage store = new Stage("store", storeWorkers, queueCapacity);
+        private final List<Thread> workers = new ArrayList<>();
+
+        private final AtomicInteger filesRead = new AtomicInteger();
+        private final AtomicInteger filesStored = new AtomicInteger();
+        private final AtomicInteger filesFailed = new AtomicInteger();
+        private final AtomicInteger filesSkipped = new AtomicInteger();
+        private final List<Map<String, String>> errors = new ArrayList<>();
+        private volatile long startedAt;
+
+        private Run(Long userId, IngestionProgress progress) {
+            this.userId = userId;
+            this.tenant = userId.toString();
+            this.progress = progress;
+        }
+
+        /** Traite l'archive jusqu'au dernier fichier écrit ; le flux n'est pas fermé. */
+        public void execute(InputStream archive) throws IOException, InterruptedException {
+            startedAt = System.currentTimeMillis();
+            start(parse, chunk, this::parseFile);
+            start(chunk, embed, this::chunkFile);
+            for (int i = 0; i < embed.workers; i++) {
+                workers.add(threads.name("bulk-embed-" + i).start(this::embedLoop));
+            }
+            start(store, null, this::storeFile);
+
+            try {
+                readArchive(archive);
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                workers.forEach(Thread::interrupt);
+                throw e;
+            } finally {
+                // Les workers s'arrêtent d'eux-mêmes en fin de flux
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+                // Fichiers restés en file après une interruption : comptés en échec
+                for (Object item : embed.input) {
+                    if (item instanceof ChunkedFile file) {
+                        fail(file.name(), "Import interrompu");
+                    }
+                }
+                for (Object item : store.input) {
+                    if (item instanceof ChunkedFile file) {
+                        fail(file.name(), "Import interrompu");
+                    }
+                }
+            }
+            System.out.println("Import en masse terminé : " + filesStored.get() + " fichiers, "
+                + filesFailed.get() + " en échec, " + filesSkipped.get() + " ignorés");
+        }
+
+        public Map<String, Object> stats() {
+            Map<String, Object> files = new LinkedHashMap<>();
+            files.put("read", filesRead.get());
+            files.put("stored", filesStored.get());
+            files.put("failed", filesFailed.get());
+            files.put("skipped", filesSkipped.get());
+
+            List<Map<String, Object>> stages = new ArrayList<>();
+            for (Stage stage : List.of(read, parse, chunk, embed, store)) {
+                stages.add(stageStats(stage));
+            }
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("files", files);
+            stats.put("stages", stages);
+            synchronized (errors) {
+                stats.put("errors", List.copyOf(errors));
+            }
+            return stats;
+        }
+
+        private Map<String, Object> stageStats(Stage stage) {
+            long end = stage.finishedAt > 0 ? stage.finishedAt : System.currentTimeMillis();
+            long elapsed = Math.max(1, end - startedAt);
+            long busyMillis = stage.busyNanos.get() / 1_000_000;
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("stage", stage.name);
+            stats.put("workers", stage.workers);
+            stats.put("items", stage.items.get());
+            stats.put("itemsPerSecond", stage.items.get() * 1000.0 / elapsed);
+            stats.put("busyMillis", busyMillis);
+            // Part du temps où les workers travaillent : l'étage le plus proche de 1 limite le débit
+            stats.put("utilization", Math.min(1.0, (double) busyMillis / (elapsed * stage.workers)));
+            stats.put("blockedMillis", stage.blockedNanos.get() / 1_000_000);
+            stats.put("queued", stage.input == null ? 0 : stage.input.size());
+            return stats;
+        }
+
+        private void readArchive(InputStream archive) throws IOException, InterruptedException {
+            ZipInputStream zip = new ZipInputStream(archive, StandardCharsets.UTF_8);
+            try {
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    if (entry.isDirectory()) {
+                        continue;
+                    }
+                    long begin = System.nanoTime();
+                    String name = entry.getName();
+                    if (!extractor.supports(name)) {
+                        filesSkipped.incrementAndGet();
+                        continue;
+                    }
+                    if (filesRead.get() >= maxFiles) {
+                        throw new IOException("Archive trop volumineuse (max " + maxFiles + " fichiers)");
+                    }
+                    // Lecture bornée : une entrée annoncée petite mais qui se décompresse en grand est refusée
+                    byte[] content = zip.readNBytes(maxFileBytes + 1);
+                    filesRead.incrementAndGet();
+                    if (content.length > maxFileBytes) {
+                        fail(name, "Fichier trop volumineux (max " + maxFileBytes + " octets)");
+                        continue;
+                    }
+                    emit(read, parse, new RawFile(name, content));
+                    read.items.incrementAndGet();
+                    read.busyNanos.addAndGet(System.nanoTime() - begin);
+                }
+            } finally {
+                finish(read, parse);
+            }
+        }
+
+        private void parseFile(Object item) throws InterruptedException {
+            RawFile file = (RawFile) item;
+            String text;
+            try {
+                text = TextExtractor.isPlainText(file.name())
+                    ? extractor.decode(file.name(), file.content())
+                    // L'attente d'une place de TextExtractor ralentit cet étage, pas les suivants
+                    : extractor.extract(file.name(), new ByteArrayInputStream(file.content()));
+            } catch (CharacterCodingException e) {
+                fail(file.name(), "Fichier non UTF-8");
+                return;
+            } catch (IOException e) {
+                fail(file.name(), e.getMessage());
+                return;
+            }
+            emit(parse, chunk, new ParsedFile(file.name(), text));
+        }
+
+        private void chunkFile(Object item) throws InterruptedException {
+            ParsedFile file = (ParsedFile) item;
+            String docId = IngestionQueue.documentId(userId, file.name());
+            ChromaDBService.DocumentView document = chromaDBService.viewDocument(docId);
+            List<PlannedChunk> planned = new ArrayList<>();
+            try {
+                TokenChunkReader chunks = chunker.open(new StringReader(file.text()));
+                ChunkIdentity identity = new ChunkIdentity(docId);
+                TokenChunkReader.Chunk chunk;
+                while ((chunk = chunks.next()) != null) {
+                    String hash = ChunkIdentity.hash(chunk.text());
+                    String id = identity.next(hash);
+                    long fingerprint = duplicates.fingerprint(chunk.text());
+                    Map<String, String> meta = new HashMap<>();
+                    meta.put("filename", file.name());
+                    meta.put("userId", tenant);
+                    meta.put("chunkIndex", String.valueOf(chunk.index()));
+                    meta.put("startOffset", String.valueOf(chunk.start()));
+                    meta.put("endOffset", String.valueOf(chunk.end()));
+                    meta.put("contentHash", hash);
+                    meta.put("simhash", SimHash.format(fingerprint));
+                    meta.put("docId", docId);
+                    progress.chunksRead(1);
+
+                    NearDuplicateDetector.Reuse reuse = duplicates.lookup(document, id, tenant, fingerprint);
+                    if (reuse != null && reuse.exact()) {
+                        progress.chunksReused(1);
+                    } else if (reuse != null) {
+                        meta.put("nearDuplicateOf", reuse.sourceId());
+                        progress.chunksNearDuplicate(1);
+                    }
+                    boolean alias = reuse != null && !reuse.exact();
+                    planned.add(new PlannedChunk(id, TextSegment.from(chunk.text(), Metadata.from(meta)),
+                        chunk.tokens(), reuse != null && reuse.exact(), alias ? reuse.sourceId() : null,
+                        alias ? reuse.vector() : null));
+                }
+            } catch (IOException | RuntimeException e) {
+                fail(file.name(), e.getMessage());
+                return;
+            }
+            emit(chunk, embed, new ChunkedFile(file.name(), docId, planned));
+        }
+
+        /**
+         * Worker d'embedding : prend un fichier puis ceux déjà en attente, sans
+         * les attendre, tant que le lot reste sous embedding.batch.max-inputs.
+         */
+        private void embedLoop() {
+            boolean end = false;
+            // Fichiers pris dans la file et pas encore transmis à l'étage d'écriture
+            Deque<ChunkedFile> pending = new ArrayDeque<>();
+            try {
+                while (!end) {
+                    Object item = embed.input.take();
+                    if (item == END) {
+                        break;
+                    }
+                    long begin = System.nanoTime();
+                    List<ChunkedFile> group = new ArrayList<>();
+                    pending.add((ChunkedFile) item);
+                    group.add((ChunkedFile) item);
+                    int inputs = pendingInputs((ChunkedFile) item);
+                    while (inputs < batchMaxInputs) {
+                        Object more = embed.input.poll();
+                        if (more == null) {
+                            break;
+                        }
+                        if (more == END) {
+                            end = true;
+                            break;
+                        }
+                        group.add((ChunkedFile) more);
+                        pending.add((ChunkedFile) more);
+                        inputs += pendingInputs((ChunkedFile) more);
+                    }
+                    List<ChunkedFile> embedded = embedGroup(group);
+                    // Les fichiers en échec sont déjà comptés par embedGroup
+                    pending.retainAll(embedded);
+                    while (!pending.isEmpty()) {
+                        emit(embed, store, pending.peekFirst());
+                        pending.removeFirst();
+                    }
+                    embed.items.addAndGet(group.size());
+                    embed.busyNanos.addAndGet(System.nanoTime() - begin);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                for (ChunkedFile file : pending) {
+                    fail(file.name(), "Import interrompu");
+                }
+                finish(embed, store);
+            }
+        }
+
+        /** Fichiers du groupe dont tous les chunks ont un vecteur ; un lot en échec est retenté fichier par fichier. */
+        private List<ChunkedFile> embedGroup(List<ChunkedFile> group) {
+            try {
+                embedChunks(group.stream().flatMap(file -> file.chunks().stream()).toList());
+                return group;
+            } catch (RuntimeException e) {
+                if (group.size() == 1) {
+                    fail(group.get(0).name(), "Embedding impossible: " + e.getMessage());
+                    return List.of();
+                }
+            }
+            List<ChunkedFile> embedded = new ArrayList<>();
+            for (ChunkedFile file : group) {
+                embedded.addAll(embedGroup(List.of(file)));
+            }
+            return embedded;
+        }
+
+        private void embedChunks(List<PlannedChunk> chunks) {
+            List<PlannedChunk> batch = new ArrayList<>();
+            int batchTokens = 0;
+            for (PlannedChunk chunk : chunks) {
+                if (!chunk.needsEmbedding()) {
+                    continue;
+                }
+                if (!batch.isEmpty()
+                        && (batchTokens + chunk.tokens > batchMaxTokens || batch.size() >= batchMaxInputs)) {
+                    embedBatch(batch);
+                    batch = new ArrayList<>();
+                    batchTokens = 0;
+                }
+                batch.add(chunk);
+                batchTokens += chunk.tokens;
+            }
+            if (!batch.isEmpty()) {
+                embedBatch(batch);
+            }
+        }
+
+        private void embedBatch(List<PlannedChunk> batch) {
+            List<EmbeddingVector> vectors = langChainService.embed(batch.stream().map(c -> c.segment).toList());
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).vector = vectors.get(i);
+            }
+            progress.chunksEmbedded(batch.size());
+        }
+
+        /** Le document n'est verrouillé que le temps de son écriture. */
+        private void storeFile(Object item) {
+            ChunkedFile file = (ChunkedFile) item;
+            ChromaDBService.DocumentUpdate update = chromaDBService.beginDocument(file.docId());
+            try {
+                // Chunk repris mais retiré depuis le découpage (document supprimé entre-temps) : embedding ici
+                for (PlannedChunk chunk : file.chunks()) {
+                    if (chunk.exact && !update.contains(chunk.id)) {
+                        chunk.exact = false;
+                    }
+                }
+                embedChunks(file.chunks());
+                for (PlannedChunk chunk : file.chunks()) {
+                    Map<String, Object> metadata = new HashMap<>(chunk.segment.metadata().toMap());
+                    if (chunk.aliasOf != null) {
+                        update.alias(chunk.id, chunk.segment.text(), chunk.aliasOf, chunk.vector, metadata);
+                    } else {
+                        update.put(chunk.id, chunk.segment.text(), chunk.vector, metadata);
+                    }
+                }
+                update.commit();
+                progress.chunksStored(file.chunks().size());
+                filesStored.incrementAndGet();
+            } catch (RuntimeException e) {
+                update.abort();
+                fail(file.name(), e.getMessage());
+            }
+        }
+
+        private int pendingInputs(ChunkedFile file) {
+            int count = 0;
+            for (PlannedChunk chunk : file.chunks()) {
+                if (chunk.needsEmbedding()) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private void start(Stage stage, Stage next, Handler handler) {
+            for (int i = 0; i < stage.workers; i++) {
+                workers.add(threads.name("bulk-" + stage.name + "-" + i).start(() -> work(stage, next, handler)));
+            }
+        }
+
+        private void work(Stage stage, Stage next, Handler handler) {
+            try {
+                while (true) {
+                    Object item = stage.input.take();
+                    if (item == END) {
+                        break;
+                    }
+                    long begin = System.nanoTime();
+                    handler.handle(item);
+                    stage.items.incrementAndGet();
+                    stage.busyNanos.addAndGet(System.nanoTime() - begin);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                finish(stage, next);
+            }
+        }
+
+        /** Met l'élément dans la file de l'étage suivant ; le temps d'attente est décompté du temps de travail. */
+        private void emit(Stage from, Stage to, Object item) throws InterruptedException {
+            long begin = System.nanoTime();
+            to.input.put(item);
+            long blocked = System.nanoTime() - begin;
+            from.blockedNanos.addAndGet(blocked);
+            from.busyNanos.addAndGet(-blocked);
+        }
+
+        /** Dernier worker d'un étage : fin de flux pour chaque worker de l'étage suivant. */
+        private void finish(Stage stage, Stage next) {
+            if (stage.running.decrementAndGet() > 0) {
+                return;
+            }
+            stage.finishedAt = System.currentTimeMillis();
+            if (next == null) {
+                return;
+            }
+            for (int i = 0; i < next.workers; i++) {
+                try {
+                    next.input.put(END);
+                } catch (InterruptedException e) {
+                    // Interruption de tout le pipeline : les workers suivants sont interrompus aussi
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        private void fail(String name, String message) {
+            filesFailed.incrementAndGet();
+            System.err.println("Import en masse, fichier en échec: " + name + " - " + message);
+            synchronized (errors) {
+                if (errors.size() < MAX_REPORTED_ERRORS) {
+                    errors.add(Map.of("file", name, "error", String.valueOf(message)));
+                }
+            }
+        }
+    }
+}
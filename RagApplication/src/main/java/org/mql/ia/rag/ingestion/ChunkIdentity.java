@@ -0,0 +1,37 @@
+package org.mql.ia.rag.ingestion;
+
+import org.mql.ia.rag.embedding.EmbeddingCache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Identifiants des chunks d'un document, dérivés de leur contenu : docId +
+ * début du SHA-256 du texte normalisé (le même hash que le cache
+ * d'embeddings). Un chunk inchangé garde son id d'un upload à l'autre, quelle
+ * que soit sa position ; un texte répété dans le document reçoit un suffixe
+ * d'occurrence.
+ */
+public class ChunkIdentity {
+
+    private static final int HASH_PREFIX = 16;
+
+    private final String docId;
+    private final Map<String, Integer> occurrences = new HashMap<>();
+
+    public ChunkIdentity(String docId) {
+        this.docId = docId;
+    }
+
+    /** Hash complet du contenu, gardé dans la metadata contentHash. */
+    public static String hash(String text) {
+        return EmbeddingCache.hash(text);
+    }
+
+    /** Id du chunk de hash donné, dans l'ordre de lecture du document. */
+    public String next(String hash) {
+        String base = docId + "_" + hash.substring(0, HASH_PREFIX);
+        int occurrence = occurrences.merge(base, 1, Integer::sum) - 1;
+        return occurrence == 0 ? base : base + "_" + occurrence;
+    }
+}
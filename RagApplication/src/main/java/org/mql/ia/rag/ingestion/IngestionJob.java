@@ -0,0 +1,143 @@
+package org.mql.ia.rag.ingestion;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/** Un upload en attente ou en cours de traitement, avec ses compteurs. */
+public class IngestionJob implements IngestionProgress {
+
+    public enum Kind { SIMPLE, LANGCHAIN, BULK }
+
+    public enum Status { QUEUED, RUNNING, DONE, FAILED }
+
+    private final String id;
+    private final String docId;
+    private final Kind kind;
+    private final Long userId;
+    private final String filename;
+    private final long queuedAt;
+
+    private volatile Status status = Status.QUEUED;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile String error;
+    // Détail fourni par le traitement (étages de l'import en masse)
+    private volatile Supplier<Map<String, Object>> details;
+    private final AtomicInteger readChunks = new AtomicInteger();
+    private final AtomicInteger embeddedChunks = new AtomicInteger();
+    private final AtomicInteger storedChunks = new AtomicInteger();
+    private final AtomicInteger reusedChunks = new AtomicInteger();
+    private final AtomicInteger nearDuplicateChunks = new AtomicInteger();
+
+    IngestionJob(String id, String docId, Kind kind, Long userId, String filename, long queuedAt) {
+        this.id = id;
+        this.docId = docId;
+        this.kind = kind;
+        this.userId = userId;
+        this.filename = filename;
+        this.queuedAt = queuedAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getDocId() {
+        return docId;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public long getQueuedAt() {
+        return queuedAt;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    void attach(Supplier<Map<String, Object>> details) {
+        this.details = details;
+    }
+
+    void started() {
+        startedAt = System.currentTimeMillis();
+        status = Status.RUNNING;
+    }
+
+    void finished() {
+        finishedAt = System.currentTimeMillis();
+        status = Status.DONE;
+    }
+
+    void failed(String message) {
+        error = message;
+        finishedAt = System.currentTimeMillis();
+        status = Status.FAILED;
+    }
+
+    @Override
+    public void chunksRead(int count) {
+        readChunks.addAndGet(count);
+    }
+
+    @Override
+    public void chunksEmbedded(int count) {
+        embeddedChunks.addAndGet(count);
+    }
+
+    @Override
+    public void chunksStored(int count) {
+        storedChunks.addAndGet(count);
+    }
+
+    @Override
+    public void chunksReused(int count) {
+        reusedChunks.addAndGet(count);
+    }
+
+    @Override
+    public void chunksNearDuplicate(int count) {
+        nearDuplicateChunks.addAndGet(count);
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("jobId", id);
+        map.put("docId", docId);
+        map.put("filename", filename);
+        map.put("status", status.name());
+        map.put("chunksRead", readChunks.get());
+        map.put("chunksEmbedded", embeddedChunks.get());
+        map.put("chunksStored", storedChunks.get());
+        map.put("chunksReused", reusedChunks.get());
+        map.put("chunksNearDuplicate", nearDuplicateChunks.get());
+        map.put("queuedAt", queuedAt);
+        if (startedAt > 0) {
+            map.put("startedAt", startedAt);
+        }
+        if (finishedAt > 0) {
+            map.put("finishedAt", finishedAt);
+        }
+        if (error != null) {
+            map.put("error", error);
+        }
+        Supplier<Map<String, Object>> details = this.details;
+        if (details != null) {
+            map.put("pipeline", details.get());
+        }
+        return map;
+    }
+}
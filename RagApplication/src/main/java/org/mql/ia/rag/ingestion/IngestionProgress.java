@@ -0,0 +1,29 @@
+package org.mql.ia.rag.ingestion;
+
+/**
+ * Avancement d'une ingestion, alimenté par les services d'upload au fil de
+ * la lecture du fichier, des lots d'embeddings puis de l'écriture dans le
+ * store. Le nombre total de chunks n'est connu qu'en fin de lecture.
+ */
+public interface IngestionProgress {
+
+    IngestionProgress NONE = new IngestionProgress() {
+    };
+
+    default void chunksRead(int count) {
+    }
+
+    default void chunksEmbedded(int count) {
+    }
+
+    default void chunksStored(int count) {
+    }
+
+    /** Chunks inchangés depuis l'upload précédent du document : vecteur repris, pas d'embedding. */
+    default void chunksReused(int count) {
+    }
+
+    /** Chunks presque identiques à un chunk existant : vecteur de celui-ci copié, pas d'embedding. */
+    default void chunksNearDuplicate(int count) {
+    }
+}
@@ -0,0 +1,334 @@
+package org.mql.ia.rag.ingestion;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.mql.ia.rag.service.DocumentService;
+import org.mql.ia.rag.service.LangChainRAGService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * File d'ingestion bornée et durable. Un upload est d'abord écrit dans
+ * ingestion.dir (contenu puis descripteur, renommé atomiquement, chacun
+ * synchronisé sur disque ainsi que le répertoire) avant d'être accepté ; les
+ * deux fichiers ne sont supprimés qu'une fois le job terminé. Au démarrage, les descripteurs restants sont remis en file dans
+ * l'ordre d'arrivée ; rejouer un job est sans effet de bord, un document
+ * n'étant rendu visible qu'en fin d'ingestion.
+ *
+ * Le docId est stable : dérivé de l'utilisateur et d'une clé de document
+ * (fournie par le client, le nom du fichier à défaut), si bien qu'un
+ * ré-upload remplace le document précédent au lieu de s'y ajouter.
+ *
+ * Un petit nombre de workers fixe traite les jobs : l'ingestion ne prend
+ * jamais plus que workers x embedding.batch.max-in-flight places du
+ * limiteur d'embeddings, le reste reste disponible pour les requêtes.
+ */
+@Service
+public class IngestionQueue {
+
+    private static final String CONTENT_SUFFIX = ".bin";
+    private static final String DESCRIPTOR_SUFFIX = ".json";
+
+    /** Levée quand la file est pleine (HTTP 429). */
+    public static class QueueFullException extends RuntimeException {
+        public QueueFullException(int capacity) {
+            super("File d'ingestion pleine (" + capacity + " jobs), réessayez plus tard");
+        }
+    }
+
+    private record Descriptor(String id, String docId, String kind, Long userId, String filename, long queuedAt) {
+    }
+
+    /** Écriture du contenu d'un upload dans son fichier de file d'attente. */
+    @FunctionalInterface
+    public interface ContentWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private final DocumentService documentService;
+    private final LangChainRAGService langChainService;
+    private final BulkIngestionPipeline bulkPipeline;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Path directory;
+    private final int capacity;
+    private final int retainedJobs;
+
+    private final BlockingQueue<IngestionJob> queue = new LinkedBlockingQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Map<String, IngestionJob> active = new ConcurrentHashMap<>();
+    // Jobs terminés, les plus anciens oubliés au-delà de retainedJobs
+    private final LinkedHashMap<String, IngestionJob> finished = new LinkedHashMap<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running = true;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public IngestionQueue(DocumentService documentService,
+                          LangChainRAGService langChainService,
+                          BulkIngestionPipeline bulkPipeline,
+                          @Value("${ingestion.dir:./data/ingestion}") String directory,
+                          @Value("${ingestion.queue-capacity:100}") int capacity,
+                          @Value("${ingestion.workers:2}") int workerCount,
+                          @Value("${ingestion.retained-jobs:1000}") int retainedJobs) {
+        this.documentService = documentService;
+        this.langChainService = langChainService;
+        this.bulkPipeline = bulkPipeline;
+        this.directory = Paths.get(directory);
+        this.capacity = Math.max(1, capacity);
+        this.retainedJobs = retainedJobs;
+
+        try {
+            Files.createDirectories(this.directory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ouverture de la file d'ingestion impossible: " + directory, e);
+        }
+
+        for (int i = 0; i < Math.max(1, workerCount); i++) {
+            workers.add(Thread.ofPlatform().daemon().name("ingestion-worker-" + i).start(this::work));
+        }
+        System.out.println("File d'ingestion : " + workers.size() + " workers, capacité " + this.capacity
+            + ", " + queue.size() + " jobs repris");
+    }
+
+    /**
+     * Écrit l'upload sur disque et le met en file ; le flux est fermé.
+     * @param documentKey identité du document chez le client, null pour le nom du fichier
+     * @throws QueueFullException si capacity jobs sont déjà en attente ou en cours
+     */
+    public IngestionJob submit(IngestionJob.Kind kind, Long userId, String filename, String documentKey,
+                               InputStream content) throws IOException {
+        return submit(kind, userId, filename, documentKey, out -> {
+            try (InputStream source = content) {
+                source.transferTo(out);
+            }
+        });
+    }
+
+    /**
+     * Comme submit(InputStream), le contenu étant écrit par writer (archive
+     * construite à partir de plusieurs parties multipart par exemple).
+     */
+    public IngestionJob submit(IngestionJob.Kind kind, Long userId, String filename, String documentKey,
+                               ContentWriter writer) throws IOException {
+        if (pending.incrementAndGet() > capacity) {
+            pending.decrementAndGet();
+            rejected.incrementAndGet();
+            throw new QueueFullException(capacity);
+        }
+        IngestionJob job = new IngestionJob(UUID.randomUUID().toString(),
+            documentId(userId, documentKey != null && !documentKey.isBlank() ? documentKey : filename),
+            kind, userId, filename, System.currentTimeMillis());
+        try {
+            // Copie en flux : le fichier n'est jamais chargé entièrement en mémoire
+            writeDurably(contentFile(job.getId()), writer);
+            Path descriptor = descriptorFile(job.getId());
+            Path temp = directory.resolve(job.getId() + DESCRIPTOR_SUFFIX + ".tmp");
+            byte[] json = objectMapper.writeValueAsBytes(
+                new Descriptor(job.getId(), job.getDocId(), kind.name(), userId, filename, job.getQueuedAt()));
+            writeDurably(temp, out -> out.write(json));
+            Files.move(temp, descriptor, StandardCopyOption.ATOMIC_MOVE);
+            // Le renommage n'est durable qu'une fois le répertoire synchronisé
+            syncDirectory();
+        } catch (IOException | RuntimeException e) {
+            pending.decrementAndGet();
+            Files.deleteIfExists(contentFile(job.getId()));
+            Files.deleteIfExists(directory.resolve(job.getId() + DESCRIPTOR_SUFFIX + ".tmp"));
+            Files.deleteIfExists(descriptorFile(job.getId()));
+            throw e;
+        }
+        active.put(job.getId(), job);
+        queue.add(job);
+        accepted.incrementAndGet();
+        return job;
+    }
+
+    /** Id de document stable pour un utilisateur et une clé (UUID de type 3). */
+    public static String documentId(Long userId, String documentKey) {
+        return UUID.nameUUIDFromBytes((userId + "/" + documentKey).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * Job en file, en cours ou récemment terminé ; null s'il est inconnu ou
+     * appartient à un autre utilisateur.
+     */
+    public IngestionJob getJob(String jobId, Long userId) {
+        IngestionJob job = active.get(jobId);
+        if (job == null) {
+            synchronized (finished) {
+                job = finished.get(jobId);
+            }
+        }
+        return job != null && Objects.equals(job.getUserId(), userId) ? job : null;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("capacity", capacity);
+        stats.put("workers", workers.size());
+        stats.put("queued", queue.size());
+        stats.put("pending", pending.get());
+        stats.put("accepted", accepted.get());
+        stats.put("rejected", rejected.get());
+        stats.put("completed", completed.get());
+        stats.put("failed", failed.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void close() {
+        // Les jobs interrompus restent sur disque et seront repris au démarrage suivant
+        running = false;
+        workers.forEach(Thread::interrupt);
+    }
+
+    private void work() {
+        while (running) {
+            IngestionJob job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            process(job);
+        }
+    }
+
+    private void process(IngestionJob job) {
+        job.started();
+        try {
+            try (InputStream content = Files.newInputStream(contentFile(job.getId()))) {
+                if (job.getKind() == IngestionJob.Kind.BULK) {
+                    BulkIngestionPipeline.Run run = bulkPipeline.newRun(job.getUserId(), job);
+                    job.attach(run::stats);
+                    run.execute(content);
+                } else if (job.getKind() == IngestionJob.Kind.LANGCHAIN) {
+                    langChainService.uploadDocument(job.getDocId(), job.getFilename(), content, job.getUserId(), job);
+                } else {
+                    documentService.uploadDocument(job.getDocId(), job.getFilename(), content, job.getUserId(), job);
+                }
+            }
+            job.finished();
+            completed.incrementAndGet();
+            System.out.println("Ingestion terminée: " + job.getFilename() + " (" + job.getId() + ")");
+        } catch (Exception e) {
+            if (!running) {
+                return;
+            }
+            job.failed(e.getMessage());
+            failed.incrementAndGet();
+            System.err.println("Ingestion échouée: " + job.getFilename() + " - " + e.getMessage());
+        }
+        try {
+            Files.deleteIfExists(descriptorFile(job.getId()));
+            Files.deleteIfExists(contentFile(job.getId()));
+        } catch (IOException e) {
+            System.err.println("Nettoyage du job " + job.getId() + " impossible: " + e.getMessage());
+        }
+        // Rangé dans finished avant de quitter active : getJob le trouve toujours
+        synchronized (finished) {
+            finished.put(job.getId(), job);
+            while (finished.size() > retainedJobs) {
+                finished.remove(finished.keySet().iterator().next());
+            }
+        }
+        active.remove(job.getId());
+        pending.decrementAndGet();
+    }
+
+    private void recover() throws IOException {
+        List<Descriptor> descriptors = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + DESCRIPTOR_SUFFIX)) {
+            for (Path file : files) {
+                try {
+                    descriptors.add(objectMapper.readValue(file.toFile(), Descriptor.class));
+                } catch (IOException e) {
+                    System.err.println("Descripteur de job illisible ignoré: " + file.getFileName());
+                }
+            }
+        }
+        descriptors.sort(Comparator.comparingLong(Descriptor::queuedAt));
+        for (Descriptor descriptor : descriptors) {
+            if (!Files.exists(contentFile(descriptor.id()))) {
+                Files.deleteIfExists(descriptorFile(descriptor.id()));
+                continue;
+            }
+            // Descripteur antérieur aux docId stables : le docId était l'id du job
+            String docId = descriptor.docId() != null ? descriptor.docId() : descriptor.id();
+            IngestionJob job = new IngestionJob(descriptor.id(), docId,
+                IngestionJob.Kind.valueOf(descriptor.kind()), descriptor.userId(), descriptor.filename(),
+                descriptor.queuedAt());
+            // Un job repris est toujours accepté, même si la capacité a baissé entre-temps
+            pending.incrementAndGet();
+            active.put(job.getId(), job);
+            queue.add(job);
+        }
+
+        // Contenus sans descripteur : arrêt pendant un submit, l'upload n'avait pas été accepté
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.{bin,tmp}")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String jobId = name.substring(0, name.indexOf('.'));
+                if (!active.containsKey(jobId)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static void writeDurably(Path file, ContentWriter writer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+            writer.writeTo(out);
+            out.flush();
+            channel.force(true);
+        }
+    }
+
+    private void syncDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // Windows n'ouvre pas un répertoire en lecture ; NTFS journalise déjà le renommage
+        }
+    }
+
+    private Path contentFile(String jobId) {
+        return directory.resolve(jobId + CONTENT_SUFFIX);
+    }
+
+    private Path descriptorFile(String jobId) {
+        return directory.resolve(jobId + DESCRIPTOR_SUFFIX);
+    }
+}
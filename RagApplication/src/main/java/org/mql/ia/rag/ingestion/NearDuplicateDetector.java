@@ -0,0 +1,81 @@
+package org.mql.ia.rag.ingestion;
+
+import org.mql.ia.rag.service.ChromaDBService;
+import org.mql.ia.rag.store.EmbeddingVector;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Décide, pour chaque chunk lu, s'il faut calculer son embedding : un chunk
+ * déjà présent (même contenu) garde son vecteur, un chunk presque identique
+ * à un chunk du même utilisateur (modèles de contrats, versions d'un
+ * rapport...) en devient un alias : il partage le vecteur de celui-ci, sans
+ * appel au serveur ni nouvelle ligne dans l'index.
+ * La proximité est la distance de Hamming entre empreintes SimHash, bornée
+ * par ingestion.dedup.max-distance (sur 64 bits).
+ */
+@Component
+public class NearDuplicateDetector {
+
+    /**
+     * Vecteur repris pour un chunk : null si exact (le vecteur indexé reste en
+     * place), sinon la copie de celui de sourceId, qui ne sert que si la
+     * source disparaît avant le commit (voir DocumentUpdate.alias).
+     */
+    public record Reuse(EmbeddingVector vector, String sourceId, boolean exact) {
+    }
+
+    private final boolean enabled;
+    private final int maxDistance;
+
+    private final AtomicLong chunks = new AtomicLong();
+    private final AtomicLong exactDuplicates = new AtomicLong();
+    private final AtomicLong nearDuplicates = new AtomicLong();
+
+    public NearDuplicateDetector(@Value("${ingestion.dedup.enabled:true}") boolean enabled,
+                                 @Value("${ingestion.dedup.max-distance:3}") int maxDistance) {
+        this.enabled = enabled;
+        this.maxDistance = maxDistance;
+    }
+
+    public long fingerprint(String text) {
+        return SimHash.fingerprint(text);
+    }
+
+    /** Vecteur à reprendre pour le chunk id, ou null s'il faut calculer son embedding. */
+    public Reuse lookup(ChromaDBService.DocumentView document, String id, String tenant, long fingerprint) {
+        chunks.incrementAndGet();
+        if (document.contains(id)) {
+            exactDuplicates.incrementAndGet();
+            return new Reuse(null, id, true);
+        }
+        if (!enabled) {
+            return null;
+        }
+        ChromaDBService.NearDuplicate match = document.nearDuplicate(tenant, fingerprint);
+        if (match == null) {
+            return null;
+        }
+        nearDuplicates.incrementAndGet();
+        return new Reuse(match.vector(), match.id(), false);
+    }
+
+    public Map<String, Object> stats() {
+        long total = chunks.get();
+        long exact = exactDuplicates.get();
+        long near = nearDuplicates.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("maxDistance", maxDistance);
+        stats.put("chunks", total);
+        stats.put("exactDuplicates", exact);
+        stats.put("nearDuplicates", near);
+        stats.put("dedupRatio", total == 0 ? 0.0 : (double) (exact + near) / total);
+        stats.put("nearDuplicateRatio", total == 0 ? 0.0 : (double) near / total);
+        return stats;
+    }
+}
@@ -0,0 +1,90 @@
+package org.mql.ia.rag.ingestion;
+
+/**
+ * Empreinte SimHash 64 bits d'un texte (Charikar) : chaque triplet de mots
+ * consécutifs (shingle) vote pour ses bits, le bit final est celui de la
+ * majorité. Deux textes presque identiques ont des empreintes à faible
+ * distance de Hamming, contrairement à un hash cryptographique.
+ *
+ * Les mots sont les suites de lettres et de chiffres, en minuscules : la
+ * ponctuation et les blancs n'ont pas d'effet.
+ */
+public final class SimHash {
+
+    private static final int SHINGLE_WORDS = 3;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private SimHash() {
+    }
+
+    public static long fingerprint(String text) {
+        int[] votes = new int[Long.SIZE];
+        // Hash des SHINGLE_WORDS derniers mots, en anneau
+        long[] window = new long[SHINGLE_WORDS];
+        int words = 0;
+        long word = FNV_OFFSET;
+        boolean inWord = false;
+        for (int i = 0; i <= text.length(); ) {
+            int c = i < text.length() ? text.codePointAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word = (word ^ Character.toLowerCase(c)) * FNV_PRIME;
+                inWord = true;
+            } else if (inWord) {
+                window[words % SHINGLE_WORDS] = word;
+                words++;
+                if (words >= SHINGLE_WORDS) {
+                    vote(votes, shingle(window, words));
+                }
+                word = FNV_OFFSET;
+                inWord = false;
+            }
+            i += i < text.length() ? Character.charCount(c) : 1;
+        }
+        // Texte trop court pour un shingle : chaque mot vote seul
+        for (int i = 0; i < words && words < SHINGLE_WORDS; i++) {
+            vote(votes, mix(window[i]));
+        }
+        long fingerprint = 0;
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            if (votes[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /** Forme gardée dans la metadata simhash (16 chiffres hexadécimaux). */
+    public static String format(long fingerprint) {
+        return String.format("%016x", fingerprint);
+    }
+
+    private static long shingle(long[] window, int words) {
+        // Ordre des mots pris en compte : rotations différentes selon la position
+        long hash = 0;
+        for (int i = 0; i < SHINGLE_WORDS; i++) {
+            hash ^= Long.rotateLeft(window[(words + i) % SHINGLE_WORDS], 21 * i);
+        }
+        return mix(hash);
+    }
+
+    private static void vote(int[] votes, long hash) {
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            votes[bit] += ((hash >>> bit) & 1) != 0 ? 1 : -1;
+        }
+    }
+
+    /** Finaliseur de MurmurHash3 : répartit les bits du hash FNV. */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
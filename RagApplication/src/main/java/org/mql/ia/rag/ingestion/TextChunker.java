@@ -0,0 +1,32 @@
+package org.mql.ia.rag.ingestion;
+
+import dev.langchain4j.model.Tokenizer;
+import dev.langchain4j.model.openai.OpenAiTokenizer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.Reader;
+
+/**
+ * Découpage commun aux deux chemins d'upload. Les tailles sont en tokens,
+ * comptés localement (OpenAiTokenizer, BPE cl100k) : une estimation proche
+ * du tokenizer du modèle d'embedding, qui garde chaque chunk sous sa limite
+ * de contexte.
+ */
+@Component
+public class TextChunker {
+
+    private final Tokenizer tokenizer = new OpenAiTokenizer();
+    private final int maxTokens;
+    private final int overlapTokens;
+
+    public TextChunker(@Value("${chunking.max-tokens:400}") int maxTokens,
+                       @Value("${chunking.overlap-tokens:40}") int overlapTokens) {
+        this.maxTokens = maxTokens;
+        this.overlapTokens = overlapTokens;
+    }
+
+    public TokenChunkReader open(Reader reader) {
+        return new TokenChunkReader(reader, tokenizer::estimateTokenCountInText, maxTokens, overlapTokens);
+    }
+}
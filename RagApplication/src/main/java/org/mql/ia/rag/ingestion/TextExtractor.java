@@ -0,0 +1,387 @@
+package org.mql.ia.rag.ingestion;
+
+import dev.langchain4j.data.document.BlankDocumentException;
+import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
+import org.apache.tika.exception.WriteLimitReachedException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.ocr.TesseractOCRConfig;
+import org.apache.tika.parser.pdf.PDFParserConfig;
+import org.apache.tika.sax.BodyContentHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Texte des documents à ingérer. Les .txt sont lus en flux (UTF-8, BOM
+ * retiré, au plus parsing.max-chars caractères) ; les
+ * PDF, DOCX et HTML passent par Apache Tika (langchain4j-document-parser-apache-tika).
+ *
+ * Tika est isolé des threads d'ingestion et de requête : chaque analyse
+ * tourne sur un thread plateforme dédié, au plus parsing.workers à la fois,
+ * avec une durée maximale (parsing.timeout-seconds), une taille d'entrée
+ * maximale (parsing.max-bytes) et un texte extrait borné (parsing.max-chars).
+ * OCR et images des PDF sont désactivés. Une analyse qui dépasse son délai
+ * est interrompue et son flux fermé ; si le parseur ne rend pas la main, son
+ * thread est abandonné et sa place libérée, dans la limite de
+ * parsing.max-abandoned threads abandonnés en même temps.
+ */
+@Component
+public class TextExtractor {
+
+    private static final List<String> TIKA_EXTENSIONS = List.of(".pdf", ".docx", ".html", ".htm");
+
+    private final ApacheTikaDocumentParser tika;
+    private final Semaphore slots;
+    private final int workers;
+    private final long timeoutMillis;
+    private final long maxBytes;
+    private final int maxChars;
+    private final int maxAbandoned;
+
+    private final AtomicInteger threadIds = new AtomicInteger();
+    private final AtomicInteger abandoned = new AtomicInteger();
+    private final AtomicLong parsed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong parseNanos = new AtomicLong();
+
+    public TextExtractor(@Value("${parsing.workers:2}") int workers,
+                         @Value("${parsing.timeout-seconds:60}") long timeoutSeconds,
+                         @Value("${parsing.max-bytes:52428800}") long maxBytes,
+                         @Value("${parsing.max-chars:5000000}") int maxChars,
+                         @Value("${parsing.max-abandoned:4}") int maxAbandoned) {
+        this.workers = Math.max(1, workers);
+        this.slots = new Semaphore(this.workers, true);
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        this.maxBytes = maxBytes;
+        this.maxChars = maxChars;
+        this.maxAbandoned = maxAbandoned;
+        // Chargé une fois au démarrage (détection et parseurs de tous les formats), partagé entre threads
+        AutoDetectParser parser = new AutoDetectParser();
+        this.tika = new ApacheTikaDocumentParser(
+            () -> parser,
+            // Au-delà de maxChars, Tika s'arrête (WriteLimitReachedException)
+            () -> new BodyContentHandler(maxChars),
+            Metadata::new,
+            TextExtractor::parseContext);
+    }
+
+    /** Vrai pour les extensions acceptées à l'ingestion (.txt compris). */
+    public boolean supports(String filename) {
+        return filename != null && (isPlainText(filename) || TIKA_EXTENSIONS.contains(extension(filename)));
+    }
+
+    /**
+     * Flux de texte du document : lecture directe pour un .txt (BOM retiré,
+     * IOException au-delà de parsing.max-chars), texte extrait par Tika sinon.
+     */
+    public Reader open(String filename, InputStream in) throws IOException {
+        if (isPlainText(filename)) {
+            PushbackReader reader = new PushbackReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            int first = reader.read();
+            if (first >= 0 && first != '\uFEFF') {
+                reader.unread(first);
+            }
+            return new BoundedReader(reader, maxChars, filename);
+        }
+        return new StringReader(extract(filename, in));
+    }
+
+    /**
+     * Texte d'un .txt déjà en mémoire : UTF-8 strict, BOM retiré. Le décodage
+     * s'arrête au-delà de parsing.max-chars, avant de construire la chaîne.
+     * @throws CharacterCodingException contenu non UTF-8
+     * @throws IOException texte trop long
+     */
+    public String decode(String filename, byte[] content) throws IOException {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+        // Jamais plus de caractères que d'octets ; un de plus pour le BOM, un pour détecter le dépassement
+        CharBuffer chars = CharBuffer.allocate((int) Math.min(content.length, maxChars + 2L));
+        CoderResult result = decoder.decode(ByteBuffer.wrap(content), chars, true);
+        if (result.isUnderflow()) {
+            result = decoder.flush(chars);
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+        chars.flip();
+        if (chars.hasRemaining() && chars.get(0) == '\uFEFF') {
+            chars.position(1);
+        }
+        if (result.isOverflow() || chars.remaining() > maxChars) {
+            throw tooLong(filename);
+        }
+        return chars.toString();
+    }
+
+    /**
+     * Texte extrait par Tika ; bloque l'appelant au plus le temps d'attendre
+     * une place puis timeout-seconds.
+     * @throws IOException document illisible, vide, trop gros, ou délai dépassé
+     */
+    public String extract(String filename, InputStream in) throws IOException {
+        if (abandoned.get() >= maxAbandoned) {
+            rejected.incrementAndGet();
+            throw new IOException("Analyse de documents indisponible : trop d'analyses bloquées");
+        }
+        try {
+            if (!slots.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                rejected.incrementAndGet();
+                throw new IOException("Analyse de documents saturée, réessayez plus tard");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Analyse interrompue", e);
+        }
+
+        BoundedInputStream input = new BoundedInputStream(in, maxBytes);
+        CompletableFuture<String> result = new CompletableFuture<>();
+        // Place rendue une seule fois : à la fin de l'analyse, ou à l'abandon de son thread
+        Semaphore slot = new Semaphore(1);
+        long start = System.nanoTime();
+        Thread worker = Thread.ofPlatform().daemon()
+            .name("tika-parser-" + threadIds.incrementAndGet())
+            .start(() -> {
+                try {
+                    result.complete(tika.parse(input).text());
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                } finally {
+                    if (slot.tryAcquire()) {
+                        slots.release();
+                    } else {
+                        abandoned.decrementAndGet();
+                    }
+                }
+            });
+
+        try {
+            String text = result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            parsed.incrementAndGet();
+            parseNanos.addAndGet(System.nanoTime() - start);
+            return text;
+        } catch (TimeoutException e) {
+            abandon(slot, worker, input);
+            timedOut.incrementAndGet();
+            throw new IOException("Analyse de " + filename + " interrompue après " + timeoutMillis / 1000 + " s");
+        } catch (ExecutionException e) {
+            failed.incrementAndGet();
+            throw new IOException(describe(filename, e.getCause()), e.getCause());
+        } catch (InterruptedException e) {
+            abandon(slot, worker, input);
+            Thread.currentThread().interrupt();
+            throw new IOException("Analyse interrompue", e);
+        }
+    }
+
+    /** Libère la place d'une analyse qu'on n'attend plus, sauf si elle vient de se terminer. */
+    private void abandon(Semaphore slot, Thread worker, BoundedInputStream input) {
+        if (slot.tryAcquire()) {
+            abandoned.incrementAndGet();
+            slots.release();
+            worker.interrupt();
+            input.abort();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        long count = parsed.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("workers", workers);
+        stats.put("inFlight", workers - slots.availablePermits());
+        stats.put("parsed", count);
+        stats.put("failed", failed.get());
+        stats.put("timedOut", timedOut.get());
+        stats.put("rejected", rejected.get());
+        stats.put("abandonedThreads", abandoned.get());
+        stats.put("avgParseMillis", count == 0 ? 0.0 : parseNanos.get() / 1_000_000.0 / count);
+        return stats;
+    }
+
+    private String describe(String filename, Throwable cause) {
+        for (Throwable t = cause; t != null; t = t.getCause()) {
+            if (t instanceof BlankDocumentException) {
+                return "Aucun texte dans " + filename;
+            }
+            if (WriteLimitReachedException.isWriteLimitReached(t)) {
+                return tooLong(filename).getMessage();
+            }
+            if (t instanceof BoundedInputStream.LimitExceededException) {
+                return "Fichier " + filename + " trop volumineux (max " + maxBytes + " octets)";
+            }
+        }
+        return "Lecture de " + filename + " impossible: " + cause.getMessage();
+    }
+
+    private static IOException tooLong(String filename) {
+        return new IOException("Texte extrait de " + filename + " trop long");
+    }
+
+    private static ParseContext parseContext() {
+        ParseContext context = new ParseContext();
+        PDFParserConfig pdf = new PDFParserConfig();
+        pdf.setExtractInlineImages(false);
+        pdf.setExtractAnnotationText(false);
+        pdf.setOcrStrategy(PDFParserConfig.OCR_STRATEGY.NO_OCR);
+        context.set(PDFParserConfig.class, pdf);
+        TesseractOCRConfig ocr = new TesseractOCRConfig();
+        ocr.setSkipOcr(true);
+        context.set(TesseractOCRConfig.class, ocr);
+        return context;
+    }
+
+    /** Texte brut (.txt) : lu directement en UTF-8, sans Tika. */
+    public static boolean isPlainText(String filename) {
+        return extension(filename).equals(".txt");
+    }
+
+    private static String extension(String filename) {
+        int dot = filename.lastIndexOf('.');
+        return dot < 0 ? "" : filename.substring(dot).toLowerCase(Locale.ROOT);
+    }
+
+    /** Entrée limitée à maxBytes, et fermable depuis un autre thread pour débloquer un parseur. */
+    private static final class BoundedInputStream extends FilterInputStream {
+
+        static final class LimitExceededException extends IOException {
+            LimitExceededException() {
+                super("Taille maximale dépassée");
+            }
+        }
+
+        private final long maxBytes;
+        private long count;
+        private volatile boolean aborted;
+
+        BoundedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            check();
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            check();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            check();
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            check();
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            check();
+            long skipped = super.skip(n);
+            count += skipped;
+            check();
+            return skipped;
+        }
+
+        void abort() {
+            aborted = true;
+            try {
+                in.close();
+            } catch (IOException ignored) {
+                // le parseur verra l'arrêt à sa prochaine lecture
+            }
+        }
+
+        private void check() throws IOException {
+            if (aborted) {
+                throw new IOException("Analyse abandonnée");
+            }
+            if (count > maxBytes) {
+                throw new LimitExceededException();
+            }
+        }
+    }
+
+    /** Texte d'un .txt limité à maxChars caractères, vérifié à chaque lecture. */
+    private static final class BoundedReader extends FilterReader {
+
+        private final long maxChars;
+        private final String filename;
+        private long count;
+
+        BoundedReader(Reader in, long maxChars, String filename) {
+            super(in);
+            this.maxChars = maxChars;
+            this.filename = filename;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c >= 0) {
+                count(1);
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(long chars) throws IOException {
+            count += chars;
+            if (count > maxChars) {
+                throw tooLong(filename);
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package org.mql.ia.rag.ingestion;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.function.ToIntFunction;
+
+/**
+ * Découpe un flux de texte en chunks bornés en tokens du modèle, en une
+ * seule passe : le texte est lu une fois, coupé en phrases (fin de phrase
+ * suivie d'un blanc, ou ligne vide pour un paragraphe), et chaque phrase
+ * n'est tokenisée qu'une fois. Les phrases sont regroupées jusqu'à
+ * maxTokens ; un chunk se termine de préférence sur une fin de paragraphe
+ * une fois rempli aux trois quarts, et le suivant reprend les dernières
+ * phrases dans la limite de overlapTokens.
+ *
+ * Seuls les caractères du chunk en cours sont gardés en mémoire. Chaque
+ * chunk porte ses positions (en caractères) dans le texte d'origine.
+ */
+public class TokenChunkReader {
+
+    /** Chunk [start, end[ du texte d'origine, de tokens tokens (somme des phrases). */
+    public record Chunk(int index, long start, long end, int tokens, String text) {
+    }
+
+    private record Sentence(long start, long end, int tokens, boolean paragraphEnd) {
+    }
+
+    private final Reader reader;
+    private final ToIntFunction<String> tokenCounter;
+    private final int maxTokens;
+    private final int overlapTokens;
+    // Une phrase plus longue est coupée sur un blanc avant d'être tokenisée
+    private final int maxSentenceChars;
+
+    // Texte lu à partir de bufferStart (position absolue de buffer[0])
+    private final StringBuilder buffer = new StringBuilder();
+    private final char[] readBuffer = new char[8192];
+    private long bufferStart;
+    private long scanned;
+    private boolean eof;
+
+    private final ArrayDeque<Sentence> pending = new ArrayDeque<>();
+    private int pendingTokens;
+    // Phrases de tête de pending déjà rendues dans le chunk précédent (chevauchement)
+    private int overlapSentences;
+    private int index;
+
+    public TokenChunkReader(Reader reader, ToIntFunction<String> tokenCounter, int maxTokens, int overlapTokens) {
+        if (maxTokens <= 0 || overlapTokens < 0 || overlapTokens >= maxTokens) {
+            throw new IllegalArgumentException("Tailles de chunk invalides: " + maxTokens + "/" + overlapTokens);
+        }
+        this.reader = reader;
+        this.tokenCounter = tokenCounter;
+        this.maxTokens = maxTokens;
+        this.overlapTokens = overlapTokens;
+        this.maxSentenceChars = maxTokens * 16;
+    }
+
+    /** Chunk suivant, ou null en fin de flux. */
+    public Chunk next() throws IOException {
+        while (true) {
+            Sentence sentence = nextSentence();
+            if (sentence == null) {
+                return pending.size() > overlapSentences ? emit(null) : null;
+            }
+            if (pendingTokens + sentence.tokens() > maxTokens) {
+                if (pending.size() > overlapSentences) {
+                    return emit(sentence);
+                }
+                // Rien de neuf depuis le dernier chunk : on réduit le chevauchement plutôt que de le rendre seul
+                while (!pending.isEmpty() && pendingTokens + sentence.tokens() > maxTokens) {
+                    pendingTokens -= pending.removeFirst().tokens();
+                    overlapSentences--;
+                }
+            }
+            add(sentence);
+            if (sentence.paragraphEnd() && pendingTokens * 4 >= maxTokens * 3) {
+                return emit(null);
+            }
+        }
+    }
+
+    private void add(Sentence sentence) {
+        pending.add(sentence);
+        pendingTokens += sentence.tokens();
+    }
+
+    /** Rend le chunk en cours, garde le chevauchement puis y ajoute next s'il y en a une. */
+    private Chunk emit(Sentence next) {
+        long start = pending.getFirst().start();
+        long end = pending.getLast().end();
+        Chunk chunk = new Chunk(index++, start, end, pendingTokens,
+            buffer.substring((int) (start - bufferStart), (int) (end - bufferStart)));
+
+        ArrayDeque<Sentence> overlap = new ArrayDeque<>();
+        int overlapTotal = 0;
+        Iterator<Sentence> tail = pending.descendingIterator();
+        while (tail.hasNext() && overlap.size() + 1 < pending.size()) {
+            Sentence sentence = tail.next();
+            if (overlapTotal + sentence.tokens() > overlapTokens) {
+                break;
+            }
+            overlap.addFirst(sentence);
+            overlapTotal += sentence.tokens();
+        }
+        if (next != null) {
+            while (!overlap.isEmpty() && overlapTotal + next.tokens() > maxTokens) {
+                overlapTotal -= overlap.removeFirst().tokens();
+            }
+        }
+        pending.clear();
+        pending.addAll(overlap);
+        pendingTokens = overlapTotal;
+        overlapSentences = overlap.size();
+        if (next != null) {
+            add(next);
+        }
+
+        long keepFrom = pending.isEmpty() ? scanned : pending.getFirst().start();
+        buffer.delete(0, (int) (keepFrom - bufferStart));
+        bufferStart = keepFrom;
+        return chunk;
+    }
+
+    private Sentence nextSentence() throws IOException {
+        int position = (int) (scanned - bufferStart);
+        while (available(position) && Character.isWhitespace(buffer.charAt(position))) {
+            position++;
+        }
+        if (!available(position)) {
+            scanned = bufferStart + position;
+            return null;
+        }
+
+        int start = position;
+        int end = -1;
+        boolean paragraphEnd = false;
+        while (end < 0) {
+            if (!available(position)) {
+                end = trimEnd(start, position);
+                break;
+            }
+            char c = buffer.charAt(position);
+            if (isTerminator(c) && (!available(position + 1) || Character.isWhitespace(buffer.charAt(position + 1)))) {
+                end = position + 1;
+            } else if (c == '\n' && blankLineFollows(position + 1)) {
+                end = trimEnd(start, position);
+                paragraphEnd = true;
+            } else if (position - start + 1 >= maxSentenceChars) {
+                end = cut(start, position + 1);
+            } else {
+                position++;
+            }
+        }
+        if (!paragraphEnd) {
+            paragraphEnd = blankLineFollows(end);
+        }
+
+        int tokens = tokenCounter.applyAsInt(buffer.substring(start, end));
+        while (tokens > maxTokens && end - start > 1) {
+            // Phrase trop longue : on la raccourcit au prorata puis on recompte
+            int target = start + Math.max(1, (int) ((end - start) * 0.9 * maxTokens / tokens));
+            end = cut(start, target);
+            paragraphEnd = false;
+            tokens = tokenCounter.applyAsInt(buffer.substring(start, end));
+        }
+        scanned = bufferStart + end;
+        return new Sentence(bufferStart + start, bufferStart + end, tokens, paragraphEnd);
+    }
+
+    /** Fin de phrase avant limit : sur le dernier blanc s'il y en a un, sinon coupe franche. */
+    private int cut(int start, int limit) {
+        for (int i = limit - 1; i > start; i--) {
+            if (Character.isWhitespace(buffer.charAt(i))) {
+                return trimEnd(start, i);
+            }
+        }
+        // Pas de coupe au milieu d'une paire de substitution
+        if (Character.isHighSurrogate(buffer.charAt(limit - 1)) && limit - start > 1) {
+            return limit - 1;
+        }
+        return limit;
+    }
+
+    private int trimEnd(int start, int end) {
+        while (end > start + 1 && Character.isWhitespace(buffer.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    /** Vrai si les blancs à partir de position contiennent une ligne vide. */
+    private boolean blankLineFollows(int position) throws IOException {
+        boolean newline = position > 0 && buffer.charAt(position - 1) == '\n';
+        while (available(position) && Character.isWhitespace(buffer.charAt(position))) {
+            if (buffer.charAt(position) == '\n') {
+                if (newline) {
+                    return true;
+                }
+                newline = true;
+            }
+            position++;
+        }
+        return false;
+    }
+
+    private static boolean isTerminator(char c) {
+        return c == '.' || c == '!' || c == '?' || c == '…' || c == '。';
+    }
+
+    /** Lit la suite du flux jusqu'à ce que buffer[position] existe ; faux en fin de flux. */
+    private boolean available(int position) throws IOException {
+        while (position >= buffer.length() && !eof) {
+            int read = reader.read(readBuffer);
+            if (read < 0) {
+                eof = true;
+            } else {
+                buffer.append(readBuffer, 0, read);
+            }
+        }
+        return position < buffer.length();
+    }
+}
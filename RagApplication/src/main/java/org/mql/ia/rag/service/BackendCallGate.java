@@ -0,0 +1,58 @@
+package org.mql.ia.rag.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Borne le nombre d'appels en cours vers le serveur de chat (LM Studio).
+ * Avec les threads virtuels, chaque requête HTTP a son propre thread : sans
+ * cette borne, un pic de requêtes se traduirait directement en autant
+ * d'appels simultanés au modèle.
+ */
+@Component
+public class BackendCallGate {
+
+    private final Semaphore permits;
+    private final int maxOutstanding;
+    private final long acquireTimeoutMs;
+    private final AtomicLong rejected = new AtomicLong();
+
+    public BackendCallGate(@Value("${backend.chat.max-outstanding:8}") int maxOutstanding,
+                           @Value("${backend.chat.acquire-timeout-ms:30000}") long acquireTimeoutMs) {
+        this.maxOutstanding = Math.max(1, maxOutstanding);
+        this.permits = new Semaphore(this.maxOutstanding, true);
+        this.acquireTimeoutMs = acquireTimeoutMs;
+    }
+
+    public <T> T call(Supplier<T> call) {
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                rejected.incrementAndGet();
+                throw new IllegalStateException("Serveur de chat saturé, réessayez plus tard");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Appel au serveur de chat interrompu", e);
+        }
+        try {
+            return call.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxOutstanding", maxOutstanding);
+        stats.put("inFlight", maxOutstanding - permits.availablePermits());
+        stats.put("rejected", rejected.get());
+        return stats;
+    }
+}
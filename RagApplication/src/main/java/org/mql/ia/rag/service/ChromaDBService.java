@@ -1,131 +1,1223 @@
 package org.mql.ia.rag.service;
 
+import jakarta.annotation.PreDestroy;
+import org.mql.ia.rag.store.EmbeddingVector;
+import org.mql.ia.rag.store.JournalRecord;
+import org.mql.ia.rag.store.SearchHit;
+import org.mql.ia.rag.store.SimHashIndex;
+import org.mql.ia.rag.store.StoreSnapshot;
+import org.mql.ia.rag.store.VectorIndex;
+import org.mql.ia.rag.store.VectorIndexFactory;
+import org.mql.ia.rag.store.VectorKernels;
+import org.mql.ia.rag.store.WriteAheadLog;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 
 @Service
 public class ChromaDBService {
 
+    private static final String NO_TENANT = "";
+    // Clé provisoire du nouveau vecteur d'un chunk déjà visible, jusqu'au commit du remplacement
+    private static final String STAGING_PREFIX = "\u0000staged:";
+
     private final Map<String, DocumentEntry> store = new ConcurrentHashMap<>();
+    // Une partition d'index par userId : la recherche d'un utilisateur ne parcourt que ses chunks
+    private final Map<String, VectorIndex> partitions = new ConcurrentHashMap<>();
+    private final VectorIndexFactory indexFactory;
+    // Index secondaires : userId -> docIds et docId -> ids des chunks (le nombre de chunks est la taille)
+    private final Map<String, Set<String>> docsByUser = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> chunksByDoc = new ConcurrentHashMap<>();
+
+    // Persistance (modes wal et mmap) : null en mode mémoire
+    private final WriteAheadLog wal;
+    private final Path walDir;
+    private final Path snapshotDir;
+    private final ScheduledExecutorService snapshotScheduler;
+    private final long snapshotMaxRecords;
+    // Les mutations partagent le verrou, le snapshot le prend en exclusif le temps de la rotation
+    private final ReentrantReadWriteLock mutationLock = new ReentrantReadWriteLock();
+    private final AtomicLong recordsSinceSnapshot = new AtomicLong();
+    private final AtomicBoolean snapshotPending = new AtomicBoolean();
+    // Les résultats de recherche sont lus sous verrou partagé, le remplacement
+    // d'un document bascule ses chunks sous verrou exclusif : tout ou rien
+    private final ReentrantReadWriteLock visibilityLock = new ReentrantReadWriteLock();
+    // Un seul remplacement à la fois par document ; l'entrée disparaît quand plus personne ne la tient ni ne l'attend
+    private final Map<String, DocumentLock> documentLocks = new ConcurrentHashMap<>();
+    // Vecteurs indexés mais pas encore visibles (lots en cours, retraits en attente), par tenant :
+    // une recherche en demande d'autant plus à l'index pour rendre quand même topK résultats
+    private final Map<String, AtomicInteger> invisibleRows = new ConcurrentHashMap<>();
+    // Empreintes SimHash (metadata simhash) des chunks visibles, par tenant
+    private final Map<String, SimHashIndex> fingerprints = new ConcurrentHashMap<>();
+    private final int nearDuplicateDistance;
+    // Chunks presque identiques sans vecteur propre : id source -> ids de ses alias visibles.
+    // Les ensembles ne sont lus et modifiés que sous le verrou de visibilité (ou pendant la relecture)
+    private final Map<String, NavigableSet<String>> aliasesBySource = new ConcurrentHashMap<>();
+    // Sources retirées du store dont le vecteur sert encore à leurs alias
+    private final Map<String, DocumentEntry> retained = new ConcurrentHashMap<>();
+
+    // Un seul permis : pas lié à un thread, un lot peut être validé par un autre thread que celui qui l'a ouvert
+    private static final class DocumentLock {
+        final Semaphore permit = new Semaphore(1);
+        // Détenteur et threads en attente ; modifié uniquement dans un compute de documentLocks
+        int users;
+    }
 
     private static class DocumentEntry {
         String content;
         Map<String, Object> metadata;
-        List<Double> embedding;
+        String tenant;
+        String docId;
+        // Alias : id du chunk dont il partage le vecteur (null si le chunk a le sien)
+        String aliasOf;
 
-        DocumentEntry(String content, List<Double> embedding, Map<String, Object> metadata) {
+        DocumentEntry(String content, Map<String, Object> metadata) {
+            this(content, metadata, null);
+        }
+
+        DocumentEntry(String content, Map<String, Object> metadata, String aliasOf) {
             this.content = content;
-            this.embedding = embedding;
             this.metadata = metadata;
+            this.aliasOf = aliasOf;
+            this.tenant = tenantOf(metadata);
+            Object docId = metadata == null ? null : metadata.get("docId");
+            this.docId = docId == null ? null : docId.toString();
+        }
+    }
+
+    public ChromaDBService(VectorIndexFactory indexFactory,
+                           @Value("${vector.store.wal.group-commit-ms:2}") long groupCommitMillis,
+                           @Value("${vector.store.snapshot.interval-seconds:300}") long snapshotIntervalSeconds,
+                           @Value("${vector.store.snapshot.max-wal-records:100000}") long snapshotMaxRecords,
+                           @Value("${ingestion.dedup.max-distance:3}") int nearDuplicateDistance) {
+        this.indexFactory = indexFactory;
+        this.nearDuplicateDistance = nearDuplicateDistance;
+        this.snapshotMaxRecords = snapshotMaxRecords;
+        System.out.println("Moteur d'index vectoriel : " + indexFactory.getEngine()
+            + " (noyaux " + VectorKernels.description() + ")");
+
+        if (indexFactory.isPersistent()) {
+            this.walDir = indexFactory.getDataDir().resolve("wal");
+            this.snapshotDir = indexFactory.getDataDir().resolve("snapshots");
+            recover();
+            this.wal = new WriteAheadLog(walDir, groupCommitMillis, this::forcePartitions);
+            compactPartitions();
+            this.snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "vector-store-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.snapshotScheduler.scheduleWithFixedDelay(this::snapshotIfDirty,
+                snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+        } else {
+            this.walDir = null;
+            this.snapshotDir = null;
+            this.wal = null;
+            this.snapshotScheduler = null;
+        }
+    }
+
+    /** Charge le dernier snapshot puis rejoue uniquement la fin du WAL. */
+    private void recover() {
+        long start = System.currentTimeMillis();
+        long snapshot = StoreSnapshot.latest(snapshotDir);
+        if (indexFactory.isMapped()) {
+            indexFactory.recoverCompactions(snapshot);
         }
+        int loaded = snapshot < 0 ? 0 : StoreSnapshot.load(snapshotDir, snapshot, this::apply);
+        int replayed = WriteAheadLog.replay(walDir, Math.max(snapshot, 0), this::apply);
+        System.out.println("Store vectoriel rechargé : " + store.size() + " chunks ("
+            + loaded + " du snapshot, " + replayed + " rejoués du WAL) en "
+            + (System.currentTimeMillis() - start) + " ms");
     }
 
-    public void addDocument(String id, String content, List<Double> embedding, Map<String, Object> metadata) {
-        store.put(id, new DocumentEntry(content, embedding, metadata));
+    /** Rejoue une mutation ; alias et sources conservées en sont déduits comme lors de la mutation d'origine. */
+    private void apply(JournalRecord record) {
+        List<Dropped> dropped = new ArrayList<>();
+        if (record.isPut()) {
+            DocumentEntry entry = new DocumentEntry(record.getContent(), record.getMetadata());
+            if (record.getVector() != null) {
+                partitionOf(entry.tenant).add(record.getId(), record.getVector());
+            } else {
+                partitionOf(entry.tenant).attach(record.getId(), record.getRow());
+            }
+            show(record.getId(), entry, dropped);
+        } else if (record.isAlias()) {
+            show(record.getId(), new DocumentEntry(record.getContent(), record.getMetadata(), record.getTarget()),
+                dropped);
+        } else {
+            hide(record.getId(), dropped);
+        }
+        removeDropped(dropped);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdown();
+        }
+        if (wal != null) {
+            wal.close();
+        } else {
+            forcePartitions();
+        }
+    }
+
+    public void addDocument(String id, String content, EmbeddingVector embedding, Map<String, Object> metadata) {
+        awaitDurable(add(List.of(id), List.of(content), List.of(embedding), Collections.singletonList(metadata)));
         System.out.println("Document ajouté (mock) : " + id);
     }
 
-    public void addDocuments(List<String> ids, List<String> contents, 
-                           List<List<Double>> embeddings, List<Map<String, Object>> metadatas) {
-        for (int i = 0; i < ids.size(); i++) {
-            store.put(ids.get(i), new DocumentEntry(contents.get(i), embeddings.get(i), metadatas.get(i)));
+    /**
+     * Ajoute un lot de chunks en une seule opération : les vecteurs sont
+     * indexés d'abord (invisibles tant que le store ne les référence pas),
+     * puis le lot est journalisé d'un bloc et les entrées et les index
+     * secondaires sont mis à jour en une passe sous le verrou de visibilité.
+     * Une recherche voit tout le lot ou rien.
+     */
+    public void addDocuments(List<String> ids, List<String> contents,
+                           List<EmbeddingVector> embeddings, List<Map<String, Object>> metadatas) {
+        int size = ids.size();
+        if (contents.size() != size || embeddings.size() != size || metadatas.size() != size) {
+            throw new IllegalArgumentException("Lot incohérent: " + size + " ids, " + contents.size()
+                + " contenus, " + embeddings.size() + " vecteurs, " + metadatas.size() + " metadata");
         }
-        System.out.println("Documents ajoutés en batch : " + ids.size());
+        // Un seul fsync (partagé avec les écrivains concurrents) pour tout le lot
+        awaitDurable(add(ids, contents, embeddings, metadatas));
+        System.out.println("Documents ajoutés en batch : " + size);
     }
 
-    public List<Map<String, Object>> queryDocuments(List<Double> queryEmbedding, int topK) {
-        List<Map<String, Object>> results = new ArrayList<>();
-        for (Map.Entry<String, DocumentEntry> entry : store.entrySet()) {
-            Map<String, Object> result = new HashMap<>();
-            result.put("id", entry.getKey());
-            result.put("content", entry.getValue().content);
-            result.put("metadata", entry.getValue().metadata);
-            result.put("distance", 0.0);
-            results.add(result);
+    /** Applique le lot et le journalise ; retourne le numéro d'ordre WAL du dernier enregistrement (0 sans WAL). */
+    private long add(List<String> ids, List<String> contents,
+                     List<EmbeddingVector> embeddings, List<Map<String, Object>> metadatas) {
+        int size = ids.size();
+        DocumentEntry[] entries = new DocumentEntry[size];
+        // Vecteur d'un chunk déjà indexé : préparé sous une clé provisoire, l'ancien reste visible jusqu'à la bascule
+        String[] keys = new String[size];
+        long lsn = 0;
+        mutationLock.readLock().lock();
+        try {
+            List<JournalRecord> records = wal == null ? null : new ArrayList<>(size);
+            int staged = 0;
+            try {
+                for (; staged < size; staged++) {
+                    String id = ids.get(staged);
+                    DocumentEntry entry = new DocumentEntry(contents.get(staged), metadatas.get(staged));
+                    float[] vector = embeddings.get(staged).values();
+                    VectorIndex partition = partitionOf(entry.tenant);
+                    keys[staged] = partition.rowOf(id) >= 0 ? STAGING_PREFIX + id : id;
+                    int row = partition.add(keys[staged], vector);
+                    invisible(entry.tenant).incrementAndGet();
+                    entries[staged] = entry;
+                    if (records != null) {
+                        records.add(indexFactory.isMapped()
+                            ? JournalRecord.put(id, entry.content, entry.metadata, row, null)
+                            : JournalRecord.put(id, entry.content, entry.metadata, -1, vector));
+                    }
+                }
+            } catch (RuntimeException e) {
+                // Rien n'est visible : on retire les vecteurs préparés
+                discardStaged(entries, keys, staged);
+                throw e;
+            }
+
+            List<Dropped> dropped = new ArrayList<>();
+            visibilityLock.writeLock().lock();
+            try {
+                // Journalisé sous le verrou : l'ordre du WAL est celui des bascules, que la relecture reproduit
+                if (records != null) {
+                    try {
+                        lsn = journal(records);
+                    } catch (RuntimeException e) {
+                        discardStaged(entries, keys, size);
+                        throw e;
+                    }
+                }
+                for (int i = 0; i < size; i++) {
+                    String id = ids.get(i);
+                    if (!keys[i].equals(id)) {
+                        partitionOf(entries[i].tenant).rename(keys[i], id);
+                    }
+                    invisible(entries[i].tenant).decrementAndGet();
+                    show(id, entries[i], dropped);
+                }
+            } finally {
+                visibilityLock.writeLock().unlock();
+            }
+            removeDropped(dropped);
+        } finally {
+            mutationLock.readLock().unlock();
+        }
+        return lsn;
+    }
+
+    private void discardStaged(DocumentEntry[] entries, String[] keys, int count) {
+        for (int i = 0; i < count; i++) {
+            partitionOf(entries[i].tenant).remove(keys[i]);
+            invisible(entries[i].tenant).decrementAndGet();
+        }
+    }
+
+    /** Recherche sur l'ensemble des partitions (fusion des top-K de chaque utilisateur). */
+    public List<Map<String, Object>> queryDocuments(EmbeddingVector queryEmbedding, int topK) {
+        float[] query = queryEmbedding.values();
+
+        visibilityLock.readLock().lock();
+        try {
+            List<SearchHit> hits = new ArrayList<>();
+            for (Map.Entry<String, VectorIndex> partition : partitions.entrySet()) {
+                hits.addAll(visibleHits(partition.getKey(), partition.getValue(), query, topK));
+            }
+            hits.sort((a, b) -> Float.compare(b.getSimilarity(), a.getSimilarity()));
+            return toResults(hits.subList(0, Math.min(topK, hits.size())));
+        } finally {
+            visibilityLock.readLock().unlock();
+        }
+    }
+
+    /** Recherche limitée à la partition de l'utilisateur. */
+    public List<Map<String, Object>> queryDocuments(EmbeddingVector queryEmbedding, int topK, String userId) {
+        VectorIndex partition = partitions.get(userId);
+        if (partition == null) {
+            return new ArrayList<>();
+        }
+        visibilityLock.readLock().lock();
+        try {
+            return toResults(visibleHits(userId, partition, queryEmbedding.values(), topK));
+        } finally {
+            visibilityLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Top-K des chunks visibles de la partition, sous le verrou de visibilité.
+     * L'index peut contenir des vecteurs pas encore (ou plus) visibles : on
+     * lui en demande d'autant plus, et davantage tant que des résultats
+     * manquent et qu'il en reste.
+     */
+    private List<SearchHit> visibleHits(String tenant, VectorIndex partition, float[] query, int topK) {
+        int fetch = topK + Math.max(0, invisible(tenant).get());
+        while (true) {
+            List<SearchHit> hits = partition.search(query, fetch);
+            List<SearchHit> visible = new ArrayList<>(Math.min(topK, hits.size()));
+            for (SearchHit hit : hits) {
+                DocumentEntry entry = store.get(hit.getId());
+                if (entry == null) {
+                    // Source retirée : ses alias restent visibles avec son vecteur
+                    entry = retained.get(hit.getId());
+                }
+                if (entry != null && entry.tenant.equals(tenant)) {
+                    visible.add(hit);
+                    if (visible.size() == topK) {
+                        return visible;
+                    }
+                }
+            }
+            if (hits.size() < fetch || fetch >= partition.size()) {
+                return visible;
+            }
+            fetch = (int) Math.min(Integer.MAX_VALUE, 2L * fetch);
         }
-        return results;
     }
 
     public void deleteDocument(String id) {
-        store.remove(id);
+        long lsn;
+        mutationLock.readLock().lock();
+        try {
+            lsn = remove(id);
+        } finally {
+            mutationLock.readLock().unlock();
+        }
+        awaitDurable(lsn);
         System.out.println("Document supprimé (mock) : " + id);
     }
 
+    /** Suppression par docId via l'index secondaire ; les autres clés restent un parcours complet. */
     public void deleteDocumentsByMetadata(String key, String value) {
+        if (key.equals("docId")) {
+            // Pas de suppression pendant un remplacement du même document
+            DocumentLock lock = lockDocument(value);
+            try {
+                deleteMatching(key, value);
+            } finally {
+                unlockDocument(value, lock);
+            }
+        } else {
+            deleteMatching(key, value);
+        }
+    }
+
+    private void deleteMatching(String key, String value) {
         List<String> toDelete = new ArrayList<>();
-        for (Map.Entry<String, DocumentEntry> entry : store.entrySet()) {
-            Map<String, Object> metadata = entry.getValue().metadata;
-            if (metadata != null && value.equals(metadata.get(key))) {
-                toDelete.add(entry.getKey());
+        if (key.equals("docId")) {
+            Set<String> chunks = chunksByDoc.get(value);
+            if (chunks != null) {
+                toDelete.addAll(chunks);
+            }
+        } else {
+            for (Map.Entry<String, DocumentEntry> entry : store.entrySet()) {
+                Map<String, Object> metadata = entry.getValue().metadata;
+                if (metadata != null && value.equals(metadata.get(key))) {
+                    toDelete.add(entry.getKey());
+                }
             }
         }
-        for (String id : toDelete) {
-            store.remove(id);
+        long lsn = 0;
+        mutationLock.readLock().lock();
+        try {
+            for (String id : toDelete) {
+                lsn = Math.max(lsn, remove(id));
+            }
+        } finally {
+            mutationLock.readLock().unlock();
         }
+        awaitDurable(lsn);
         System.out.println("Documents supprimés par metadata " + key + "=" + value + " : " + toDelete.size());
     }
 
-    public List<Map<String, Object>> getDocumentsByUserAndDocId(String userId, String docId) {
-        List<Map<String, Object>> results = new ArrayList<>();
-        for (Map.Entry<String, DocumentEntry> entry : store.entrySet()) {
-            Map<String, Object> metadata = entry.getValue().metadata;
-            if (metadata != null &&
-                userId.equals(metadata.get("userId")) &&
-                docId.equals(metadata.get("docId"))) {
-                Map<String, Object> doc = new HashMap<>();
-                doc.put("id", entry.getKey());
-                doc.put("content", entry.getValue().content);
-                doc.put("metadata", metadata);
-                results.add(doc);
+    /**
+     * Commence le remplacement des chunks d'un document (ré-upload). Les
+     * nouveaux vecteurs sont indexés au fil de put() mais restent invisibles ;
+     * commit() journalise le lot, rend visibles les nouveaux chunks et retire
+     * ceux qui n'ont pas été repris, en une seule bascule. À terminer par
+     * commit() ou abort(), éventuellement depuis un autre thread (un seul à la fois).
+     */
+    public DocumentUpdate beginDocument(String docId) {
+        return new DocumentUpdate(docId, lockDocument(docId));
+    }
+
+    /**
+     * Vue du document en lecture seule, sans son verrou : sert à préparer un
+     * remplacement (chunks à reprendre, quasi-doublons) avant de l'ouvrir par
+     * beginDocument. Un chunk repris qui a disparu entre-temps est signalé par
+     * DocumentUpdate.contains ; un alias dont la source a disparu reçoit sa copie du vecteur.
+     */
+    public DocumentView viewDocument(String docId) {
+        Set<String> chunks = chunksByDoc.get(docId);
+        Set<String> existing = chunks == null ? Set.of() : Set.copyOf(chunks);
+        return new DocumentView() {
+            @Override
+            public boolean contains(String chunkId) {
+                return existing.contains(chunkId);
+            }
+
+            @Override
+            public NearDuplicate nearDuplicate(String tenant, long fingerprint) {
+                SimHashIndex visible = fingerprints.get(tenant);
+                SimHashIndex.Match match = visible == null ? null : visible.nearest(fingerprint);
+                if (match == null) {
+                    return null;
+                }
+                String source = match.id();
+                DocumentEntry entry = store.get(source);
+                if (entry != null && entry.aliasOf != null) {
+                    source = entry.aliasOf;
+                }
+                float[] vector = partitionOf(tenant).vector(source);
+                return vector == null ? null : new NearDuplicate(source, match.distance(), EmbeddingVector.of(vector));
+            }
+        };
+    }
+
+    private DocumentLock lockDocument(String docId) {
+        DocumentLock lock = documentLocks.compute(docId, (k, current) -> {
+            DocumentLock held = current == null ? new DocumentLock() : current;
+            held.users++;
+            return held;
+        });
+        lock.permit.acquireUninterruptibly();
+        return lock;
+    }
+
+    private void unlockDocument(String docId, DocumentLock lock) {
+        lock.permit.release();
+        documentLocks.computeIfPresent(docId, (k, current) -> --current.users == 0 ? null : current);
+    }
+
+    /**
+     * Chunk existant presque identique (distance SimHash) : la source à
+     * laquelle rattacher le nouveau chunk (jamais un alias) et une copie de son vecteur.
+     */
+    public record NearDuplicate(String id, int distance, EmbeddingVector vector) {
+    }
+
+    /** Ce qui décide de la reprise d'un chunk : chunks déjà dans le document et quasi-doublons. */
+    public interface DocumentView {
+
+        /** Vrai si le chunk est déjà dans le store : son vecteur peut être repris tel quel. */
+        boolean contains(String chunkId);
+
+        /**
+         * Chunk le plus proche d'empreinte fingerprint parmi ceux du tenant,
+         * dans la limite ingestion.dedup.max-distance ; null s'il n'y en a pas.
+         * Un alias renvoie à sa source.
+         */
+        NearDuplicate nearDuplicate(String tenant, long fingerprint);
+    }
+
+    public final class DocumentUpdate implements DocumentView {
+
+        /**
+         * key : clé du vecteur préparé dans l'index (l'id, ou une clé provisoire
+         * si l'id y est déjà), null sans nouveau vecteur. Pour un alias, vector
+         * est la copie de celui de la source, indexée seulement si la source a
+         * disparu au moment du commit.
+         */
+        private record Staged(DocumentEntry entry, float[] vector, String key) {
+        }
+
+        private final String docId;
+        private final DocumentLock lock;
+        private final Set<String> existing;
+        private final Map<String, Staged> staged = new LinkedHashMap<>();
+        // Empreintes des chunks de ce lot déjà indexés, pas encore visibles dans le store
+        private final SimHashIndex stagedFingerprints = new SimHashIndex(nearDuplicateDistance);
+        private boolean done;
+
+        private DocumentUpdate(String docId, DocumentLock lock) {
+            this.docId = docId;
+            this.lock = lock;
+            Set<String> chunks = chunksByDoc.get(docId);
+            this.existing = chunks == null ? Set.of() : Set.copyOf(chunks);
+        }
+
+        @Override
+        public boolean contains(String chunkId) {
+            return existing.contains(chunkId);
+        }
+
+        /** Cherche aussi parmi les chunks déjà ajoutés à ce lot. */
+        @Override
+        public NearDuplicate nearDuplicate(String tenant, long fingerprint) {
+            SimHashIndex.Match match = stagedFingerprints.nearest(fingerprint);
+            SimHashIndex visible = fingerprints.get(tenant);
+            SimHashIndex.Match stored = visible == null ? null : visible.nearest(fingerprint);
+            if (match == null || (stored != null && stored.distance() < match.distance())) {
+                match = stored;
+            }
+            if (match == null) {
+                return null;
+            }
+            String source = match.id();
+            Staged pending = staged.get(source);
+            DocumentEntry entry = pending != null ? pending.entry() : store.get(source);
+            if (entry != null && entry.aliasOf != null) {
+                source = entry.aliasOf;
+                pending = staged.get(source);
+            }
+            float[] vector = pending != null && pending.key() != null
+                ? pending.vector()
+                : partitionOf(tenant).vector(source);
+            // Chunk retiré entre-temps : on calculera l'embedding
+            return vector == null ? null : new NearDuplicate(source, match.distance(), EmbeddingVector.of(vector));
+        }
+
+        /**
+         * Ajoute ou reprend un chunk ; embedding null = vecteur déjà indexé
+         * conservé (un alias repris reste un alias). Le nouveau vecteur d'un
+         * chunk déjà indexé est préparé sous une clé provisoire : l'ancien reste
+         * celui des recherches jusqu'au commit.
+         */
+        public void put(String id, String content, EmbeddingVector embedding, Map<String, Object> metadata) {
+            if (embedding == null && !existing.contains(id)) {
+                throw new IllegalArgumentException("Chunk absent du store, vecteur requis: " + id);
+            }
+            DocumentEntry current = embedding == null ? store.get(id) : null;
+            DocumentEntry entry = new DocumentEntry(content, metadata, current == null ? null : current.aliasOf);
+            Staged previous = staged.remove(id);
+            if (previous != null) {
+                discard(previous);
+            }
+            String key = null;
+            float[] vector = null;
+            if (embedding != null) {
+                VectorIndex partition = partitionOf(entry.tenant);
+                vector = embedding.values();
+                key = partition.rowOf(id) >= 0 ? STAGING_PREFIX + id : id;
+                partition.add(key, vector);
+                invisible(entry.tenant).incrementAndGet();
+            } else if (entry.aliasOf != null) {
+                vector = partitionOf(entry.tenant).vector(entry.aliasOf);
+            }
+            staged.put(id, new Staged(entry, vector, key));
+            Long fingerprint = fingerprintOf(metadata);
+            if (embedding != null && fingerprint != null) {
+                stagedFingerprints.add(id, fingerprint);
+            }
+        }
+
+        /**
+         * Ajoute un chunk presque identique à source (voir nearDuplicate) sans
+         * indexer de copie de son vecteur : les recherches rendent la source,
+         * avec ses alias dans un seul des topK résultats. sourceVector n'est
+         * indexé sous id que si la source a disparu au moment du commit.
+         */
+        public void alias(String id, String content, String source, EmbeddingVector sourceVector,
+                          Map<String, Object> metadata) {
+            DocumentEntry entry = new DocumentEntry(content, metadata, source);
+            float[] own = partitionOf(entry.tenant).vector(id);
+            if (own != null || source.equals(id)) {
+                // Le chunk a encore son propre vecteur (source retirée puis reprise) : il le garde
+                put(id, content, own != null ? EmbeddingVector.of(own) : sourceVector, metadata);
+                return;
+            }
+            Staged previous = staged.remove(id);
+            if (previous != null) {
+                discard(previous);
+            }
+            staged.put(id, new Staged(entry, sourceVector.values(), null));
+            Long fingerprint = fingerprintOf(metadata);
+            if (fingerprint != null) {
+                stagedFingerprints.add(id, fingerprint);
+            }
+        }
+
+        /** Rend le nouvel état visible d'un coup ; retourne le nombre de chunks retirés. */
+        public int commit() {
+            try {
+                List<String> stale = new ArrayList<>();
+                for (String id : existing) {
+                    if (!staged.containsKey(id)) {
+                        stale.add(id);
+                    }
+                }
+                long lsn = 0;
+                mutationLock.readLock().lock();
+                try {
+                    List<JournalRecord> records = null;
+                    if (wal != null) {
+                        try {
+                            records = new ArrayList<>(staged.size() + stale.size());
+                            for (Map.Entry<String, Staged> e : staged.entrySet()) {
+                                records.add(record(e.getKey(), e.getValue()));
+                            }
+                            for (String id : stale) {
+                                records.add(JournalRecord.delete(id));
+                            }
+                        } catch (RuntimeException e) {
+                            staged.values().forEach(this::discard);
+                            throw e;
+                        }
+                    }
+                    // Vecteurs encore indexés mais plus visibles : chunks retirés, ou changés de tenant
+                    List<Dropped> dropped = new ArrayList<>();
+                    visibilityLock.writeLock().lock();
+                    try {
+                        // Journalisé sous le verrou : l'ordre du WAL est celui des bascules, que la relecture reproduit
+                        try {
+                            adoptOrphans(records);
+                            if (records != null) {
+                                lsn = journal(records);
+                            }
+                        } catch (RuntimeException e) {
+                            // Rien n'est visible ni journalisé : le lot est abandonné
+                            staged.values().forEach(this::discard);
+                            throw e;
+                        }
+                        for (Map.Entry<String, Staged> e : staged.entrySet()) {
+                            String id = e.getKey();
+                            Staged s = e.getValue();
+                            if (s.key() != null) {
+                                if (!s.key().equals(id)) {
+                                    partitionOf(s.entry().tenant).rename(s.key(), id);
+                                }
+                                invisible(s.entry().tenant).decrementAndGet();
+                            }
+                            show(id, s.entry(), dropped);
+                        }
+                        for (String id : stale) {
+                            hide(id, dropped);
+                        }
+                    } finally {
+                        visibilityLock.writeLock().unlock();
+                    }
+                    removeDropped(dropped);
+                } finally {
+                    mutationLock.readLock().unlock();
+                }
+                awaitDurable(lsn);
+                System.out.println("Document " + docId + " remplacé : " + staged.size() + " chunks, "
+                    + stale.size() + " retirés");
+                return stale.size();
+            } finally {
+                release();
+            }
+        }
+
+        /** Retire les vecteurs préparés par ce lot ; le store et l'index visible sont inchangés. */
+        public void abort() {
+            if (done) {
+                return;
+            }
+            try {
+                for (Staged s : staged.values()) {
+                    discard(s);
+                }
+            } finally {
+                release();
+            }
+        }
+
+        /**
+         * Alias dont la source n'a plus de vecteur (retirée avec son document
+         * depuis put) : il reçoit sa copie du vecteur et devient un chunk
+         * ordinaire. Sous le verrou de visibilité en écriture.
+         */
+        private void adoptOrphans(List<JournalRecord> records) {
+            int i = 0;
+            for (Map.Entry<String, Staged> e : staged.entrySet()) {
+                Staged s = e.getValue();
+                String source = s.entry().aliasOf;
+                if (source != null && !hasVector(source)) {
+                    if (s.vector() == null) {
+                        throw new IllegalStateException("Source de l'alias introuvable: " + source);
+                    }
+                    DocumentEntry entry = new DocumentEntry(s.entry().content, s.entry().metadata);
+                    partitionOf(entry.tenant).add(e.getKey(), s.vector());
+                    invisible(entry.tenant).incrementAndGet();
+                    Staged adopted = new Staged(entry, s.vector(), e.getKey());
+                    e.setValue(adopted);
+                    if (records != null) {
+                        records.set(i, record(e.getKey(), adopted));
+                    }
+                }
+                i++;
+            }
+        }
+
+        /** Vrai si le chunk aura un vecteur après la bascule : préparé dans ce lot, visible ou conservé. */
+        private boolean hasVector(String id) {
+            Staged pending = staged.get(id);
+            if (pending != null) {
+                return pending.entry().aliasOf == null;
+            }
+            DocumentEntry entry = store.get(id);
+            return entry != null ? entry.aliasOf == null : retained.containsKey(id);
+        }
+
+        /** Retire le vecteur préparé (jamais visible) ; le vecteur déjà visible d'un chunk n'est pas touché. */
+        private void discard(Staged s) {
+            if (s.key() != null) {
+                partitionOf(s.entry().tenant).remove(s.key());
+                invisible(s.entry().tenant).decrementAndGet();
+            }
+        }
+
+        private JournalRecord record(String id, Staged staged) {
+            DocumentEntry entry = staged.entry();
+            if (entry.aliasOf != null) {
+                return JournalRecord.alias(id, entry.content, entry.metadata, entry.aliasOf);
+            }
+            VectorIndex partition = partitionOf(entry.tenant);
+            if (indexFactory.isMapped()) {
+                return JournalRecord.put(id, entry.content, entry.metadata,
+                    partition.rowOf(staged.key() != null ? staged.key() : id), null);
+            }
+            float[] vector = staged.key() != null ? staged.vector() : partition.vector(id);
+            if (vector == null) {
+                throw new IllegalStateException("Vecteur introuvable pour le chunk repris: " + id);
+            }
+            return JournalRecord.put(id, entry.content, entry.metadata, -1, vector);
+        }
+
+        private void release() {
+            if (!done) {
+                done = true;
+                unlockDocument(docId, lock);
             }
         }
-        return results;
     }
 
-    public List<Map<String, Object>> getDocumentsByUser(String userId) {
-        List<Map<String, Object>> results = new ArrayList<>();
-        Set<String> processedDocIds = new HashSet<>();
+    /** Vecteur devenu invisible, retiré de l'index une fois le verrou de visibilité rendu. */
+    private record Dropped(String tenant, String id) {
+    }
+
+    /**
+     * Rend l'entrée visible sous id et tient à jour les alias. Sous le verrou
+     * de visibilité en écriture (ou pendant la relecture).
+     */
+    private void show(String id, DocumentEntry entry, List<Dropped> dropped) {
+        DocumentEntry previous = store.put(id, entry);
+        if (previous != null) {
+            unindexChunk(id, previous);
+            if (previous.aliasOf != null) {
+                unlinkAlias(id, previous.aliasOf, dropped);
+            } else if (!previous.tenant.equals(entry.tenant)) {
+                drop(previous.tenant, id, dropped);
+            }
+        }
+        if (entry.aliasOf != null) {
+            aliasesBySource.computeIfAbsent(entry.aliasOf, s -> new TreeSet<>()).add(id);
+        } else {
+            // Source retirée puis reprise : le vecteur est de nouveau le sien
+            retained.remove(id);
+        }
+        indexChunk(id, entry);
+    }
+
+    /**
+     * Retire l'entrée du store. Une source qui a encore des alias garde son
+     * vecteur (retained) jusqu'au retrait du dernier d'entre eux.
+     */
+    private void hide(String id, List<Dropped> dropped) {
+        DocumentEntry entry = store.remove(id);
+        if (entry == null) {
+            return;
+        }
+        unindexChunk(id, entry);
+        if (entry.aliasOf != null) {
+            unlinkAlias(id, entry.aliasOf, dropped);
+        } else if (aliasesBySource.containsKey(id)) {
+            retained.put(id, entry);
+        } else {
+            drop(entry.tenant, id, dropped);
+        }
+    }
+
+    private void unlinkAlias(String id, String source, List<Dropped> dropped) {
+        NavigableSet<String> aliases = aliasesBySource.get(source);
+        if (aliases == null) {
+            return;
+        }
+        aliases.remove(id);
+        if (aliases.isEmpty()) {
+            aliasesBySource.remove(source);
+            DocumentEntry orphan = retained.remove(source);
+            if (orphan != null) {
+                drop(orphan.tenant, source, dropped);
+            }
+        }
+    }
+
+    private void drop(String tenant, String id, List<Dropped> dropped) {
+        dropped.add(new Dropped(tenant, id));
+        invisible(tenant).incrementAndGet();
+    }
+
+    private void removeDropped(List<Dropped> dropped) {
+        for (Dropped d : dropped) {
+            partitionOf(d.tenant()).remove(d.id());
+            invisible(d.tenant()).decrementAndGet();
+        }
+    }
+
+    /** Retire le chunk et le journalise ; retourne le numéro d'ordre WAL (0 sans WAL). */
+    private long remove(String id) {
+        long lsn = 0;
+        List<Dropped> dropped = new ArrayList<>();
+        visibilityLock.writeLock().lock();
+        try {
+            if (!store.containsKey(id)) {
+                return 0;
+            }
+            if (wal != null) {
+                lsn = journal(JournalRecord.delete(id));
+            }
+            hide(id, dropped);
+        } finally {
+            visibilityLock.writeLock().unlock();
+        }
+        removeDropped(dropped);
+        return lsn;
+    }
+
+    private long journal(JournalRecord record) {
+        return journal(List.of(record));
+    }
+
+    /** Journalise les enregistrements d'un bloc ; retourne le numéro d'ordre du dernier. */
+    private long journal(List<JournalRecord> records) {
+        long lsn = wal.appendAll(records);
+        if (recordsSinceSnapshot.addAndGet(records.size()) >= snapshotMaxRecords
+                && snapshotPending.compareAndSet(false, true)) {
+            snapshotScheduler.execute(this::snapshotIfDirty);
+        }
+        return lsn;
+    }
 
-        for (Map.Entry<String, DocumentEntry> entry : store.entrySet()) {
-            Map<String, Object> metadata = entry.getValue().metadata;
-            if (metadata != null && userId.equals(metadata.get("userId"))) {
-                String docId = (String) metadata.get("docId");
-                if (docId != null && !processedDocIds.contains(docId)) {
-                    processedDocIds.add(docId);
-                    Map<String, Object> doc = new HashMap<>();
-                    doc.put("id", docId);
-                    doc.put("filename", metadata.get("filename"));
-                    doc.put("userId", userId);
-                    doc.put("chunkCount", getChunkCountForDoc(userId, docId));
-                    results.add(doc);
+    private void awaitDurable(long lsn) {
+        if (wal != null && lsn > 0) {
+            wal.awaitDurable(lsn);
+        }
+    }
+
+    private void forcePartitions() {
+        for (VectorIndex partition : partitions.values()) {
+            partition.flush();
+        }
+    }
+
+    /**
+     * Écrit un snapshot en arrière-plan. Seules la rotation du WAL et la copie
+     * de la liste des chunks se font sous verrou exclusif ; un chunk modifié
+     * pendant l'écriture l'est aussi dans le nouveau fichier WAL, qui est
+     * rejoué après le snapshot et a donc le dernier mot.
+     */
+    private void snapshotIfDirty() {
+        try {
+            if (recordsSinceSnapshot.get() == 0) {
+                return;
+            }
+            long sequence;
+            List<Map.Entry<String, DocumentEntry>> entries;
+            List<Map.Entry<String, DocumentEntry>> kept;
+            mutationLock.writeLock().lock();
+            try {
+                sequence = wal.rotate();
+                recordsSinceSnapshot.set(0);
+                entries = new ArrayList<>(store.entrySet());
+                kept = new ArrayList<>(retained.entrySet());
+            } finally {
+                mutationLock.writeLock().unlock();
+            }
+
+            long start = System.currentTimeMillis();
+            int count = writeSnapshot(sequence, entries, kept, this::partitionOf);
+
+            wal.truncateBefore(sequence);
+            StoreSnapshot.deleteOlderThan(snapshotDir, sequence);
+            System.out.println("Snapshot du store vectoriel : " + count + " chunks en "
+                + (System.currentTimeMillis() - start) + " ms");
+        } catch (RuntimeException e) {
+            System.err.println("Erreur snapshot store vectoriel: " + e.getMessage());
+        } finally {
+            snapshotPending.set(false);
+        }
+    }
+
+    /**
+     * Mode mmap : les segments ne sont qu'étendus et gardent les vecteurs
+     * retirés, remplacés ou préparés puis abandonnés. Au démarrage, avant
+     * toute mutation, une partition dont les lignes mortes remplissent au
+     * moins un segment et dépassent ses lignes vivantes est recopiée dans des
+     * segments neufs. Un snapshot publie les nouvelles lignes, puis le
+     * répertoire compacté remplace l'ancien ; un arrêt avant la publication
+     * laisse l'ancien répertoire et l'ancien snapshot en place.
+     */
+    private void compactPartitions() {
+        if (!indexFactory.isMapped()) {
+            return;
+        }
+        Map<String, VectorIndex> compacted = new LinkedHashMap<>();
+        for (Map.Entry<String, VectorIndex> e : partitions.entrySet()) {
+            VectorIndex partition = e.getValue();
+            int dead = partition.storedRows() - partition.size();
+            if (dead >= indexFactory.getSegmentRows() && dead >= partition.size()) {
+                compacted.put(e.getKey(), indexFactory.createCompacted(e.getKey()));
+            }
+        }
+        if (compacted.isEmpty()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        List<Map.Entry<String, DocumentEntry>> entries = new ArrayList<>(store.entrySet());
+        List<Map.Entry<String, DocumentEntry>> kept = new ArrayList<>(retained.entrySet());
+        Map<String, Map<String, Integer>> rows = new HashMap<>();
+        long sequence;
+        try {
+            // Vecteurs vivants : sources conservées et chunks visibles (un alias n'a pas de vecteur propre)
+            for (List<Map.Entry<String, DocumentEntry>> list : List.of(kept, entries)) {
+                for (Map.Entry<String, DocumentEntry> e : list) {
+                    DocumentEntry entry = e.getValue();
+                    VectorIndex target = compacted.get(entry.tenant);
+                    float[] vector = target == null || entry.aliasOf != null
+                        ? null : partitionOf(entry.tenant).vector(e.getKey());
+                    if (vector != null) {
+                        rows.computeIfAbsent(entry.tenant, t -> new HashMap<>())
+                            .put(e.getKey(), target.add(e.getKey(), vector));
+                    }
                 }
             }
+            compacted.values().forEach(VectorIndex::flush);
+            sequence = wal.rotate();
+            for (String tenant : compacted.keySet()) {
+                indexFactory.markCompacted(tenant, sequence);
+            }
+            writeSnapshot(sequence, entries, kept, t -> compacted.getOrDefault(t, partitionOf(t)));
+        } catch (RuntimeException e) {
+            // Rien n'est publié : les répertoires .compacting seront effacés au prochain démarrage
+            System.err.println("Compaction des segments abandonnée: " + e.getMessage());
+            return;
+        }
+
+        // Snapshot publié : le remplacement doit aller au bout (sinon il est terminé au prochain démarrage)
+        long before = 0;
+        long after = 0;
+        for (String tenant : compacted.keySet()) {
+            before += partitions.get(tenant).storedRows();
+            indexFactory.commitCompaction(tenant);
+            VectorIndex reopened = indexFactory.create(tenant);
+            rows.getOrDefault(tenant, Map.of()).forEach(reopened::attach);
+            partitions.put(tenant, reopened);
+            after += reopened.storedRows();
+        }
+        wal.truncateBefore(sequence);
+        StoreSnapshot.deleteOlderThan(snapshotDir, sequence);
+        System.out.println("Segments compactés : " + compacted.size() + " partitions, " + before + " -> "
+            + after + " lignes en " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /** Écrit et publie le snapshot ; indexes donne l'index (donc la ligne, en mode mmap) de chaque tenant. */
+    private int writeSnapshot(long sequence, List<Map.Entry<String, DocumentEntry>> entries,
+                              List<Map.Entry<String, DocumentEntry>> kept,
+                              Function<String, VectorIndex> indexes) {
+        StoreSnapshot.Writer writer = StoreSnapshot.begin(snapshotDir, sequence);
+        try {
+            // Une source conservée pour ses alias est écrite puis retirée après eux : la relecture la conserve
+            for (Map.Entry<String, DocumentEntry> e : kept) {
+                appendVector(writer, e.getKey(), e.getValue(), indexes);
+            }
+            for (Map.Entry<String, DocumentEntry> e : entries) {
+                DocumentEntry entry = e.getValue();
+                if (entry.aliasOf != null) {
+                    writer.append(JournalRecord.alias(e.getKey(), entry.content, entry.metadata, entry.aliasOf));
+                } else {
+                    appendVector(writer, e.getKey(), entry, indexes);
+                }
+            }
+            for (Map.Entry<String, DocumentEntry> e : kept) {
+                writer.append(JournalRecord.delete(e.getKey()));
+            }
+        } catch (RuntimeException ex) {
+            writer.abort();
+            throw ex;
+        }
+        return writer.commit();
+    }
+
+    private void appendVector(StoreSnapshot.Writer writer, String id, DocumentEntry entry,
+                              Function<String, VectorIndex> indexes) {
+        VectorIndex partition = indexes.apply(entry.tenant);
+        if (indexFactory.isMapped()) {
+            int row = partition.rowOf(id);
+            if (row >= 0) {
+                writer.append(JournalRecord.put(id, entry.content, entry.metadata, row, null));
+            }
+        } else {
+            float[] vector = partition.vector(id);
+            if (vector != null) {
+                writer.append(JournalRecord.put(id, entry.content, entry.metadata, -1, vector));
+            }
+        }
+    }
+
+    /**
+     * Les deux index sont mis à jour dans le compute du docId : un document
+     * n'apparaît pour son utilisateur que tant qu'il lui reste des chunks.
+     */
+    private void indexChunk(String id, DocumentEntry entry) {
+        Long fingerprint = fingerprintOf(entry.metadata);
+        if (fingerprint != null) {
+            fingerprints.computeIfAbsent(entry.tenant, t -> new SimHashIndex(nearDuplicateDistance))
+                .add(id, fingerprint);
+        }
+        if (entry.docId == null) {
+            return;
+        }
+        chunksByDoc.compute(entry.docId, (docId, chunks) -> {
+            if (chunks == null) {
+                chunks = ConcurrentHashMap.newKeySet();
+            }
+            chunks.add(id);
+            docsByUser.computeIfAbsent(entry.tenant, t -> ConcurrentHashMap.newKeySet()).add(docId);
+            return chunks;
+        });
+    }
+
+    private void unindexChunk(String id, DocumentEntry entry) {
+        SimHashIndex tenantFingerprints = fingerprints.get(entry.tenant);
+        if (tenantFingerprints != null) {
+            tenantFingerprints.remove(id);
+        }
+        if (entry.docId == null) {
+            return;
+        }
+        chunksByDoc.computeIfPresent(entry.docId, (docId, chunks) -> {
+            chunks.remove(id);
+            if (!chunks.isEmpty()) {
+                return chunks;
+            }
+            Set<String> docs = docsByUser.get(entry.tenant);
+            if (docs != null) {
+                docs.remove(docId);
+            }
+            return null;
+        });
+    }
+
+    private static Long fingerprintOf(Map<String, Object> metadata) {
+        Object value = metadata == null ? null : metadata.get("simhash");
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseUnsignedLong(value.toString(), 16);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private VectorIndex partitionOf(String tenant) {
+        return partitions.computeIfAbsent(tenant, indexFactory::create);
+    }
+
+    private AtomicInteger invisible(String tenant) {
+        return invisibleRows.computeIfAbsent(tenant, t -> new AtomicInteger());
+    }
+
+    private static String tenantOf(Map<String, Object> metadata) {
+        Object userId = metadata == null ? null : metadata.get("userId");
+        return userId == null ? NO_TENANT : userId.toString();
+    }
+
+    /**
+     * Résultats des hits visibles ; appelé sous le verrou de visibilité. Les
+     * alias d'un chunk partagent son vecteur : ils sont rendus dans son
+     * résultat (aliases : id et metadata) au lieu d'occuper d'autres places du
+     * top-K. Une source retirée est représentée par son premier alias.
+     */
+    private List<Map<String, Object>> toResults(List<SearchHit> hits) {
+        List<Map<String, Object>> results = new ArrayList<>(hits.size());
+        for (SearchHit hit : hits) {
+            String id = hit.getId();
+            DocumentEntry entry = store.get(id);
+            NavigableSet<String> aliases = aliasesBySource.get(id);
+            if (entry == null) {
+                if (aliases == null || !retained.containsKey(id)) {
+                    continue;
+                }
+                id = aliases.first();
+                entry = store.get(id);
+            }
+            List<Map<String, Object>> merged = new ArrayList<>();
+            if (aliases != null) {
+                for (String alias : aliases) {
+                    DocumentEntry aliasEntry = store.get(alias);
+                    if (!alias.equals(id) && aliasEntry != null) {
+                        Map<String, Object> item = new HashMap<>();
+                        item.put("id", alias);
+                        item.put("metadata", aliasEntry.metadata);
+                        merged.add(item);
+                    }
+                }
+            }
+            Map<String, Object> result = new HashMap<>();
+            result.put("id", id);
+            result.put("content", entry.content);
+            result.put("metadata", entry.metadata);
+            result.put("distance", hit.getDistance());
+            result.put("aliases", merged);
+            results.add(result);
         }
         return results;
     }
 
-    private int getChunkCountForDoc(String userId, String docId) {
-        int count = 0;
-        for (Map.Entry<String, DocumentEntry> entry : store.entrySet()) {
-            Map<String, Object> metadata = entry.getValue().metadata;
-            if (metadata != null &&
-                userId.equals(metadata.get("userId")) &&
-                docId.equals(metadata.get("docId"))) {
-                count++;
+    /**
+     * Statistiques du store : moteur, volumétrie et, en mode int8, le rappel
+     * mesuré sur les requêtes échantillonnées (toutes partitions confondues).
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("engine", indexFactory.getEngine());
+        stats.put("kernels", VectorKernels.description());
+        stats.put("quantization", indexFactory.isQuantized() ? "int8" : "none");
+        stats.put("persistent", indexFactory.isPersistent());
+        stats.put("chunks", store.size());
+        stats.put("partitions", partitions.size());
+        visibilityLock.readLock().lock();
+        try {
+            stats.put("nearDuplicateAliases", aliasesBySource.values().stream().mapToInt(Set::size).sum());
+            stats.put("retainedSources", retained.size());
+        } finally {
+            visibilityLock.readLock().unlock();
+        }
+
+        long heapBytes = 0;
+        long deadRows = 0;
+        long recallSamples = 0;
+        long recallFound = 0;
+        long ivfTrainings = 0;
+        for (VectorIndex index : partitions.values()) {
+            Map<String, Object> indexStats = index.stats();
+            deadRows += index.storedRows() - index.size();
+            heapBytes += ((Number) indexStats.getOrDefault("heapBytes", 0L)).longValue();
+            recallSamples += ((Number) indexStats.getOrDefault("recallSamples", 0L)).longValue();
+            recallFound += ((Number) indexStats.getOrDefault("recallFound", 0L)).longValue();
+            ivfTrainings += ((Number) indexStats.getOrDefault("ivfTrainings", 0L)).longValue();
+        }
+        // En mode mmap, les lignes mortes restent sur disque jusqu'à la compaction du prochain démarrage
+        stats.put("deadRows", deadRows);
+        if (indexFactory.getEngine().equals("ivf")) {
+            stats.put("ivfTrainings", ivfTrainings);
+        }
+        if (indexFactory.isQuantized()) {
+            stats.put("quantizedHeapBytes", heapBytes);
+            stats.put("recallSamples", recallSamples);
+            stats.put("recall", recallSamples == 0 ? null : (double) recallFound / recallSamples);
+        }
+        return stats;
+    }
+
+    public List<Map<String, Object>> getDocumentsByUserAndDocId(String userId, String docId) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        Set<String> chunks = chunksByDoc.get(docId);
+        if (chunks == null) {
+            return results;
+        }
+        for (String id : chunks) {
+            DocumentEntry entry = store.get(id);
+            if (entry != null && userId.equals(entry.tenant)) {
+                Map<String, Object> doc = new HashMap<>();
+                doc.put("id", id);
+                doc.put("content", entry.content);
+                doc.put("metadata", entry.metadata);
+                results.add(doc);
             }
         }
-        return count;
+        return results;
     }
 
-    private double cosineDistance(List<Double> a, List<Double> b) {
-        double dot = 0.0, normA = 0.0, normB = 0.0;
-        for (int i = 0; i < a.size(); i++) {
-            dot += a.get(i) * b.get(i);
-            normA += a.get(i) * a.get(i);
-            normB += b.get(i) * b.get(i);
+    public List<Map<String, Object>> getDocumentsByUser(String userId) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        Set<String> docIds = docsByUser.get(userId);
+        if (docIds == null) {
+            return results;
         }
-        return 1 - (dot / (Math.sqrt(normA) * Math.sqrt(normB)));
+        for (String docId : docIds) {
+            Set<String> chunks = chunksByDoc.get(docId);
+            if (chunks == null) {
+                continue;
+            }
+            DocumentEntry first = null;
+            for (String id : chunks) {
+                first = store.get(id);
+                if (first != null) {
+                    break;
+                }
+            }
+            if (first == null) {
+                continue;
+            }
+            Map<String, Object> doc = new HashMap<>();
+            doc.put("id", docId);
+            doc.put("filename", first.metadata.get("filename"));
+            doc.put("userId", userId);
+            doc.put("chunkCount", chunks.size());
+            results.add(doc);
+        }
+        return results;
     }
-}
\ No newline at end of file
+}
@@ -1,15 +1,23 @@
 package org.mql.ia.rag.service;
 
+import org.mql.ia.rag.ingestion.ChunkIdentity;
+import org.mql.ia.rag.ingestion.IngestionProgress;
+import org.mql.ia.rag.ingestion.NearDuplicateDetector;
+import org.mql.ia.rag.ingestion.SimHash;
+import org.mql.ia.rag.ingestion.TextChunker;
+import org.mql.ia.rag.ingestion.TextExtractor;
+import org.mql.ia.rag.ingestion.TokenChunkReader;
 import org.mql.ia.rag.model.Document;
+import org.mql.ia.rag.store.EmbeddingVector;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.stream.Collectors;
 
 @Service
 public class DocumentService {
@@ -17,95 +25,179 @@ public class DocumentService {
     private final EmbeddingService embeddingService;
     private final ChromaDBService chromaDBService;
     private final ExecutorService executorService;
+    private final TextChunker chunker;
+    private final TextExtractor extractor;
+    private final NearDuplicateDetector duplicates;
+    private final int batchMaxTokens;
+    private final int batchMaxInputs;
+    private final int batchMaxInFlight;
 
     public DocumentService(EmbeddingService embeddingService, 
-                          ChromaDBService chromaDBService) {
+                          ChromaDBService chromaDBService,
+                          ExecutorService ingestionExecutor,
+                          TextChunker chunker,
+                          TextExtractor extractor,
+                          NearDuplicateDetector duplicates,
+                          @Value("${embedding.batch.max-tokens:8192}") int batchMaxTokens,
+                          @Value("${embedding.batch.max-inputs:64}") int batchMaxInputs,
+                          @Value("${embedding.batch.max-in-flight:4}") int batchMaxInFlight) {
         this.embeddingService = embeddingService;
         this.chromaDBService = chromaDBService;
-        this.executorService = Executors.newFixedThreadPool(4);
+        this.chunker = chunker;
+        this.extractor = extractor;
+        this.duplicates = duplicates;
+        // Une tâche par lot ; la concurrence effective est fixée par le limiteur adaptatif
+        this.executorService = ingestionExecutor;
+        this.batchMaxTokens = batchMaxTokens;
+        this.batchMaxInputs = batchMaxInputs;
+        this.batchMaxInFlight = Math.max(1, batchMaxInFlight);
     }
 
-    public Document uploadDocument(MultipartFile file, Long userId) throws IOException {
-        String content = new String(file.getBytes());
-        List<String> chunks = chunkText(content, 500, 50);
-        String docId = UUID.randomUUID().toString();
-        
-        List<String> ids = new ArrayList<>();
-        List<String> contents = new ArrayList<>();
-        List<List<Double>> embeddings = new ArrayList<>();
-        List<Map<String, Object>> metadatas = new ArrayList<>();
-        
-        List<CompletableFuture<Void>> futures = new ArrayList<>();
-        
-        for (int i = 0; i < chunks.size(); i++) {
-            final int index = i;
-            final String chunk = chunks.get(i);
-            
-            CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
-                String chunkId = docId + "_chunk_" + index;
-                List<Double> embedding = embeddingService.generateEmbedding(chunk);
-                
-                Map<String, Object> metadata = new HashMap<>();
-                metadata.put("filename", file.getOriginalFilename());
-                metadata.put("userId", userId.toString());
-                metadata.put("chunkIndex", String.valueOf(index));
-                metadata.put("docId", docId);
-                
-                synchronized (ids) {
-                    ids.add(chunkId);
-                    contents.add(chunk);
-                    embeddings.add(embedding);
-                    metadatas.add(metadata);
+    /**
+     * Ingère (ou remplace) le document docId. Les chunks dont le contenu était
+     * déjà présent gardent leur vecteur, ceux presque identiques à un chunk
+     * existant en reprennent une copie : ni les uns ni les autres ne repartent
+     * à l'embedding ; les autres partent par lots (EmbeddingService.embedAll,
+     * une requête multi-input par lot). Les nouveaux chunks et le retrait des
+     * anciens deviennent visibles ensemble, à la fin.
+     */
+    public Document uploadDocument(String docId, String filename, InputStream in, Long userId,
+                                   IngestionProgress progress) throws IOException {
+        // .txt lu en flux (les chunks partent à l'embedding pendant que la suite est lue), PDF/DOCX/HTML via Tika
+        TokenChunkReader chunks = chunker.open(extractor.open(filename, in));
+        ChunkIdentity identity = new ChunkIdentity(docId);
+
+        Deque<PendingBatch> pending = new ArrayDeque<>();
+        List<PendingChunk> batch = new ArrayList<>();
+        int batchTokens = 0;
+        int chunkCount = 0;
+        int removed;
+
+        ChromaDBService.DocumentUpdate update = chromaDBService.beginDocument(docId);
+        try {
+            TokenChunkReader.Chunk chunk;
+            while ((chunk = chunks.next()) != null) {
+                String hash = ChunkIdentity.hash(chunk.text());
+                String id = identity.next(hash);
+                long fingerprint = duplicates.fingerprint(chunk.text());
+                PendingChunk entry = new PendingChunk(id, hash, fingerprint, chunk);
+                progress.chunksRead(1);
+                chunkCount++;
+
+                NearDuplicateDetector.Reuse reuse = duplicates.lookup(update, id, userId.toString(), fingerprint);
+                if (reuse != null) {
+                    // null pour un chunk inchangé : le vecteur déjà indexé est conservé
+                    stage(update, entry, reuse.exact() ? null : reuse.vector(),
+                        reuse.exact() ? null : reuse.sourceId(), docId, filename, userId);
+                    if (reuse.exact()) {
+                        progress.chunksReused(1);
+                    } else {
+                        progress.chunksNearDuplicate(1);
+                    }
+                    continue;
+                }
+
+                // Lots bornés en tokens (comptés par le chunker) et en entrées
+                if (!batch.isEmpty()
+                        && (batchTokens + chunk.tokens() > batchMaxTokens || batch.size() >= batchMaxInputs)) {
+                    submitBatch(update, batch, pending, docId, filename, userId, progress);
+                    batch = new ArrayList<>();
+                    batchTokens = 0;
                 }
-            }, executorService);
-            
-            futures.add(future);
+                batch.add(entry);
+                batchTokens += chunk.tokens();
+            }
+            if (!batch.isEmpty()) {
+                submitBatch(update, batch, pending, docId, filename, userId, progress);
+            }
+            while (!pending.isEmpty()) {
+                stageBatch(update, pending.poll(), docId, filename, userId);
+            }
+            removed = update.commit();
+        } catch (CompletionException e) {
+            throw new IOException("Erreur lors de la génération des embeddings", e.getCause());
+        } finally {
+            update.abort();
         }
-        
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
-        
-        chromaDBService.addDocuments(ids, contents, embeddings, metadatas);
-        
+        progress.chunksStored(chunkCount);
+        if (removed > 0) {
+            System.out.println("Ré-upload " + filename + " : " + removed + " anciens chunks retirés");
+        }
+
         Document document = new Document();
         document.setId(docId);
-        document.setFilename(file.getOriginalFilename());
-        document.setContent(content);
+        document.setFilename(filename);
         document.setUserId(userId);
-        document.setChunkCount(chunks.size());
+        document.setChunkCount(chunkCount);
         
         return document;
     }
 
-    public List<Map<String, Object>> getDocumentsByUser(Long userId) {
-        return chromaDBService.getDocumentsByUser(userId.toString());
+    private record PendingChunk(String id, String hash, long fingerprint, TokenChunkReader.Chunk chunk) {
     }
 
-    public void deleteDocument(String docId, Long userId) {
-        chromaDBService.deleteDocumentsByMetadata("docId", docId);
-        System.out.println("Document supprimé: " + docId + " pour utilisateur: " + userId);
+    private record PendingBatch(List<PendingChunk> chunks, CompletableFuture<List<EmbeddingVector>> embeddings) {
     }
 
-    private List<String> chunkText(String text, int chunkSize, int overlap) {
-        List<String> chunks = new ArrayList<>();
-        String[] words = text.split("\\s+");
-
-        int start = 0;
-        while (start < words.length) {
-            int end = Math.min(start + chunkSize, words.length);
+    /**
+     * Lance l'embedding du lot sur l'exécuteur partagé ; au plus batchMaxInFlight
+     * lots en vol par upload, au-delà le plus ancien est attendu et indexé.
+     */
+    private void submitBatch(ChromaDBService.DocumentUpdate update, List<PendingChunk> batch,
+                             Deque<PendingBatch> pending, String docId, String filename, Long userId,
+                             IngestionProgress progress) {
+        while (pending.size() >= batchMaxInFlight) {
+            stageBatch(update, pending.poll(), docId, filename, userId);
+        }
+        List<String> texts = new ArrayList<>(batch.size());
+        for (PendingChunk chunk : batch) {
+            texts.add(chunk.chunk().text());
+        }
+        pending.add(new PendingBatch(batch, CompletableFuture.supplyAsync(() -> {
+            List<EmbeddingVector> embedded = embeddingService.embedAll(texts);
+            progress.chunksEmbedded(embedded.size());
+            return embedded;
+        }, executorService)));
+    }
 
-            StringBuilder chunk = new StringBuilder();
-            for (int i = start; i < end; i++) {
-                chunk.append(words[i]).append(" ");
-            }
+    private void stageBatch(ChromaDBService.DocumentUpdate update, PendingBatch batch,
+                            String docId, String filename, Long userId) {
+        List<EmbeddingVector> embeddings = batch.embeddings().join();
+        for (int i = 0; i < embeddings.size(); i++) {
+            stage(update, batch.chunks().get(i), embeddings.get(i), null, docId, filename, userId);
+        }
+    }
 
-            String chunkText = chunk.toString().trim();
-            if (!chunkText.isEmpty()) {
-                chunks.add(chunkText);
-            }
+    private void stage(ChromaDBService.DocumentUpdate update, PendingChunk pending, EmbeddingVector embedding,
+                       String nearDuplicateOf, String docId, String filename, Long userId) {
+        TokenChunkReader.Chunk chunk = pending.chunk();
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("filename", filename);
+        metadata.put("userId", userId.toString());
+        metadata.put("chunkIndex", String.valueOf(chunk.index()));
+        metadata.put("startOffset", String.valueOf(chunk.start()));
+        metadata.put("endOffset", String.valueOf(chunk.end()));
+        metadata.put("contentHash", pending.hash());
+        metadata.put("simhash", SimHash.format(pending.fingerprint()));
+        if (nearDuplicateOf != null) {
+            metadata.put("nearDuplicateOf", nearDuplicateOf);
+        }
+        metadata.put("docId", docId);
 
-            start += (chunkSize - overlap);
+        if (nearDuplicateOf != null) {
+            // Alias : embedding n'est que la copie de secours du vecteur de la source
+            update.alias(pending.id(), chunk.text(), nearDuplicateOf, embedding, metadata);
+        } else {
+            update.put(pending.id(), chunk.text(), embedding, metadata);
         }
+    }
 
-        return chunks;
+    public List<Map<String, Object>> getDocumentsByUser(Long userId) {
+        return chromaDBService.getDocumentsByUser(userId.toString());
+    }
+
+    public void deleteDocument(String docId, Long userId) {
+        chromaDBService.deleteDocumentsByMetadata("docId", docId);
+        System.out.println("Document supprimé: " + docId + " pour utilisateur: " + userId);
     }
 }
\ No newline at end of file
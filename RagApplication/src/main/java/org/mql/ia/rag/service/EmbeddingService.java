@@ -1,12 +1,19 @@
 package org.mql.ia.rag.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.mql.ia.rag.embedding.AdaptiveConcurrencyLimiter;
+import org.mql.ia.rag.embedding.EmbeddingCache;
+import org.mql.ia.rag.embedding.EmbeddingResponseParser;
+import org.mql.ia.rag.store.EmbeddingVector;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -16,38 +23,76 @@ public class EmbeddingService {
     @Value("${lm.studio.url}")
     private String lmStudioUrl;
 
+    private final String modelName;
     private final WebClient webClient;
-    private final ObjectMapper objectMapper;
+    private final EmbeddingCache embeddingCache;
+    private final AdaptiveConcurrencyLimiter limiter;
 
-    public EmbeddingService(WebClient.Builder webClientBuilder) {
+    public EmbeddingService(WebClient.Builder webClientBuilder, EmbeddingCache embeddingCache,
+                            AdaptiveConcurrencyLimiter limiter,
+                            @Value("${embedding.model.name}") String modelName) {
+        this.modelName = modelName;
         this.webClient = webClientBuilder.build();
-        this.objectMapper = new ObjectMapper();
+        this.embeddingCache = embeddingCache;
+        this.limiter = limiter;
     }
 
-    public List<Double> generateEmbedding(String text) {
+    public EmbeddingVector generateEmbedding(String text) {
+        return embedAll(List.of(text)).get(0);
+    }
+
+    /**
+     * Embeddings des textes, dans l'ordre. Les textes absents du cache partent
+     * en une seule requête multi-input ; la réponse est décodée morceau par
+     * morceau à mesure qu'elle arrive (EmbeddingResponseParser.incremental),
+     * sans tampon du corps entier, ni String ni arbre JSON intermédiaire.
+     */
+    public List<EmbeddingVector> embedAll(List<String> texts) {
+        float[][] vectors = new float[texts.size()][];
+        Map<String, List<Integer>> missing = new LinkedHashMap<>();
+        List<String> missingTexts = new ArrayList<>();
+        for (int i = 0; i < texts.size(); i++) {
+            String key = EmbeddingCache.key(modelName, texts.get(i));
+            vectors[i] = embeddingCache.get(key);
+            if (vectors[i] == null) {
+                List<Integer> positions = missing.computeIfAbsent(key, k -> new ArrayList<>());
+                if (positions.isEmpty()) {
+                    missingTexts.add(texts.get(i));
+                }
+                positions.add(i);
+            }
+        }
+        if (missingTexts.isEmpty()) {
+            return wrap(vectors);
+        }
+
         try {
             System.out.println("Génération embedding (LM Studio)...");
-            
-            String response = webClient.post()
+
+            long size = missingTexts.stream().mapToLong(String::length).sum();
+            float[][] generated = limiter.execute(size, () -> webClient.post()
                 .uri(lmStudioUrl + "/embeddings")
                 .bodyValue(Map.of(
-                    "input", text,
-                    "model", "text-embedding-nomic-embed-text-v1.5"
+                    "input", missingTexts,
+                    "model", modelName
                 ))
                 .retrieve()
-                .bodyToMono(String.class)
-                .block();
-
-            System.out.println("Reponse LM Studio reçue");
+                .bodyToFlux(DataBuffer.class)
+                .reduceWith(() -> newParser(missingTexts.size()), EmbeddingService::feed)
+                .map(EmbeddingService::finish)
+                .block());
 
-            JsonNode node = objectMapper.readTree(response);
-            JsonNode embeddingNode = node.get("data").get(0).get("embedding");
+            int next = 0;
+            for (Map.Entry<String, List<Integer>> entry : missing.entrySet()) {
+                float[] vector = generated[next++];
+                embeddingCache.put(entry.getKey(), vector);
+                for (int position : entry.getValue()) {
+                    vectors[position] = vector;
+                }
+            }
 
-            List<Double> embedding = new ArrayList<>();
-            embeddingNode.forEach(e -> embedding.add(e.asDouble()));
-            
-            System.out.println("Embdding généré: " + embedding.size() + " dimensions");
-            return embedding;
+            System.out.println("Embeddings générés: " + generated.length + " x " + generated[0].length + " dimensions");
+            return wrap(vectors);
             
         } catch (Exception e) {
             System.err.println("Erreur embedding LM Studio: " + e.getMessage());
@@ -55,4 +100,42 @@ public class EmbeddingService {
             throw new RuntimeException("Erreur génération embedding: " + e.getMessage(), e);
         }
     }
-}
\ No newline at end of file
+
+    private static List<EmbeddingVector> wrap(float[][] vectors) {
+        List<EmbeddingVector> wrapped = new ArrayList<>(vectors.length);
+        for (float[] vector : vectors) {
+            wrapped.add(EmbeddingVector.of(vector));
+        }
+        return wrapped;
+    }
+
+    private static EmbeddingResponseParser newParser(int expected) {
+        try {
+            return EmbeddingResponseParser.incremental(expected);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Chaque morceau reçu est décodé puis rendu au pool de Netty
+    private static EmbeddingResponseParser feed(EmbeddingResponseParser parser, DataBuffer buffer) {
+        try {
+            byte[] bytes = new byte[buffer.readableByteCount()];
+            buffer.read(bytes);
+            parser.feed(bytes);
+            return parser;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Réponse LM Studio illisible", e);
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+
+    private static float[][] finish(EmbeddingResponseParser parser) {
+        try {
+            return parser.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Réponse LM Studio illisible", e);
+        }
+    }
+}
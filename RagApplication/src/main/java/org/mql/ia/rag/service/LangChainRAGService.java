@@ -1,8 +1,6 @@
 package org.mql.ia.rag.service;
 
-import dev.langchain4j.data.document.Document;
 import dev.langchain4j.data.document.Metadata;
-import dev.langchain4j.data.document.splitter.DocumentSplitters;
 import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.model.embedding.EmbeddingModel;
@@ -11,40 +9,76 @@ import dev.langchain4j.model.openai.OpenAiEmbeddingModel;
 import dev.langchain4j.model.openai.OpenAiChatModel;
 import dev.langchain4j.store.embedding.EmbeddingStore;
 import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.filter.Filter;
+import dev.langchain4j.store.embedding.filter.comparison.IsEqualTo;
+import org.mql.ia.rag.embedding.AdaptiveConcurrencyLimiter;
+import org.mql.ia.rag.embedding.CachingEmbeddingModel;
+import org.mql.ia.rag.embedding.EmbeddingCache;
+import org.mql.ia.rag.ingestion.ChunkIdentity;
+import org.mql.ia.rag.ingestion.IngestionProgress;
+import org.mql.ia.rag.ingestion.NearDuplicateDetector;
+import org.mql.ia.rag.ingestion.SimHash;
+import org.mql.ia.rag.ingestion.TextChunker;
+import org.mql.ia.rag.ingestion.TextExtractor;
+import org.mql.ia.rag.ingestion.TokenChunkReader;
+import org.mql.ia.rag.store.EmbeddingVector;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
-import org.springframework.scheduling.annotation.Async;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
 
 @Service
 public class LangChainRAGService {
 
+    // Fichiers des alias d'un résultat (quasi-doublons fusionnés par le store), un par ligne
+    private static final String ALIAS_FILENAMES = "aliasFilenames";
+
     private final EmbeddingModel embeddingModel;
     private final ChatLanguageModel chatModel;
     private final EmbeddingStore<TextSegment> embeddingStore;
     private final ChromaDBService chromaDBService;
     private final ExecutorService executorService;
-
-    // Cache pour éviter de re-générer les mêmes embeddings
-    private final Map<String, List<String>> userDocuments = new ConcurrentHashMap<>();
+    private final BackendCallGate chatGate;
+    private final TextChunker chunker;
+    private final TextExtractor extractor;
+    private final NearDuplicateDetector duplicates;
+    private final int batchMaxTokens;
+    private final int batchMaxInputs;
+    private final int batchMaxInFlight;
 
     public LangChainRAGService(ChromaDBService chromaDBService,
+                               EmbeddingCache embeddingCache,
+                               AdaptiveConcurrencyLimiter limiter,
+                               BackendCallGate chatGate,
+                               ExecutorService ingestionExecutor,
+                               TextChunker chunker,
+                               TextExtractor extractor,
+                               NearDuplicateDetector duplicates,
                                @Value("${lm.studio.url}") String lmStudioUrl,
                                @Value("${embedding.model.url}") String embeddingModelUrl,
                                @Value("${lm.studio.model}") String chatModelName,
-                               @Value("${embedding.model.name}") String embeddingModelName) {
+                               @Value("${embedding.model.name}") String embeddingModelName,
+                               @Value("${embedding.batch.max-tokens:8192}") int batchMaxTokens,
+                               @Value("${embedding.batch.max-inputs:64}") int batchMaxInputs,
+                               @Value("${embedding.batch.max-in-flight:4}") int batchMaxInFlight) {
         
-        this.embeddingModel = OpenAiEmbeddingModel.builder()
+        // Ingestion et requêtes passent par le cache d'embeddings partagé,
+        // puis par le limiteur adaptatif pour les appels réels au serveur
+        this.embeddingModel = new CachingEmbeddingModel(limiter.wrap(OpenAiEmbeddingModel.builder()
             .baseUrl(embeddingModelUrl)
             .apiKey("not-needed")
             .modelName(embeddingModelName)
             .timeout(java.time.Duration.ofSeconds(60))
-            .build();
+            .build()), embeddingCache, embeddingModelName);
 
         this.chatModel = OpenAiChatModel.builder()
             .baseUrl(lmStudioUrl + "/v1")
@@ -58,73 +92,157 @@ public class LangChainRAGService {
         this.embeddingStore = new ChromaDBEmbeddingStore(chromaDBService);
         this.chromaDBService = chromaDBService;
 
-        this.executorService = Executors.newFixedThreadPool(4);
+        this.batchMaxTokens = batchMaxTokens;
+        this.batchMaxInputs = batchMaxInputs;
+        this.batchMaxInFlight = Math.max(1, batchMaxInFlight);
+        this.chatGate = chatGate;
+        this.executorService = ingestionExecutor;
+        this.chunker = chunker;
+        this.extractor = extractor;
+        this.duplicates = duplicates;
     }
 
 
-    public Map<String, Object> uploadDocument(MultipartFile file, Long userId) 
-            throws IOException {
+    /**
+     * Ingère (ou remplace) le document docId : seuls les chunks dont le contenu
+     * est nouveau, et sans quasi-doublon chez l'utilisateur, sont envoyés à l'embedding, puis le document entier bascule
+     * d'un coup dans le store (anciens chunks retirés au même moment).
+     */
+    public Map<String, Object> uploadDocument(String docId, String filename, InputStream in, Long userId,
+                                              IngestionProgress progress) throws IOException {
 
-        String content = new String(file.getBytes());
-        String docId = UUID.randomUUID().toString();
+        // .txt lu en flux (les chunks partent à l'embedding pendant que la suite est lue), PDF/DOCX/HTML via Tika
+        TokenChunkReader chunks = chunker.open(extractor.open(filename, in));
+        ChunkIdentity identity = new ChunkIdentity(docId);
 
-        // Split du document
-        Document document = Document.from(content);
-        var splitter = DocumentSplitters.recursive(500, 50);
-        List<TextSegment> segments = splitter.split(document);
-
-        List<TextSegment> segmentsWithMetadata = new ArrayList<>();
-        
-        for (int i = 0; i < segments.size(); i++) {
-            Map<String, String> meta = new HashMap<>();
-            meta.put("filename", file.getOriginalFilename());
-            meta.put("userId", userId.toString());
-            meta.put("chunkIndex", String.valueOf(i));
-            meta.put("docId", docId);
-
-            Metadata metadata = Metadata.from(meta);
-            TextSegment segment = TextSegment.from(
-                segments.get(i).text(), 
-                metadata
-            );
-            segmentsWithMetadata.add(segment);
-        }
+        Deque<PendingBatch> pending = new ArrayDeque<>();
+        List<String> batchIds = new ArrayList<>();
+        List<TextSegment> batch = new ArrayList<>();
+        int batchTokens = 0;
+        int chunkCount = 0;
+        int reused = 0;
+        int nearDuplicates = 0;
 
+        ChromaDBService.DocumentUpdate update = chromaDBService.beginDocument(docId);
         try {
-            List<Embedding> embeddings = batchEmbed(segmentsWithMetadata);
-            
-            embeddingStore.addAll(embeddings, segmentsWithMetadata);
-            
-        } catch (Exception e) {
-            throw new IOException("Erreur lors de la génération des embeddings", e);
+            TokenChunkReader.Chunk chunk;
+            while ((chunk = chunks.next()) != null) {
+                String hash = ChunkIdentity.hash(chunk.text());
+                String id = identity.next(hash);
+                long fingerprint = duplicates.fingerprint(chunk.text());
+                Map<String, String> meta = new HashMap<>();
+                meta.put("filename", filename);
+                meta.put("userId", userId.toString());
+                meta.put("chunkIndex", String.valueOf(chunk.index()));
+                meta.put("startOffset", String.valueOf(chunk.start()));
+                meta.put("endOffset", String.valueOf(chunk.end()));
+                meta.put("contentHash", hash);
+                meta.put("simhash", SimHash.format(fingerprint));
+                meta.put("docId", docId);
+                progress.chunksRead(1);
+                chunkCount++;
+
+                NearDuplicateDetector.Reuse reuse = duplicates.lookup(update, id, userId.toString(), fingerprint);
+                if (reuse != null && reuse.exact()) {
+                    // Contenu déjà indexé lors d'un upload précédent : vecteur conservé
+                    update.put(id, chunk.text(), null, new HashMap<>(meta));
+                    progress.chunksReused(1);
+                    reused++;
+                    continue;
+                }
+                if (reuse != null) {
+                    // Quasi-doublon d'un chunk existant : alias qui partage son vecteur
+                    meta.put("nearDuplicateOf", reuse.sourceId());
+                    update.alias(id, chunk.text(), reuse.sourceId(), reuse.vector(), new HashMap<>(meta));
+                    progress.chunksNearDuplicate(1);
+                    nearDuplicates++;
+                    continue;
+                }
+
+                // Lots bornés en tokens (comptés par le chunker) et en entrées : un appel embedAll par lot
+                if (!batch.isEmpty()
+                        && (batchTokens + chunk.tokens() > batchMaxTokens || batch.size() >= batchMaxInputs)) {
+                    submitBatch(update, batchIds, batch, pending, progress);
+                    batchIds = new ArrayList<>();
+                    batch = new ArrayList<>();
+                    batchTokens = 0;
+                }
+                batchIds.add(id);
+                batch.add(TextSegment.from(chunk.text(), Metadata.from(meta)));
+                batchTokens += chunk.tokens();
+            }
+            if (!batch.isEmpty()) {
+                submitBatch(update, batchIds, batch, pending, progress);
+            }
+            while (!pending.isEmpty()) {
+                stageBatch(update, pending.poll());
+            }
+            int removed = update.commit();
+            progress.chunksStored(chunkCount);
+            System.out.println("Embeddings générés : " + (chunkCount - reused - nearDuplicates) + " segments, "
+                + reused + " repris, " + nearDuplicates + " quasi-doublons, " + removed + " retirés");
+        } catch (CompletionException e) {
+            throw new IOException("Erreur lors de la génération des embeddings", e.getCause());
+        } finally {
+            update.abort();
         }
 
-        userDocuments.computeIfAbsent(userId.toString(), k -> new ArrayList<>())
-            .add(docId);
-
         return Map.of(
             "id", docId,
-            "filename", file.getOriginalFilename(),
-            "chunkCount", segments.size(),
+            "filename", filename,
+            "chunkCount", chunkCount,
             "uploadedAt", System.currentTimeMillis()
         );
     }
 
-    private List<Embedding> batchEmbed(List<TextSegment> segments) {
-        List<Embedding> embeddings = new ArrayList<>();
-        
-        int batchSize = 10;
-        for (int i = 0; i < segments.size(); i += batchSize) {
-            int end = Math.min(i + batchSize, segments.size());
-            List<TextSegment> batch = segments.subList(i, end);
-            
-            for (TextSegment segment : batch) {
-                Embedding embedding = embeddingModel.embed(segment).content();
-                embeddings.add(embedding);
-            }
+    /** Embeddings d'un lot de segments (cache, puis limiteur pour les appels réels), dans l'ordre. */
+    public List<EmbeddingVector> embed(List<TextSegment> segments) {
+        List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+        if (embeddings.size() != segments.size()) {
+            throw new IllegalStateException(
+                "Nombre d'embeddings reçus invalide: " + embeddings.size() + " pour " + segments.size() + " segments"
+            );
+        }
+        List<EmbeddingVector> vectors = new ArrayList<>(embeddings.size());
+        for (Embedding embedding : embeddings) {
+            vectors.add(EmbeddingVector.of(embedding.vector()));
+        }
+        return vectors;
+    }
+
+    private record PendingBatch(List<String> ids, List<TextSegment> segments,
+                                CompletableFuture<List<Embedding>> embeddings) {
+    }
+
+    /**
+     * Lance l'embedding du lot sur l'exécuteur partagé. Au plus batchMaxInFlight
+     * lots sont en vol par upload : au-delà, le plus ancien est attendu et indexé,
+     * ce qui borne aussi la mémoire à quelques lots quelle que soit la taille du fichier.
+     */
+    private void submitBatch(ChromaDBService.DocumentUpdate update, List<String> ids, List<TextSegment> batch,
+                             Deque<PendingBatch> pending, IngestionProgress progress) {
+        while (pending.size() >= batchMaxInFlight) {
+            stageBatch(update, pending.poll());
+        }
+        pending.add(new PendingBatch(ids, batch, CompletableFuture.supplyAsync(() -> {
+            List<Embedding> embedded = embeddingModel.embedAll(batch).content();
+            progress.chunksEmbedded(embedded.size());
+            return embedded;
+        }, executorService)));
+    }
+
+    private void stageBatch(ChromaDBService.DocumentUpdate update, PendingBatch batch) {
+        List<Embedding> embeddings = batch.embeddings().join();
+        if (embeddings.size() != batch.segments().size()) {
+            throw new IllegalStateException(
+                "Nombre d'embeddings reçus invalide: " + embeddings.size() + " pour " + batch.segments().size() + " segments"
+            );
+        }
+        for (int i = 0; i < embeddings.size(); i++) {
+            TextSegment segment = batch.segments().get(i);
+            update.put(batch.ids().get(i), segment.text(), EmbeddingVector.of(embeddings.get(i).vector()),
+                new HashMap<>(segment.metadata().toMap()));
         }
-        
-        return embeddings;
     }
 
     public Map<String, Object> query(String question, int topK, Long userId) {
@@ -133,15 +251,16 @@ public class LangChainRAGService {
 
         Embedding queryEmbedding = embeddingModel.embed(question).content();
         
-        List<EmbeddingMatch<TextSegment>> matches =
-            embeddingStore.findRelevant(queryEmbedding, topK, 0.5);
+        // Le filtre userId est appliqué avant le top-K : seule la partition de l'utilisateur est parcourue
+        EmbeddingSearchRequest searchRequest = EmbeddingSearchRequest.builder()
+            .queryEmbedding(queryEmbedding)
+            .maxResults(topK)
+            .minScore(0.5)
+            .filter(metadataKey("userId").isEqualTo(userId.toString()))
+            .build();
 
-        matches = matches.stream()
-            .filter(m -> {
-                String segmentUserId = m.embedded().metadata().get("userId");
-                return segmentUserId != null && segmentUserId.equals(userId.toString());
-            })
-            .collect(Collectors.toList());
+        List<EmbeddingMatch<TextSegment>> matches =
+            embeddingStore.search(searchRequest).matches();
 
         if (matches.isEmpty()) {
             return Map.of(
@@ -177,13 +296,17 @@ public class LangChainRAGService {
 
         String answer;
         try {
-            answer = chatModel.generate(prompt);
+            answer = chatGate.call(() -> chatModel.generate(prompt));
         } catch (Exception e) {
             answer = "Erreur lors de la génération de la réponse: " + e.getMessage();
         }
 
+        // Un chunk rend aussi les fichiers de ses quasi-doublons, fusionnés dans son résultat
         List<String> sources = matches.stream()
-            .map(m -> m.embedded().metadata().get("filename"))
+            .flatMap(m -> Stream.concat(
+                Stream.of(m.embedded().metadata().getString("filename")),
+                Stream.ofNullable(m.embedded().metadata().getString(ALIAS_FILENAMES))
+                    .flatMap(names -> Arrays.stream(names.split("\n")))))
             .filter(Objects::nonNull)
             .distinct()
             .collect(Collectors.toList());
@@ -203,31 +326,32 @@ public class LangChainRAGService {
     }
 
     public void deleteDocument(String docId, Long userId) {
-        List<String> userDocs = userDocuments.get(userId.toString());
-        if (userDocs == null || !userDocs.contains(docId)) {
+        // Propriété vérifiée sur le store : vaut aussi pour les imports en masse et après un redémarrage
+        if (chromaDBService.getDocumentsByUserAndDocId(userId.toString(), docId).isEmpty()) {
             throw new IllegalArgumentException(
                 "Document non trouvé ou n'appartient pas à cet utilisateur"
             );
         }
 
         chromaDBService.deleteDocumentsByMetadata("docId", docId);
-
-        userDocs.remove(docId);
     }
 
     public List<Map<String, Object>> getUserDocuments(Long userId) {
         return chromaDBService.getDocumentsByUser(userId.toString());
     }
 
-    public void cleanup() {
-        executorService.shutdown();
-        try {
-            if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
-                executorService.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            executorService.shutdownNow();
+    @SuppressWarnings("unchecked")
+    private static String aliasFilenames(Map<String, Object> result) {
+        List<Map<String, Object>> aliases = (List<Map<String, Object>>) result.get("aliases");
+        if (aliases == null) {
+            return "";
         }
+        return aliases.stream()
+            .map(alias -> (Map<String, Object>) alias.get("metadata"))
+            .map(metadata -> metadata == null ? null : (String) metadata.get("filename"))
+            .filter(Objects::nonNull)
+            .distinct()
+            .collect(Collectors.joining("\n"));
     }
 
     private static class ChromaDBEmbeddingStore implements EmbeddingStore<TextSegment> {
@@ -240,16 +364,7 @@ public class LangChainRAGService {
 
         @Override
         public String add(Embedding embedding, TextSegment segment) {
-            String id = UUID.randomUUID().toString();
-            List<Double> vector = embedding.vectorAsList().stream()
-                    .map(Float::doubleValue)
-                    .collect(Collectors.toList());
-            
-            Map<String, Object> meta = new HashMap<>();
-            segment.metadata().asMap().forEach(meta::put);
-            
-            chromaDB.addDocument(id, segment.text(), vector, meta);
-            return id;
+            return addAll(List.of(embedding), List.of(segment)).get(0);
         }
 
         @Override
@@ -281,27 +396,49 @@ public class LangChainRAGService {
                 );
             }
             
-            List<String> ids = new ArrayList<>();
-            for (int i = 0; i < embeddings.size(); i++) {
-                ids.add(add(embeddings.get(i), segments.get(i)));
+            int size = embeddings.size();
+            // Un UUID par lot, suffixé par la position : ids uniques sans tirage aléatoire par chunk
+            String batchId = UUID.randomUUID().toString();
+            List<String> ids = new ArrayList<>(size);
+            List<String> contents = new ArrayList<>(size);
+            List<EmbeddingVector> vectors = new ArrayList<>(size);
+            List<Map<String, Object>> metadatas = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                TextSegment segment = segments.get(i);
+                ids.add(batchId + "_" + i);
+                contents.add(segment.text());
+                // Embedding.vector() rend le float[] LangChain tel quel : aucune copie ni boxing
+                vectors.add(EmbeddingVector.of(embeddings.get(i).vector()));
+                // toMap() rend déjà une copie modifiable, gardée telle quelle par le store
+                metadatas.add(segment.metadata().toMap());
             }
+            chromaDB.addDocuments(ids, contents, vectors, metadatas);
             return ids;
         }
 
         @Override
-        public List<EmbeddingMatch<TextSegment>> findRelevant(
-                Embedding referenceEmbedding, int maxResults, double minScore) {
+        public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
 
-            List<Double> queryVector = referenceEmbedding.vectorAsList().stream()
-                    .map(Float::doubleValue)
-                    .collect(Collectors.toList());
+            EmbeddingVector queryVector = EmbeddingVector.of(request.queryEmbedding().vector());
 
-            List<Map<String, Object>> results = chromaDB.queryDocuments(
-                queryVector, 
-                maxResults
-            );
+            Filter filter = request.filter();
+            List<Map<String, Object>> results;
+            if (filter instanceof IsEqualTo equalTo && "userId".equals(equalTo.key())) {
+                results = chromaDB.queryDocuments(
+                    queryVector,
+                    request.maxResults(),
+                    String.valueOf(equalTo.comparisonValue())
+                );
+                filter = null;
+            } else {
+                results = chromaDB.queryDocuments(
+                    queryVector, 
+                    request.maxResults()
+                );
+            }
 
-            return results.stream()
+            Filter postFilter = filter;
+            List<EmbeddingMatch<TextSegment>> matches = results.stream()
                     .map(r -> {
                         String text = (String) r.get("content");
                         Double distance = (Double) r.get("distance");
@@ -314,6 +451,10 @@ public class LangChainRAGService {
                                                 Map.Entry::getKey,
                                                 e -> String.valueOf(e.getValue())
                                         ));
+                        String aliasFilenames = aliasFilenames(r);
+                        if (!aliasFilenames.isEmpty()) {
+                            meta.put(ALIAS_FILENAMES, aliasFilenames);
+                        }
 
                         Metadata metadata = Metadata.from(meta);
                         TextSegment segment = TextSegment.from(text, metadata);
@@ -326,9 +467,22 @@ public class LangChainRAGService {
                                 segment
                         );
                     })
-                    .filter(m -> m.score() >= minScore)
+                    .filter(m -> m.score() >= request.minScore())
+                    .filter(m -> postFilter == null || postFilter.test(m.embedded().metadata()))
                     .sorted((a, b) -> Double.compare(b.score(), a.score()))
                     .collect(Collectors.toList());
+
+            return new EmbeddingSearchResult<>(matches);
+        }
+
+        @Override
+        public List<EmbeddingMatch<TextSegment>> findRelevant(
+                Embedding referenceEmbedding, int maxResults, double minScore) {
+            return search(EmbeddingSearchRequest.builder()
+                    .queryEmbedding(referenceEmbedding)
+                    .maxResults(maxResults)
+                    .minScore(minScore)
+                    .build()).matches();
         }
 
         @Override
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.mql.ia.rag.model.QueryRequest;
 import org.mql.ia.rag.model.QueryResponse;
+import org.mql.ia.rag.store.EmbeddingVector;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
@@ -12,8 +13,10 @@ import reactor.core.publisher.Mono;
 import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class RAGService {
@@ -28,12 +31,15 @@ public class RAGService {
     private final ChromaDBService chromaDBService;
     private final WebClient webClient;
     private final ObjectMapper objectMapper;
+    private final BackendCallGate chatGate;
 
     public RAGService(EmbeddingService embeddingService,
                      ChromaDBService chromaDBService,
-                     WebClient.Builder webClientBuilder) {
+                     WebClient.Builder webClientBuilder,
+                     BackendCallGate chatGate) {
         this.embeddingService = embeddingService;
         this.chromaDBService = chromaDBService;
+        this.chatGate = chatGate;
         this.webClient = webClientBuilder
             .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(16 * 1024 * 1024))
             .build();
@@ -44,7 +50,7 @@ public class RAGService {
         long startTime = System.currentTimeMillis();
         
         try {
-            List<Double> queryEmbedding = embeddingService.generateEmbedding(request.getQuestion());
+            EmbeddingVector queryEmbedding = embeddingService.generateEmbedding(request.getQuestion());
             
             List<Map<String, Object>> results = chromaDBService.queryDocuments(
                 queryEmbedding, 
@@ -102,7 +108,7 @@ public class RAGService {
 
     private String generateAnswerStreaming(String prompt) {
         try {
-            String response = webClient.post()
+            String response = chatGate.call(() -> webClient.post()
                 .uri(lmStudioUrl + "/v1/chat/completions")
                 .bodyValue(Map.of(
                     "model", modelName,
@@ -118,7 +124,7 @@ public class RAGService {
                 .retrieve()
                 .bodyToMono(String.class)
                 .timeout(Duration.ofSeconds(30))
-                .block();
+                .block());
 
             JsonNode node = objectMapper.readTree(response);
             JsonNode choices = node.get("choices");
@@ -139,13 +145,14 @@ public class RAGService {
         }
     }
 
+    /** Fichiers des chunks retenus, y compris ceux de leurs quasi-doublons (aliases). */
+    @SuppressWarnings("unchecked")
     private List<String> extractSources(List<Map<String, Object>> results) {
         return results.stream()
-            .map(r -> {
-                @SuppressWarnings("unchecked")
-                Map<String, Object> metadata = (Map<String, Object>) r.get("metadata");
-                return (String) metadata.get("filename");
-            })
+            .flatMap(r -> Stream.concat(Stream.of(r),
+                ((List<Map<String, Object>>) r.getOrDefault("aliases", List.of())).stream()))
+            .map(r -> (String) ((Map<String, Object>) r.get("metadata")).get("filename"))
+            .filter(Objects::nonNull)
             .distinct()
             .collect(Collectors.toList());
     }
@@ -0,0 +1,82 @@
+package org.mql.ia.rag.store;
+
+import java.util.Arrays;
+
+/**
+ * Tas-max extensible sur des tableaux primitifs : le meilleur candidat
+ * (plus grande similarité) est toujours en tête.
+ */
+final class CandidateHeap {
+
+    private float[] scores;
+    private int[] nodes;
+    private int size;
+
+    CandidateHeap(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 8);
+        this.scores = new float[capacity];
+        this.nodes = new int[capacity];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    float peekScore() {
+        return scores[0];
+    }
+
+    int peekNode() {
+        return nodes[0];
+    }
+
+    void push(int node, float score) {
+        if (size == scores.length) {
+            scores = Arrays.copyOf(scores, size * 2);
+            nodes = Arrays.copyOf(nodes, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (scores[parent] >= score) {
+                break;
+            }
+            scores[i] = scores[parent];
+            nodes[i] = nodes[parent];
+            i = parent;
+        }
+        scores[i] = score;
+        nodes[i] = node;
+    }
+
+    /** Retire la tête ; à appeler après peekNode()/peekScore(). */
+    void pop() {
+        int last = --size;
+        if (last == 0) {
+            return;
+        }
+        float score = scores[last];
+        int node = nodes[last];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && scores[right] > scores[child]) {
+                child = right;
+            }
+            if (score >= scores[child]) {
+                break;
+            }
+            scores[i] = scores[child];
+            nodes[i] = nodes[child];
+            i = child;
+        }
+        scores[i] = score;
+        nodes[i] = node;
+    }
+}
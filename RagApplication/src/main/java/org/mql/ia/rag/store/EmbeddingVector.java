@@ -0,0 +1,32 @@
+package org.mql.ia.rag.store;
+
+/**
+ * Vecteur d'embedding float32, du client d'embeddings jusqu'au store et à
+ * la recherche. Enveloppe le tableau sans le copier : ni le producteur ni
+ * les lecteurs de values() ne doivent le modifier ensuite (le même tableau
+ * peut aussi être partagé avec le cache d'embeddings et un Embedding LangChain).
+ */
+public final class EmbeddingVector {
+
+    private final float[] values;
+
+    private EmbeddingVector(float[] values) {
+        this.values = values;
+    }
+
+    public static EmbeddingVector of(float[] values) {
+        if (values == null || values.length == 0) {
+            throw new IllegalArgumentException("Vecteur d'embedding vide");
+        }
+        return new EmbeddingVector(values);
+    }
+
+    /** Tableau sous-jacent, en lecture seule. */
+    public float[] values() {
+        return values;
+    }
+
+    public int dimension() {
+        return values.length;
+    }
+}
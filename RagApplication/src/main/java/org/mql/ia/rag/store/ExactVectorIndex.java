@@ -0,0 +1,279 @@
+package org.mql.ia.rag.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Recherche exacte : les vecteurs sont normalisés à l'insertion et rangés
+ * ligne par ligne dans le stockage (matrice float[] contiguë ou segments
+ * mappés), le scan calcule un produit scalaire par ligne vivante et garde
+ * le top-K dans un tas-min borné.
+ *
+ * Avec un pool fork/join, le scan est découpé en segments d'au moins
+ * minSegmentRows lignes : chaque worker garde son propre top-K et les tas
+ * sont fusionnés en remontant. Les petites partitions restent séquentielles.
+ */
+public class ExactVectorIndex implements VectorIndex {
+
+    private static final int MIN_DELETED_BEFORE_COMPACTION = 1024;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> rowById = new HashMap<>();
+    private final BitSet live = new BitSet();
+
+    private VectorStorage storage;
+    private String[] ids = new String[256];
+    private int deletedCount;
+
+    private final ForkJoinPool pool;
+    private final int minSegmentRows;
+
+    public ExactVectorIndex(VectorStorage storage) {
+        this(storage, null, Integer.MAX_VALUE);
+    }
+
+    public ExactVectorIndex(VectorStorage storage, ForkJoinPool pool, int minSegmentRows) {
+        this.storage = storage;
+        this.pool = pool;
+        this.minSegmentRows = Math.max(1, minSegmentRows);
+    }
+
+    @Override
+    public int add(String id, float[] vector) {
+        lock.writeLock().lock();
+        try {
+            int row = storage.append(Vectors.normalizedCopy(vector));
+            attachRow(id, row);
+            compactIfNeeded();
+            return rowById.get(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void attach(String id, int row) {
+        lock.writeLock().lock();
+        try {
+            if (row >= storage.rows()) {
+                throw new IllegalArgumentException("Ligne absente du stockage: " + row);
+            }
+            attachRow(id, row);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Integer row = rowById.remove(id);
+            if (row == null) {
+                return false;
+            }
+            kill(row);
+            compactIfNeeded();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean rename(String from, String to) {
+        lock.writeLock().lock();
+        try {
+            Integer row = rowById.remove(from);
+            if (row == null) {
+                return false;
+            }
+            attachRow(to, row);
+            compactIfNeeded();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int rowOf(String id) {
+        lock.readLock().lock();
+        try {
+            Integer row = rowById.get(id);
+            return row == null ? -1 : row;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public float[] vector(String id) {
+        lock.readLock().lock();
+        try {
+            Integer row = rowById.get(id);
+            if (row == null) {
+                return null;
+            }
+            float[] vector = new float[storage.dimension()];
+            storage.read(row, vector);
+            return vector;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<SearchHit> search(float[] query, int topK) {
+        lock.readLock().lock();
+        try {
+            int liveRows = rowById.size();
+            if (liveRows == 0 || topK <= 0) {
+                return List.of();
+            }
+            if (query.length != storage.dimension()) {
+                throw new IllegalArgumentException(
+                    "Dimension invalide: " + query.length + " (attendu " + storage.dimension() + ")"
+                );
+            }
+
+            float[] q = Vectors.normalizedCopy(query);
+            int k = Math.min(topK, liveRows);
+            int rows = storage.rows();
+            TopKHeap heap = pool != null && rows > minSegmentRows
+                ? pool.invoke(new ScanTask(q, k, 0, rows))
+                : scan(q, k, 0, rows);
+
+            int[] bestRows = new int[heap.size()];
+            float[] bestScores = new float[heap.size()];
+            int n = heap.drainDescending(bestRows, bestScores);
+
+            List<SearchHit> hits = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                hits.add(new SearchHit(ids[bestRows[i]], bestScores[i]));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rowById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int storedRows() {
+        lock.readLock().lock();
+        try {
+            return storage.rows();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void flush() {
+        lock.readLock().lock();
+        try {
+            storage.force();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private TopKHeap scan(float[] q, int k, int from, int to) {
+        TopKHeap heap = new TopKHeap(k);
+        for (int row = live.nextSetBit(from); row >= 0 && row < to; row = live.nextSetBit(row + 1)) {
+            heap.offer(row, storage.dot(row, q));
+        }
+        return heap;
+    }
+
+    /** Segment [from, to) du scan ; exécuté sous le verrou de lecture pris par search. */
+    private final class ScanTask extends RecursiveTask<TopKHeap> {
+
+        private final float[] q;
+        private final int k;
+        private final int from;
+        private final int to;
+
+        ScanTask(float[] q, int k, int from, int to) {
+            this.q = q;
+            this.k = k;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TopKHeap compute() {
+            if (to - from <= minSegmentRows) {
+                return scan(q, k, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            ScanTask left = new ScanTask(q, k, from, middle);
+            left.fork();
+            TopKHeap heap = new ScanTask(q, k, middle, to).compute();
+            heap.merge(left.join());
+            return heap;
+        }
+    }
+
+    private void attachRow(String id, int row) {
+        Integer previous = rowById.put(id, row);
+        if (previous != null && previous != row) {
+            kill(previous);
+        }
+        if (row >= ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(row + 1, ids.length * 2));
+        }
+        ids[row] = id;
+        live.set(row);
+    }
+
+    private void kill(int row) {
+        if (live.get(row)) {
+            live.clear(row);
+            ids[row] = null;
+            deletedCount++;
+        }
+    }
+
+    /** Réécrit les lignes vivantes dans un stockage neuf (impossible en ajout seul). */
+    private void compactIfNeeded() {
+        if (deletedCount < MIN_DELETED_BEFORE_COMPACTION || deletedCount < rowById.size()) {
+            return;
+        }
+        VectorStorage compacted = storage.emptyCopy();
+        if (compacted == null) {
+            return;
+        }
+
+        float[] vector = new float[storage.dimension()];
+        String[] newIds = new String[Math.max(256, rowById.size())];
+        live.clear();
+        for (Map.Entry<String, Integer> entry : rowById.entrySet()) {
+            storage.read(entry.getValue(), vector);
+            int row = compacted.append(vector);
+            newIds[row] = entry.getKey();
+            entry.setValue(row);
+            live.set(row);
+        }
+        storage = compacted;
+        ids = newIds;
+        deletedCount = 0;
+    }
+}
@@ -0,0 +1,40 @@
+package org.mql.ia.rag.store;
+
+/**
+ * Listes d'adjacence d'un graphe HNSW, adressées par nœud (= ligne du
+ * stockage des vecteurs). Un nœud n'est relié au graphe qu'une fois link()
+ * appelé : un nœud alloué mais pas relié (insertion interrompue) est inséré
+ * de nouveau.
+ */
+public interface GraphStorage {
+
+    /** Niveau du nœud, -1 s'il n'est pas relié au graphe. */
+    int level(int node);
+
+    /** Prépare des listes vides du niveau 0 au niveau level. */
+    void allocate(int node, int level);
+
+    /** Marque le nœud comme relié (ses listes sont complètes). */
+    void link(int node);
+
+    /** Copie les voisins dans destination et retourne leur nombre. */
+    int neighbors(int node, int level, int[] destination);
+
+    void setNeighbors(int node, int level, int[] neighbors, int count);
+
+    /** Nombre de nœuds reliés. */
+    int size();
+
+    /** Nœud d'entrée (niveau le plus haut), -1 si le graphe est vide. */
+    int entryPoint();
+
+    int maxLevel();
+
+    void setEntryPoint(int node, int level);
+
+    /** Vide le graphe avant une reconstruction. */
+    void clear();
+
+    /** Écrit les pages modifiées sur disque (sans effet en mémoire). */
+    void force();
+}
@@ -0,0 +1,96 @@
+package org.mql.ia.rag.store;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/** Graphe HNSW sur le tas : reconstruit à chaque démarrage (modes memory et wal). */
+public class HeapGraphStorage implements GraphStorage {
+
+    private final int m;
+    // links[node][level] : links[..][..][0] = nombre de voisins, puis les voisins
+    private int[][][] links = new int[256][][];
+    private final BitSet linked = new BitSet();
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HeapGraphStorage(int m) {
+        this.m = m;
+    }
+
+    @Override
+    public int level(int node) {
+        return linked.get(node) ? links[node].length - 1 : -1;
+    }
+
+    @Override
+    public void allocate(int node, int level) {
+        if (node >= links.length) {
+            links = Arrays.copyOf(links, Math.max(node + 1, links.length * 2));
+        }
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[node][l] = new int[(l == 0 ? 2 * m : m) + 1];
+        }
+        if (linked.get(node)) {
+            linked.clear(node);
+            size--;
+        }
+    }
+
+    @Override
+    public void link(int node) {
+        if (!linked.get(node)) {
+            linked.set(node);
+            size++;
+        }
+    }
+
+    @Override
+    public int neighbors(int node, int level, int[] destination) {
+        int[] list = links[node][level];
+        System.arraycopy(list, 1, destination, 0, list[0]);
+        return list[0];
+    }
+
+    @Override
+    public void setNeighbors(int node, int level, int[] neighbors, int count) {
+        int[] list = links[node][level];
+        list[0] = count;
+        System.arraycopy(neighbors, 0, list, 1, count);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int entryPoint() {
+        return entryPoint;
+    }
+
+    @Override
+    public int maxLevel() {
+        return maxLevel;
+    }
+
+    @Override
+    public void setEntryPoint(int node, int level) {
+        entryPoint = node;
+        maxLevel = level;
+    }
+
+    @Override
+    public void clear() {
+        links = new int[256][][];
+        linked.clear();
+        size = 0;
+        entryPoint = -1;
+        maxLevel = -1;
+    }
+
+    @Override
+    public void force() {
+    }
+}
@@ -0,0 +1,66 @@
+package org.mql.ia.rag.store;
+
+import java.util.Arrays;
+
+/**
+ * Stockage en mémoire : une seule matrice float[] rangée ligne par ligne.
+ */
+public class HeapVectorStorage implements VectorStorage {
+
+    private static final int INITIAL_ROWS = 256;
+
+    private float[] matrix = new float[0];
+    private int dimension = -1;
+    private int rows;
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public int append(float[] vector) {
+        if (dimension < 0) {
+            dimension = vector.length;
+            matrix = new float[INITIAL_ROWS * dimension];
+        } else if (vector.length != dimension) {
+            throw new IllegalArgumentException(
+                "Dimension invalide: " + vector.length + " (attendu " + dimension + ")"
+            );
+        }
+        if ((rows + 1) * dimension > matrix.length) {
+            matrix = Arrays.copyOf(matrix, Math.max(matrix.length * 2, (rows + 1) * dimension));
+        }
+        System.arraycopy(vector, 0, matrix, rows * dimension, dimension);
+        return rows++;
+    }
+
+    @Override
+    public float dot(int row, float[] query) {
+        return VectorKernels.dot(matrix, row * dimension, query, 0, dimension);
+    }
+
+    @Override
+    public float dot(int rowA, int rowB) {
+        return VectorKernels.dot(matrix, rowA * dimension, matrix, rowB * dimension, dimension);
+    }
+
+    @Override
+    public void read(int row, float[] destination) {
+        System.arraycopy(matrix, row * dimension, destination, 0, dimension);
+    }
+
+    @Override
+    public void force() {
+    }
+
+    @Override
+    public VectorStorage emptyCopy() {
+        return new HeapVectorStorage();
+    }
+}
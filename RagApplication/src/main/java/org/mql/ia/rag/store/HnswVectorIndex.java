@@ -0,0 +1,483 @@
+package org.mql.ia.rag.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index HNSW (Hierarchical Navigable Small World) dans l'espace cosinus
+ * comme la collection ChromaDB (hnsw:space=cosine) : les vecteurs sont
+ * normalisés et la similarité est le produit scalaire.
+ *
+ * Les suppressions posent une pierre tombale : le nœud reste navigable mais
+ * n'est plus jamais retourné. Le graphe est reconstruit quand les nœuds
+ * supprimés deviennent majoritaires.
+ *
+ * Les listes d'adjacence sont dans un GraphStorage : en mode mmap elles sont
+ * dans des fichiers mappés, et attach() d'une ligne déjà reliée au graphe
+ * ne fait que rattacher l'identifiant, sans réinsertion.
+ */
+public class HnswVectorIndex implements VectorIndex {
+
+    private static final int MIN_DELETED_BEFORE_REBUILD = 1024;
+
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final int efSearch;
+    private final double levelMultiplier;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> nodeById = new HashMap<>();
+
+    // Un nœud du graphe est une ligne du stockage ; ids[node] == null : nœud supprimé
+    // (ou relié au graphe avant un redémarrage et pas encore rattaché)
+    private VectorStorage storage;
+    private final GraphStorage graph;
+    private String[] ids = new String[256];
+    private final ThreadLocal<int[]> neighborBuffer;
+
+    public HnswVectorIndex(VectorStorage storage, int m, int efConstruction, int efSearch) {
+        this(storage, new HeapGraphStorage(m), m, efConstruction, efSearch);
+    }
+
+    public HnswVectorIndex(VectorStorage storage, GraphStorage graph, int m, int efConstruction, int efSearch) {
+        if (m < 2) {
+            throw new IllegalArgumentException("M doit être >= 2");
+        }
+        this.storage = storage;
+        this.graph = graph;
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.efSearch = Math.max(efSearch, 1);
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.neighborBuffer = ThreadLocal.withInitial(() -> new int[maxM0]);
+    }
+
+    @Override
+    public int add(String id, float[] vector) {
+        lock.writeLock().lock();
+        try {
+            float[] q = Vectors.normalizedCopy(vector);
+            int node = storage.append(q);
+            bind(id, node);
+            insert(node, q);
+            rebuildIfNeeded();
+            return nodeById.get(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void attach(String id, int row) {
+        lock.writeLock().lock();
+        try {
+            if (row >= storage.rows()) {
+                throw new IllegalArgumentException("Ligne absente du stockage: " + row);
+            }
+            bind(id, row);
+            if (graph.level(row) < 0) {
+                float[] q = new float[storage.dimension()];
+                storage.read(row, q);
+                insert(row, q);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Integer node = nodeById.remove(id);
+            if (node == null) {
+                return false;
+            }
+            markDeleted(node);
+            rebuildIfNeeded();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean rename(String from, String to) {
+        lock.writeLock().lock();
+        try {
+            Integer node = nodeById.remove(from);
+            if (node == null) {
+                return false;
+            }
+            bind(to, node);
+            rebuildIfNeeded();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int rowOf(String id) {
+        lock.readLock().lock();
+        try {
+            Integer row = nodeById.get(id);
+            return row == null ? -1 : row;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public float[] vector(String id) {
+        lock.readLock().lock();
+        try {
+            Integer row = nodeById.get(id);
+            if (row == null) {
+                return null;
+            }
+            float[] vector = new float[storage.dimension()];
+            storage.read(row, vector);
+            return vector;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<SearchHit> search(float[] query, int topK) {
+        lock.readLock().lock();
+        try {
+            if (nodeById.isEmpty() || topK <= 0) {
+                return List.of();
+            }
+            if (query.length != storage.dimension()) {
+                throw new IllegalArgumentException(
+                    "Dimension invalide: " + query.length + " (attendu " + storage.dimension() + ")"
+                );
+            }
+
+            float[] q = Vectors.normalizedCopy(query);
+            int ep = graph.entryPoint();
+            for (int level = graph.maxLevel(); level > 0; level--) {
+                ep = greedyClosest(q, ep, level);
+            }
+
+            TopKHeap found = searchLayer(q, ep, Math.max(efSearch, topK), 0, true);
+            int[] nodes = new int[found.size()];
+            float[] scores = new float[found.size()];
+            int n = Math.min(found.drainDescending(nodes, scores), topK);
+
+            List<SearchHit> hits = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                hits.add(new SearchHit(ids[nodes[i]], scores[i]));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return nodeById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int storedRows() {
+        lock.readLock().lock();
+        try {
+            return storage.rows();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void flush() {
+        lock.readLock().lock();
+        try {
+            storage.force();
+            graph.force();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void bind(String id, int node) {
+        Integer previous = nodeById.put(id, node);
+        if (previous != null && previous != node) {
+            markDeleted(previous);
+        }
+        ensureCapacity(node + 1);
+        ids[node] = id;
+    }
+
+    private void insert(int node, float[] q) {
+        int level = randomLevel();
+        graph.allocate(node, level);
+
+        int entryPoint = graph.entryPoint();
+        int maxLevel = graph.maxLevel();
+        if (entryPoint < 0) {
+            graph.link(node);
+            graph.setEntryPoint(node, level);
+            return;
+        }
+
+        int ep = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            ep = greedyClosest(q, ep, l);
+        }
+
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            TopKHeap found = searchLayer(q, ep, efConstruction, l, false);
+            int[] candidates = new int[found.size()];
+            float[] scores = new float[found.size()];
+            int n = found.drainDescending(candidates, scores);
+
+            int[] selected = selectNeighbors(candidates, scores, n, m);
+            graph.setNeighbors(node, l, selected, selected.length);
+            for (int neighbor : selected) {
+                connect(neighbor, node, l);
+            }
+            ep = candidates[0];
+        }
+
+        graph.link(node);
+        if (level > maxLevel) {
+            graph.setEntryPoint(node, level);
+        }
+    }
+
+    private int greedyClosest(float[] q, int ep, int level) {
+        int current = ep;
+        float currentScore = dot(q, current);
+        int[] neighbors = neighborBuffer.get();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int count = neighbors(current, level, neighbors);
+            for (int i = 0; i < count; i++) {
+                int candidate = neighbors[i];
+                float score = dot(q, candidate);
+                if (score > currentScore) {
+                    current = candidate;
+                    currentScore = score;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    private TopKHeap searchLayer(float[] q, int ep, int ef, int level, boolean liveOnly) {
+        BitSet visited = new BitSet(storage.rows());
+        CandidateHeap candidates = new CandidateHeap(ef);
+        TopKHeap found = new TopKHeap(ef);
+        int[] neighbors = neighborBuffer.get();
+
+        float epScore = dot(q, ep);
+        visited.set(ep);
+        candidates.push(ep, epScore);
+        if (!liveOnly || isLive(ep)) {
+            found.offer(ep, epScore);
+        }
+
+        while (!candidates.isEmpty()) {
+            int current = candidates.peekNode();
+            float currentScore = candidates.peekScore();
+            candidates.pop();
+            if (found.isFull() && currentScore < found.minScore()) {
+                break;
+            }
+
+            int count = neighbors(current, level, neighbors);
+            for (int i = 0; i < count; i++) {
+                int neighbor = neighbors[i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float score = dot(q, neighbor);
+                if (!found.isFull() || score > found.minScore()) {
+                    candidates.push(neighbor, score);
+                    if (!liveOnly || isLive(neighbor)) {
+                        found.offer(neighbor, score);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Heuristique de sélection de voisins (Malkov & Yashunin, alg. 4) :
+     * un candidat n'est gardé que s'il est plus proche de la cible que de
+     * tous les voisins déjà retenus ; les places restantes sont complétées
+     * par les candidats écartés. Les candidats arrivent triés par similarité
+     * décroissante.
+     */
+    private int[] selectNeighbors(int[] candidates, float[] scores, int n, int max) {
+        int[] result = new int[Math.min(n, max)];
+        boolean[] kept = new boolean[n];
+        int r = 0;
+        for (int i = 0; i < n && r < result.length; i++) {
+            int candidate = candidates[i];
+            boolean good = true;
+            for (int j = 0; j < r; j++) {
+                if (dot(candidate, result[j]) > scores[i]) {
+                    good = false;
+                    break;
+                }
+            }
+            if (good) {
+                result[r++] = candidate;
+                kept[i] = true;
+            }
+        }
+        for (int i = 0; i < n && r < result.length; i++) {
+            if (!kept[i]) {
+                result[r++] = candidates[i];
+            }
+        }
+        return result;
+    }
+
+    private void connect(int node, int newNeighbor, int level) {
+        int max = maxLinks(level);
+        int[] candidates = new int[max + 1];
+        int size = neighbors(node, level, candidates);
+        for (int i = 0; i < size; i++) {
+            if (candidates[i] == newNeighbor) {
+                return;
+            }
+        }
+        candidates[size] = newNeighbor;
+        if (size < max) {
+            graph.setNeighbors(node, level, candidates, size + 1);
+            return;
+        }
+
+        float[] scores = new float[size + 1];
+        for (int i = 0; i <= size; i++) {
+            scores[i] = dot(node, candidates[i]);
+        }
+        sortDescending(candidates, scores);
+
+        int[] selected = selectNeighbors(candidates, scores, candidates.length, max);
+        graph.setNeighbors(node, level, selected, selected.length);
+    }
+
+    /**
+     * Voisins du nœud, sans les lignes absentes du stockage (graphe écrit
+     * sur disque avant les vecteurs lors d'un arrêt brutal) ni le nœud lui-même.
+     */
+    private int neighbors(int node, int level, int[] destination) {
+        int count = graph.neighbors(node, level, destination);
+        int rows = storage.rows();
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int neighbor = destination[i];
+            if (neighbor >= 0 && neighbor < rows && neighbor != node) {
+                destination[kept++] = neighbor;
+            }
+        }
+        return kept;
+    }
+
+    private boolean isLive(int node) {
+        return node < ids.length && ids[node] != null;
+    }
+
+    private void markDeleted(int node) {
+        ids[node] = null;
+    }
+
+    private int deletedCount() {
+        return graph.size() - nodeById.size();
+    }
+
+    /**
+     * Reconstruit le graphe sur les seuls nœuds vivants ; en mémoire, les
+     * vecteurs vivants sont aussi recopiés dans un stockage compact.
+     */
+    private void rebuildIfNeeded() {
+        int deletedCount = deletedCount();
+        if (deletedCount < MIN_DELETED_BEFORE_REBUILD || deletedCount < nodeById.size()) {
+            return;
+        }
+
+        Map<String, Integer> liveNodes = new HashMap<>(nodeById);
+        VectorStorage target = storage.emptyCopy();
+        float[] vector = new float[storage.dimension()];
+
+        VectorStorage source = storage;
+        if (target != null) {
+            storage = target;
+        }
+        ids = new String[Math.max(256, ids.length)];
+        nodeById.clear();
+        graph.clear();
+
+        for (Map.Entry<String, Integer> entry : liveNodes.entrySet()) {
+            source.read(entry.getValue(), vector);
+            int node = target != null ? target.append(vector) : entry.getValue();
+            bind(entry.getKey(), node);
+            insert(node, vector);
+        }
+    }
+
+    private int randomLevel() {
+        double r = random.nextDouble();
+        return (int) (-Math.log(1.0 - r) * levelMultiplier);
+    }
+
+    private int maxLinks(int level) {
+        return level == 0 ? maxM0 : m;
+    }
+
+    private void ensureCapacity(int requiredNodes) {
+        if (requiredNodes <= ids.length) {
+            return;
+        }
+        ids = Arrays.copyOf(ids, Math.max(requiredNodes, ids.length * 2));
+    }
+
+    private float dot(float[] q, int node) {
+        return storage.dot(node, q);
+    }
+
+    private float dot(int a, int b) {
+        return storage.dot(a, b);
+    }
+
+    private static void sortDescending(int[] nodes, float[] scores) {
+        for (int i = 1; i < nodes.length; i++) {
+            int node = nodes[i];
+            float score = scores[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < score) {
+                nodes[j + 1] = nodes[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            nodes[j + 1] = node;
+            scores[j + 1] = score;
+        }
+    }
+}
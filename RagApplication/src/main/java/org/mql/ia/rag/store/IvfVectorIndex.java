@@ -0,0 +1,515 @@
+package org.mql.ia.rag.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index IVF (fichier inversé) : des centroïdes k-means partitionnent les
+ * vecteurs en listes, une requête ne parcourt que les nprobe listes dont le
+ * centroïde est le plus proche. Beaucoup moins gourmand en mémoire qu'un
+ * graphe HNSW (une ligne = un entier dans une liste).
+ *
+ * Tant que l'index n'a pas été entraîné, la recherche est un scan exact.
+ * L'entraînement tourne sur l'exécuteur fourni dès minTrainSize vecteurs, puis
+ * à chaque fois que le corpus a grossi de retrainGrowth depuis le dernier :
+ * k-means sur un échantillon sans verrou, affectation par lots sous verrou de
+ * lecture, puis bascule courte sous verrou d'écriture. Les ajouts et les
+ * requêtes ne sont donc jamais bloqués pendant le calcul.
+ */
+public class IvfVectorIndex implements VectorIndex {
+
+    private static final int MIN_DELETED_BEFORE_COMPACTION = 1024;
+    private static final int KMEANS_ITERATIONS = 10;
+    private static final int SAMPLE_PER_LIST = 256;
+    private static final int ASSIGN_BATCH_ROWS = 4096;
+
+    private final int configuredLists;
+    private final int nprobe;
+    private final int minTrainSize;
+    private final double retrainGrowth;
+    private final Executor trainer;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> rowById = new HashMap<>();
+    private final BitSet live = new BitSet();
+    private final AtomicBoolean training = new AtomicBoolean();
+
+    private VectorStorage storage;
+    private String[] ids = new String[256];
+    private int deletedCount;
+
+    // null tant que l'index n'est pas entraîné
+    private float[][] centroids;
+    private int[][] lists;
+    private int[] listSizes;
+    private int trainedSize;
+    private int generation;
+    private long trainings;
+
+    public IvfVectorIndex(VectorStorage storage, int lists, int nprobe,
+                          int minTrainSize, double retrainGrowth, Executor trainer) {
+        this.storage = storage;
+        this.configuredLists = lists;
+        this.nprobe = Math.max(1, nprobe);
+        this.minTrainSize = Math.max(1, minTrainSize);
+        this.retrainGrowth = Math.max(1.0, retrainGrowth);
+        this.trainer = trainer;
+    }
+
+    @Override
+    public int add(String id, float[] vector) {
+        int row;
+        lock.writeLock().lock();
+        try {
+            attachRow(id, storage.append(Vectors.normalizedCopy(vector)));
+            compactIfNeeded();
+            row = rowById.get(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        scheduleTrainingIfNeeded();
+        return row;
+    }
+
+    @Override
+    public void attach(String id, int row) {
+        lock.writeLock().lock();
+        try {
+            if (row >= storage.rows()) {
+                throw new IllegalArgumentException("Ligne absente du stockage: " + row);
+            }
+            attachRow(id, row);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        scheduleTrainingIfNeeded();
+    }
+
+    @Override
+    public boolean remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Integer row = rowById.remove(id);
+            if (row == null) {
+                return false;
+            }
+            kill(row);
+            compactIfNeeded();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean rename(String from, String to) {
+        lock.writeLock().lock();
+        try {
+            Integer row = rowById.remove(from);
+            if (row == null) {
+                return false;
+            }
+            attachRow(to, row);
+            compactIfNeeded();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int rowOf(String id) {
+        lock.readLock().lock();
+        try {
+            Integer row = rowById.get(id);
+            return row == null ? -1 : row;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public float[] vector(String id) {
+        lock.readLock().lock();
+        try {
+            Integer row = rowById.get(id);
+            if (row == null) {
+                return null;
+            }
+            float[] vector = new float[storage.dimension()];
+            storage.read(row, vector);
+            return vector;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<SearchHit> search(float[] query, int topK) {
+        lock.readLock().lock();
+        try {
+            int liveRows = rowById.size();
+            if (liveRows == 0 || topK <= 0) {
+                return List.of();
+            }
+            if (query.length != storage.dimension()) {
+                throw new IllegalArgumentException(
+                    "Dimension invalide: " + query.length + " (attendu " + storage.dimension() + ")"
+                );
+            }
+
+            float[] q = Vectors.normalizedCopy(query);
+            TopKHeap heap = new TopKHeap(Math.min(topK, liveRows));
+
+            if (centroids == null) {
+                for (int row = live.nextSetBit(0); row >= 0; row = live.nextSetBit(row + 1)) {
+                    heap.offer(row, storage.dot(row, q));
+                }
+            } else {
+                TopKHeap closest = new TopKHeap(Math.min(nprobe, centroids.length));
+                for (int c = 0; c < centroids.length; c++) {
+                    closest.offer(c, dot(centroids[c], q));
+                }
+                int[] probes = new int[closest.size()];
+                int probeCount = closest.drainDescending(probes, new float[closest.size()]);
+                for (int p = 0; p < probeCount; p++) {
+                    int[] list = lists[probes[p]];
+                    for (int i = 0, n = listSizes[probes[p]]; i < n; i++) {
+                        int row = list[i];
+                        if (live.get(row)) {
+                            heap.offer(row, storage.dot(row, q));
+                        }
+                    }
+                }
+            }
+
+            int[] bestRows = new int[heap.size()];
+            float[] bestScores = new float[heap.size()];
+            int n = heap.drainDescending(bestRows, bestScores);
+
+            List<SearchHit> hits = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                hits.add(new SearchHit(ids[bestRows[i]], bestScores[i]));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rowById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int storedRows() {
+        lock.readLock().lock();
+        try {
+            return storage.rows();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void flush() {
+        lock.readLock().lock();
+        try {
+            storage.force();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        lock.readLock().lock();
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("ivfLists", centroids == null ? 0 : centroids.length);
+            stats.put("ivfTrainedRows", trainedSize);
+            stats.put("ivfTrainings", trainings);
+            return stats;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void scheduleTrainingIfNeeded() {
+        lock.readLock().lock();
+        try {
+            int liveRows = rowById.size();
+            if (liveRows < minTrainSize || (centroids != null && liveRows < trainedSize * retrainGrowth)) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (!training.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            trainer.execute(() -> {
+                try {
+                    train();
+                } catch (RuntimeException e) {
+                    System.err.println("Entraînement IVF échoué: " + e.getMessage());
+                } finally {
+                    training.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            training.set(false);
+        }
+    }
+
+    private void train() {
+        int startGeneration;
+        int rowsAtStart;
+        int k;
+        float[][] sample;
+
+        // 1. Échantillon (réservoir) des lignes vivantes
+        lock.readLock().lock();
+        try {
+            startGeneration = generation;
+            rowsAtStart = storage.rows();
+            int liveRows = rowById.size();
+            if (liveRows == 0) {
+                return;
+            }
+            k = configuredLists > 0 ? configuredLists : (int) Math.sqrt(liveRows);
+            k = Math.max(1, Math.min(k, liveRows));
+            int sampleSize = (int) Math.min(liveRows, (long) k * SAMPLE_PER_LIST);
+
+            SplittableRandom random = new SplittableRandom(42);
+            int[] sampleRows = new int[sampleSize];
+            int seen = 0;
+            for (int row = live.nextSetBit(0); row >= 0; row = live.nextSetBit(row + 1)) {
+                if (seen < sampleSize) {
+                    sampleRows[seen] = row;
+                } else {
+                    int slot = random.nextInt(seen + 1);
+                    if (slot < sampleSize) {
+                        sampleRows[slot] = row;
+                    }
+                }
+                seen++;
+            }
+            sample = new float[sampleSize][storage.dimension()];
+            for (int i = 0; i < sampleSize; i++) {
+                storage.read(sampleRows[i], sample[i]);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // 2. k-means sphérique, hors verrou
+        float[][] trained = kMeans(sample, k);
+
+        // 3. Affectation des lignes existantes par lots
+        int[] assignment = new int[rowsAtStart];
+        for (int start = 0; start < rowsAtStart; start += ASSIGN_BATCH_ROWS) {
+            lock.readLock().lock();
+            try {
+                if (generation != startGeneration) {
+                    return;
+                }
+                for (int row = start, end = Math.min(rowsAtStart, start + ASSIGN_BATCH_ROWS); row < end; row++) {
+                    assignment[row] = live.get(row) ? nearestCentroid(trained, row) : -1;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        // 4. Bascule : seules les lignes arrivées pendant l'entraînement restent à affecter
+        lock.writeLock().lock();
+        try {
+            if (generation != startGeneration) {
+                return;
+            }
+            centroids = trained;
+            lists = new int[trained.length][16];
+            listSizes = new int[trained.length];
+            for (int row = live.nextSetBit(0); row >= 0; row = live.nextSetBit(row + 1)) {
+                int c = row < rowsAtStart && assignment[row] >= 0 ? assignment[row] : nearestCentroid(trained, row);
+                addToList(c, row);
+            }
+            trainedSize = rowById.size();
+            trainings++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        System.out.println("Index IVF entraîné: " + k + " listes, " + sample.length + " vecteurs échantillonnés");
+    }
+
+    private static float[][] kMeans(float[][] sample, int k) {
+        SplittableRandom random = new SplittableRandom(42);
+        int n = sample.length;
+        int dimension = sample[0].length;
+
+        // Initialisation sur k points distincts de l'échantillon
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        float[][] centers = new float[k][];
+        for (int c = 0; c < k; c++) {
+            int j = c + random.nextInt(n - c);
+            int tmp = order[c];
+            order[c] = order[j];
+            order[j] = tmp;
+            centers[c] = sample[order[c]].clone();
+        }
+
+        int[] assignment = new int[n];
+        Arrays.fill(assignment, -1);
+        for (int iteration = 0; iteration < KMEANS_ITERATIONS; iteration++) {
+            boolean changed = false;
+            for (int i = 0; i < n; i++) {
+                int best = nearest(centers, sample[i]);
+                if (best != assignment[i]) {
+                    assignment[i] = best;
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                break;
+            }
+
+            float[][] sums = new float[k][dimension];
+            int[] counts = new int[k];
+            for (int i = 0; i < n; i++) {
+                float[] sum = sums[assignment[i]];
+                for (int j = 0; j < dimension; j++) {
+                    sum[j] += sample[i][j];
+                }
+                counts[assignment[i]]++;
+            }
+            for (int c = 0; c < k; c++) {
+                if (counts[c] == 0) {
+                    // Liste vide : on la réensemence sur un point au hasard
+                    centers[c] = sample[random.nextInt(n)].clone();
+                } else {
+                    Vectors.normalizeInPlace(sums[c]);
+                    centers[c] = sums[c];
+                }
+            }
+        }
+        return centers;
+    }
+
+    private static int nearest(float[][] centers, float[] vector) {
+        int best = 0;
+        float bestScore = Float.NEGATIVE_INFINITY;
+        for (int c = 0; c < centers.length; c++) {
+            float score = dot(centers[c], vector);
+            if (score > bestScore) {
+                bestScore = score;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private int nearestCentroid(float[][] centers, int row) {
+        int best = 0;
+        float bestScore = Float.NEGATIVE_INFINITY;
+        for (int c = 0; c < centers.length; c++) {
+            float score = storage.dot(row, centers[c]);
+            if (score > bestScore) {
+                bestScore = score;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        return VectorKernels.dot(a, b);
+    }
+
+    private void addToList(int c, int row) {
+        if (listSizes[c] == lists[c].length) {
+            lists[c] = Arrays.copyOf(lists[c], lists[c].length * 2);
+        }
+        lists[c][listSizes[c]++] = row;
+    }
+
+    private void attachRow(String id, int row) {
+        Integer previous = rowById.put(id, row);
+        if (previous != null && previous != row) {
+            kill(previous);
+        }
+        if (row >= ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(row + 1, ids.length * 2));
+        }
+        ids[row] = id;
+        if (!live.get(row)) {
+            live.set(row);
+            if (centroids != null) {
+                addToList(nearestCentroid(centroids, row), row);
+            }
+        }
+    }
+
+    private void kill(int row) {
+        if (live.get(row)) {
+            live.clear(row);
+            ids[row] = null;
+            deletedCount++;
+        }
+    }
+
+    /** Réécrit les lignes vivantes dans un stockage neuf et reconstruit les listes. */
+    private void compactIfNeeded() {
+        if (deletedCount < MIN_DELETED_BEFORE_COMPACTION || deletedCount < rowById.size()) {
+            return;
+        }
+        VectorStorage compacted = storage.emptyCopy();
+        if (compacted == null) {
+            return;
+        }
+
+        float[] vector = new float[storage.dimension()];
+        String[] newIds = new String[Math.max(256, rowById.size())];
+        live.clear();
+        for (Map.Entry<String, Integer> entry : rowById.entrySet()) {
+            storage.read(entry.getValue(), vector);
+            int row = compacted.append(vector);
+            newIds[row] = entry.getKey();
+            entry.setValue(row);
+            live.set(row);
+        }
+        storage = compacted;
+        ids = newIds;
+        deletedCount = 0;
+        // Les numéros de ligne ont changé : un entraînement en cours est abandonné
+        generation++;
+
+        if (centroids != null) {
+            lists = new int[centroids.length][16];
+            listSizes = new int[centroids.length];
+            for (int row = live.nextSetBit(0); row >= 0; row = live.nextSetBit(row + 1)) {
+                addToList(nearestCentroid(centroids, row), row);
+            }
+        }
+    }
+}
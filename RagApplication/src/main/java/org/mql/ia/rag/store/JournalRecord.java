@@ -0,0 +1,157 @@
+package org.mql.ia.rag.store;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Mutation du store telle qu'elle est écrite dans le WAL et les snapshots.
+ * Un ajout porte soit le vecteur lui-même (stockage en mémoire), soit la
+ * ligne du vecteur dans les segments mappés (row >= 0). Un alias (chunk
+ * presque identique à un autre) n'a pas de vecteur : il partage celui de
+ * target.
+ */
+public final class JournalRecord {
+
+    public static final byte PUT = 1;
+    public static final byte DELETE = 2;
+    public static final byte ALIAS = 3;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {};
+
+    private final byte op;
+    private final String id;
+    private final String content;
+    private final Map<String, Object> metadata;
+    private final int row;
+    private final float[] vector;
+    private final String target;
+
+    private JournalRecord(byte op, String id, String content, Map<String, Object> metadata,
+                          int row, float[] vector, String target) {
+        this.op = op;
+        this.id = id;
+        this.content = content;
+        this.metadata = metadata;
+        this.row = row;
+        this.vector = vector;
+        this.target = target;
+    }
+
+    public static JournalRecord put(String id, String content, Map<String, Object> metadata,
+                                    int row, float[] vector) {
+        return new JournalRecord(PUT, id, content, metadata, row, vector, null);
+    }
+
+    public static JournalRecord alias(String id, String content, Map<String, Object> metadata, String target) {
+        return new JournalRecord(ALIAS, id, content, metadata, -1, null, target);
+    }
+
+    public static JournalRecord delete(String id) {
+        return new JournalRecord(DELETE, id, null, null, -1, null, null);
+    }
+
+    public boolean isPut() {
+        return op == PUT;
+    }
+
+    public boolean isAlias() {
+        return op == ALIAS;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public Map<String, Object> getMetadata() {
+        return metadata;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public float[] getVector() {
+        return vector;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(op);
+        writeString(out, id);
+        if (op == DELETE) {
+            return;
+        }
+        writeString(out, content);
+        byte[] json = MAPPER.writeValueAsBytes(metadata == null ? Map.of() : metadata);
+        out.writeInt(json.length);
+        out.write(json);
+        if (op == ALIAS) {
+            writeString(out, target);
+            return;
+        }
+        out.writeInt(row);
+        if (vector == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(vector.length);
+            for (float v : vector) {
+                out.writeFloat(v);
+            }
+        }
+    }
+
+    static JournalRecord readFrom(DataInputStream in) throws IOException {
+        byte op = in.readByte();
+        String id = readString(in);
+        if (op == DELETE) {
+            return delete(id);
+        }
+        if (op != PUT && op != ALIAS) {
+            throw new IOException("Type d'enregistrement inconnu: " + op);
+        }
+        String content = readString(in);
+        byte[] json = new byte[in.readInt()];
+        in.readFully(json);
+        Map<String, Object> metadata = new HashMap<>(MAPPER.readValue(json, METADATA_TYPE));
+        if (op == ALIAS) {
+            return alias(id, content, metadata, readString(in));
+        }
+        int row = in.readInt();
+        int dimension = in.readInt();
+        float[] vector = null;
+        if (dimension >= 0) {
+            vector = new float[dimension];
+            for (int i = 0; i < dimension; i++) {
+                vector[i] = in.readFloat();
+            }
+        }
+        return put(id, content, metadata, row, vector);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,268 @@
+package org.mql.ia.rag.store;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Graphe HNSW dans des fichiers mappés, à côté des segments de vecteurs :
+ * au redémarrage les listes d'adjacence sont remappées telles quelles au
+ * lieu d'être reconstruites.
+ *
+ * graph-NNNNN.lnk : un enregistrement par nœud (état, premier bloc des
+ * niveaux supérieurs, nombre de voisins, 2M voisins) ; upper-NNNNN.lnk :
+ * blocs de M voisins pour les niveaux 1 et plus, alloués à la suite.
+ * L'état vaut 0 (absent), -(niveau+1) (alloué, insertion en cours) ou
+ * niveau+1 (relié). Les fichiers sont créés vides (zéros), si bien qu'un
+ * segment jamais écrit ne contient aucun nœud.
+ */
+public class MappedGraphStorage implements GraphStorage {
+
+    private static final int STATE = 0;
+    private static final int UPPER = 1;
+    private static final int COUNT = 2;
+    private static final int NEIGHBORS = 3;
+
+    private final Path directory;
+    private final int segmentRows;
+    private final int m;
+    private final int nodeStride;
+    private final int upperStride;
+
+    private final List<MappedByteBuffer> nodeFiles = new ArrayList<>();
+    private final List<IntBuffer> nodeSegments = new ArrayList<>();
+    private final List<MappedByteBuffer> upperFiles = new ArrayList<>();
+    private final List<IntBuffer> upperSegments = new ArrayList<>();
+    private int upperBlocks;
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    /**
+     * @param rows lignes présentes dans le stockage des vecteurs : un nœud
+     *             au-delà (vecteur perdu à l'arrêt) est effacé
+     */
+    public MappedGraphStorage(Path directory, int segmentRows, int m, int rows) {
+        this.directory = directory;
+        this.segmentRows = segmentRows;
+        this.m = m;
+        this.nodeStride = NEIGHBORS + 2 * m;
+        this.upperStride = 1 + m;
+        try {
+            Files.createDirectories(directory);
+            for (Path file : files("graph-")) {
+                map(file, nodeStride, nodeFiles, nodeSegments);
+            }
+            for (Path file : files("upper-")) {
+                map(file, upperStride, upperFiles, upperSegments);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ouverture du graphe impossible: " + directory, e);
+        }
+        recover(rows);
+    }
+
+    /** Un seul passage sur les états : nœud d'entrée, taille et blocs supérieurs déjà pris. */
+    private void recover(int rows) {
+        int capacity = nodeSegments.size() * segmentRows;
+        for (int node = 0; node < capacity; node++) {
+            int state = get(node, STATE);
+            if (state == 0) {
+                continue;
+            }
+            if (node >= rows) {
+                put(node, STATE, 0);
+                continue;
+            }
+            int level = Math.abs(state) - 1;
+            if (level > 0) {
+                upperBlocks = Math.max(upperBlocks, get(node, UPPER) + level);
+            }
+            if (state > 0) {
+                size++;
+                if (level > maxLevel) {
+                    entryPoint = node;
+                    maxLevel = level;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int level(int node) {
+        if (node >= nodeSegments.size() * segmentRows) {
+            return -1;
+        }
+        int state = get(node, STATE);
+        return state > 0 ? state - 1 : -1;
+    }
+
+    @Override
+    public void allocate(int node, int level) {
+        while (node >= nodeSegments.size() * segmentRows) {
+            grow("graph-", nodeStride, nodeFiles, nodeSegments);
+        }
+        if (get(node, STATE) > 0) {
+            size--;
+        }
+        int first = upperBlocks;
+        upperBlocks += level;
+        while (upperBlocks > upperSegments.size() * segmentRows) {
+            grow("upper-", upperStride, upperFiles, upperSegments);
+        }
+        for (int l = 1; l <= level; l++) {
+            upper(first + l - 1).put(offset(first + l - 1, upperStride), 0);
+        }
+        put(node, UPPER, first);
+        put(node, COUNT, 0);
+        put(node, STATE, -(level + 1));
+    }
+
+    @Override
+    public void link(int node) {
+        int state = get(node, STATE);
+        if (state < 0) {
+            put(node, STATE, -state);
+            size++;
+        }
+    }
+
+    @Override
+    public int neighbors(int node, int level, int[] destination) {
+        IntBuffer segment;
+        int base;
+        if (level == 0) {
+            segment = nodeSegments.get(node / segmentRows);
+            base = offset(node, nodeStride) + COUNT;
+        } else {
+            int block = get(node, UPPER) + level - 1;
+            segment = upper(block);
+            base = offset(block, upperStride);
+        }
+        int count = segment.get(base);
+        segment.get(base + 1, destination, 0, count);
+        return count;
+    }
+
+    @Override
+    public void setNeighbors(int node, int level, int[] neighbors, int count) {
+        IntBuffer segment;
+        int base;
+        if (level == 0) {
+            segment = nodeSegments.get(node / segmentRows);
+            base = offset(node, nodeStride) + COUNT;
+        } else {
+            int block = get(node, UPPER) + level - 1;
+            segment = upper(block);
+            base = offset(block, upperStride);
+        }
+        segment.put(base + 1, neighbors, 0, count);
+        segment.put(base, count);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int entryPoint() {
+        return entryPoint;
+    }
+
+    @Override
+    public int maxLevel() {
+        return maxLevel;
+    }
+
+    @Override
+    public void setEntryPoint(int node, int level) {
+        entryPoint = node;
+        maxLevel = level;
+    }
+
+    /** Supprime les fichiers ; les nœuds non encore reliés à un redémarrage seront réinsérés. */
+    @Override
+    public void clear() {
+        try {
+            for (Path file : files("")) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Suppression du graphe impossible: " + directory, e);
+        }
+        nodeFiles.clear();
+        nodeSegments.clear();
+        upperFiles.clear();
+        upperSegments.clear();
+        upperBlocks = 0;
+        size = 0;
+        entryPoint = -1;
+        maxLevel = -1;
+    }
+
+    @Override
+    public void force() {
+        for (MappedByteBuffer file : upperFiles) {
+            file.force();
+        }
+        for (MappedByteBuffer file : nodeFiles) {
+            file.force();
+        }
+    }
+
+    private int get(int node, int field) {
+        return nodeSegments.get(node / segmentRows).get(offset(node, nodeStride) + field);
+    }
+
+    private void put(int node, int field, int value) {
+        nodeSegments.get(node / segmentRows).put(offset(node, nodeStride) + field, value);
+    }
+
+    private IntBuffer upper(int block) {
+        return upperSegments.get(block / segmentRows);
+    }
+
+    private int offset(int index, int stride) {
+        return (index % segmentRows) * stride;
+    }
+
+    private void grow(String prefix, int stride, List<MappedByteBuffer> files, List<IntBuffer> segments) {
+        Path file = directory.resolve(String.format("%s%05d.lnk", prefix, segments.size()));
+        try {
+            map(file, stride, files, segments);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Création du segment de graphe impossible: " + file, e);
+        }
+    }
+
+    private void map(Path file, int stride, List<MappedByteBuffer> files, List<IntBuffer> segments)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Un fichier plus court (arrêt pendant sa création) est complété par des zéros
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                (long) segmentRows * stride * Integer.BYTES);
+            files.add(buffer);
+            segments.add(buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer());
+        }
+    }
+
+    private List<Path> files(String prefix) throws IOException {
+        try (Stream<Path> list = Files.list(directory)) {
+            return list.filter(p -> p.getFileName().toString().startsWith(prefix)
+                    && p.getFileName().toString().endsWith(".lnk"))
+                .sorted()
+                .toList();
+        }
+    }
+}
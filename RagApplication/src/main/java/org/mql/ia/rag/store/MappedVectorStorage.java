@@ -0,0 +1,101 @@
+package org.mql.ia.rag.store;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Stockage sur disque : chaque segment est un fichier segment-NNNNN.vec
+ * mappé en mémoire. Les fichiers ne sont qu'étendus en fin ; les requêtes
+ * lisent directement les pages mappées, hors du tas Java. Les lignes mortes
+ * ne sont rendues qu'au démarrage, quand ChromaDBService recopie la partition
+ * dans un répertoire neuf (VectorIndexFactory.createCompacted).
+ */
+public class MappedVectorStorage extends SegmentedVectorStorage {
+
+    private final Path directory;
+
+    public MappedVectorStorage(Path directory, int segmentRows) {
+        super(segmentRows);
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+            List<Path> files;
+            try (Stream<Path> list = Files.list(directory)) {
+                files = list.filter(p -> p.getFileName().toString().endsWith(".vec"))
+                        .sorted()
+                        .toList();
+            }
+            for (int i = 0; i < files.size(); i++) {
+                if (!openSegment(files.get(i)) && i == files.size() - 1) {
+                    // Arrêt entre la création du dernier segment et l'écriture de son en-tête :
+                    // aucune ligne n'y a été rendue durable, il sera recréé au prochain ajout
+                    Files.delete(files.get(i));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ouverture des segments impossible: " + directory, e);
+        }
+    }
+
+    @Override
+    public void force() {
+        for (ByteBuffer segment : segments) {
+            ((MappedByteBuffer) segment).force();
+        }
+    }
+
+    @Override
+    public VectorStorage emptyCopy() {
+        return null;
+    }
+
+    @Override
+    protected ByteBuffer allocateSegment(int index, long bytes) {
+        Path file = directory.resolve(String.format("segment-%05d.vec", index));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Création du segment impossible: " + file, e);
+        }
+    }
+
+    /** Ouvre le segment ; faux si son en-tête n'a jamais été écrit (fichier vide ou rempli de zéros). */
+    private boolean openSegment(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < HEADER_BYTES) {
+                return false;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) == 0) {
+                return false;
+            }
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Segment invalide: " + file);
+            }
+            int fileDimension = buffer.getInt(4);
+            int capacity = buffer.getInt(8);
+            int count = buffer.getInt(COUNT_OFFSET);
+            if (capacity != segmentRows || (dimension >= 0 && fileDimension != dimension)) {
+                throw new IOException("Segment incompatible: " + file);
+            }
+            if (rows != segments.size() * segmentRows) {
+                throw new IOException("Segment incomplet avant " + file);
+            }
+            dimension = fileDimension;
+            register(buffer);
+            rows += count;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.mql.ia.rag.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Stockage en mémoire native (ByteBuffer direct) : les vecteurs pleine
+ * précision ne pèsent pas sur le tas ni sur le GC.
+ */
+public class OffHeapVectorStorage extends SegmentedVectorStorage {
+
+    public OffHeapVectorStorage(int segmentRows) {
+        super(segmentRows);
+    }
+
+    @Override
+    public void force() {
+    }
+
+    @Override
+    public VectorStorage emptyCopy() {
+        return new OffHeapVectorStorage(segmentRows);
+    }
+
+    @Override
+    protected ByteBuffer allocateSegment(int index, long bytes) {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment trop grand: " + bytes + " octets");
+        }
+        return ByteBuffer.allocateDirect((int) bytes);
+    }
+}
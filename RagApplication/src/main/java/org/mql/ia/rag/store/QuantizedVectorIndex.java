@@ -0,0 +1,342 @@
+package org.mql.ia.rag.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Recherche exacte sur vecteurs quantifiés en int8 : chaque vecteur normalisé
+ * est codé sur un octet par composante avec une échelle et un décalage propres.
+ * Le scan parcourt les codes (4x moins de mémoire que des float) puis les
+ * rerankFactor x topK meilleurs candidats sont reclassés avec les vecteurs
+ * pleine précision, gardés hors du tas (mémoire native ou segments mappés).
+ *
+ * Une requête sur recallSampleInterval est aussi résolue en force brute pour
+ * mesurer le rappel effectif de la quantification.
+ */
+public class QuantizedVectorIndex implements VectorIndex {
+
+    private static final int MIN_DELETED_BEFORE_COMPACTION = 1024;
+
+    private final int rerankFactor;
+    private final int recallSampleInterval;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> rowById = new HashMap<>();
+    private final BitSet live = new BitSet();
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong recallFound = new AtomicLong();
+    private final AtomicLong recallExpected = new AtomicLong();
+
+    private VectorStorage storage;
+    private String[] ids = new String[256];
+    private byte[] codes = new byte[0];
+    private float[] scales = new float[256];
+    private float[] offsets = new float[256];
+    private int deletedCount;
+
+    public QuantizedVectorIndex(VectorStorage storage, int rerankFactor, int recallSampleInterval) {
+        this.storage = storage;
+        this.rerankFactor = Math.max(1, rerankFactor);
+        this.recallSampleInterval = recallSampleInterval;
+    }
+
+    @Override
+    public int add(String id, float[] vector) {
+        lock.writeLock().lock();
+        try {
+            float[] normalized = Vectors.normalizedCopy(vector);
+            int row = storage.append(normalized);
+            attachRow(id, row, normalized);
+            compactIfNeeded();
+            return rowById.get(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void attach(String id, int row) {
+        lock.writeLock().lock();
+        try {
+            if (row >= storage.rows()) {
+                throw new IllegalArgumentException("Ligne absente du stockage: " + row);
+            }
+            float[] vector = new float[storage.dimension()];
+            storage.read(row, vector);
+            attachRow(id, row, vector);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Integer row = rowById.remove(id);
+            if (row == null) {
+                return false;
+            }
+            kill(row);
+            compactIfNeeded();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean rename(String from, String to) {
+        lock.writeLock().lock();
+        try {
+            Integer row = rowById.remove(from);
+            if (row == null) {
+                return false;
+            }
+            Integer previous = rowById.put(to, row);
+            if (previous != null && previous != row) {
+                kill(previous);
+            }
+            ids[row] = to;
+            compactIfNeeded();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int rowOf(String id) {
+        lock.readLock().lock();
+        try {
+            Integer row = rowById.get(id);
+            return row == null ? -1 : row;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public float[] vector(String id) {
+        lock.readLock().lock();
+        try {
+            Integer row = rowById.get(id);
+            if (row == null) {
+                return null;
+            }
+            float[] vector = new float[storage.dimension()];
+            storage.read(row, vector);
+            return vector;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<SearchHit> search(float[] query, int topK) {
+        lock.readLock().lock();
+        try {
+            int liveRows = rowById.size();
+            if (liveRows == 0 || topK <= 0) {
+                return List.of();
+            }
+            int dimension = storage.dimension();
+            if (query.length != dimension) {
+                throw new IllegalArgumentException(
+                    "Dimension invalide: " + query.length + " (attendu " + dimension + ")"
+                );
+            }
+
+            float[] q = Vectors.normalizedCopy(query);
+            float qSum = 0f;
+            for (float v : q) {
+                qSum += v;
+            }
+
+            // 1. Scan des codes int8
+            int candidateCount = (int) Math.min(liveRows, (long) topK * rerankFactor);
+            TopKHeap coarse = new TopKHeap(candidateCount);
+            for (int row = live.nextSetBit(0); row >= 0; row = live.nextSetBit(row + 1)) {
+                coarse.offer(row, approximateDot(row, q, qSum, dimension));
+            }
+            int[] candidates = new int[coarse.size()];
+            float[] approximate = new float[coarse.size()];
+            int n = coarse.drainDescending(candidates, approximate);
+
+            // 2. Reclassement pleine précision
+            TopKHeap fine = new TopKHeap(Math.min(topK, n));
+            for (int i = 0; i < n; i++) {
+                fine.offer(candidates[i], storage.dot(candidates[i], q));
+            }
+            int[] bestRows = new int[fine.size()];
+            float[] bestScores = new float[fine.size()];
+            int k = fine.drainDescending(bestRows, bestScores);
+
+            if (recallSampleInterval > 0 && queries.incrementAndGet() % recallSampleInterval == 0) {
+                sampleRecall(q, bestRows, k);
+            }
+
+            List<SearchHit> hits = new ArrayList<>(k);
+            for (int i = 0; i < k; i++) {
+                hits.add(new SearchHit(ids[bestRows[i]], bestScores[i]));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rowById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int storedRows() {
+        lock.readLock().lock();
+        try {
+            return storage.rows();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void flush() {
+        lock.readLock().lock();
+        try {
+            storage.force();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        lock.readLock().lock();
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("quantization", "int8");
+            stats.put("heapBytes", (long) storage.rows() * (Math.max(storage.dimension(), 0) + 2L * Float.BYTES));
+            stats.put("recallSamples", recallExpected.get());
+            stats.put("recallFound", recallFound.get());
+            return stats;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Produit scalaire approché : v[j] ~ offset + scale * (code[j] + 128),
+     * donc q.v ~ offset * sum(q) + scale * (sum(q[j] * code[j]) + 128 * sum(q)).
+     */
+    private float approximateDot(int row, float[] q, float qSum, int dimension) {
+        float sum = VectorKernels.dot(codes, row * dimension, q, dimension);
+        return offsets[row] * qSum + scales[row] * (sum + 128f * qSum);
+    }
+
+    private void sampleRecall(float[] q, int[] returnedRows, int k) {
+        TopKHeap exact = new TopKHeap(k);
+        for (int row = live.nextSetBit(0); row >= 0; row = live.nextSetBit(row + 1)) {
+            exact.offer(row, storage.dot(row, q));
+        }
+        int[] truth = new int[exact.size()];
+        int n = exact.drainDescending(truth, new float[exact.size()]);
+        int found = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < k; j++) {
+                if (truth[i] == returnedRows[j]) {
+                    found++;
+                    break;
+                }
+            }
+        }
+        recallFound.addAndGet(found);
+        recallExpected.addAndGet(n);
+    }
+
+    private void attachRow(String id, int row, float[] normalized) {
+        Integer previous = rowById.put(id, row);
+        if (previous != null && previous != row) {
+            kill(previous);
+        }
+        ensureCapacity(row + 1, normalized.length);
+        ids[row] = id;
+        quantize(row, normalized);
+        live.set(row);
+    }
+
+    private void quantize(int row, float[] vector) {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (float v : vector) {
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        float scale = max > min ? (max - min) / 255f : 1f;
+        int base = row * vector.length;
+        for (int j = 0; j < vector.length; j++) {
+            codes[base + j] = (byte) (Math.round((vector[j] - min) / scale) - 128);
+        }
+        scales[row] = scale;
+        offsets[row] = min;
+    }
+
+    private void kill(int row) {
+        if (live.get(row)) {
+            live.clear(row);
+            ids[row] = null;
+            deletedCount++;
+        }
+    }
+
+    private void ensureCapacity(int requiredRows, int dimension) {
+        if (requiredRows > ids.length) {
+            int newRows = Math.max(requiredRows, ids.length * 2);
+            ids = Arrays.copyOf(ids, newRows);
+            scales = Arrays.copyOf(scales, newRows);
+            offsets = Arrays.copyOf(offsets, newRows);
+        }
+        if ((long) requiredRows * dimension > codes.length) {
+            codes = Arrays.copyOf(codes, Math.max(requiredRows, ids.length) * dimension);
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (deletedCount < MIN_DELETED_BEFORE_COMPACTION || deletedCount < rowById.size()) {
+            return;
+        }
+        VectorStorage compacted = storage.emptyCopy();
+        if (compacted == null) {
+            return;
+        }
+
+        float[] vector = new float[storage.dimension()];
+        Map<String, Integer> liveRows = new HashMap<>(rowById);
+        rowById.clear();
+        live.clear();
+        ids = new String[Math.max(256, liveRows.size())];
+        codes = new byte[0];
+        scales = new float[ids.length];
+        offsets = new float[ids.length];
+        VectorStorage previous = storage;
+        storage = compacted;
+        for (Map.Entry<String, Integer> entry : liveRows.entrySet()) {
+            previous.read(entry.getValue(), vector);
+            attachRow(entry.getKey(), compacted.append(vector), vector);
+        }
+        deletedCount = 0;
+    }
+}
@@ -0,0 +1,24 @@
+package org.mql.ia.rag.store;
+
+public final class SearchHit {
+
+    private final String id;
+    private final float similarity;
+
+    public SearchHit(String id, float similarity) {
+        this.id = id;
+        this.similarity = similarity;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public float getSimilarity() {
+        return similarity;
+    }
+
+    public double getDistance() {
+        return 1.0 - similarity;
+    }
+}
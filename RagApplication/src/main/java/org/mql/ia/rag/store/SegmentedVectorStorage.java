@@ -0,0 +1,109 @@
+package org.mql.ia.rag.store;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stockage hors du tas Java en segments de taille fixe : chaque segment est
+ * un ByteBuffer (direct ou mappé) avec un en-tête (magic, dimension,
+ * capacité, nombre de lignes) suivi de lignes float32 little-endian.
+ * Les produits scalaires copient la ligne (copie en bloc) dans un tampon
+ * propre au thread puis passent par VectorKernels.
+ */
+public abstract class SegmentedVectorStorage implements VectorStorage {
+
+    protected static final int MAGIC = 0x52414756; // "RAGV"
+    protected static final int HEADER_BYTES = 16;
+    protected static final int COUNT_OFFSET = 12;
+
+    protected final int segmentRows;
+    protected final List<ByteBuffer> segments = new ArrayList<>();
+    private final List<FloatBuffer> views = new ArrayList<>();
+    private final ThreadLocal<float[][]> scratch = ThreadLocal.withInitial(() -> new float[2][0]);
+
+    protected int dimension = -1;
+    protected int rows;
+
+    protected SegmentedVectorStorage(int segmentRows) {
+        this.segmentRows = segmentRows;
+    }
+
+    /** Alloue un segment vide pouvant contenir segmentRows lignes. */
+    protected abstract ByteBuffer allocateSegment(int index, long bytes);
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public int append(float[] vector) {
+        if (dimension < 0) {
+            dimension = vector.length;
+        } else if (vector.length != dimension) {
+            throw new IllegalArgumentException(
+                "Dimension invalide: " + vector.length + " (attendu " + dimension + ")"
+            );
+        }
+        if (rows == segments.size() * segmentRows) {
+            ByteBuffer buffer = allocateSegment(segments.size(),
+                HEADER_BYTES + (long) segmentRows * dimension * Float.BYTES);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, dimension);
+            buffer.putInt(8, segmentRows);
+            buffer.putInt(COUNT_OFFSET, 0);
+            register(buffer);
+        }
+
+        int row = rows;
+        views.get(row / segmentRows).put((row % segmentRows) * dimension, vector);
+        segments.get(row / segmentRows).putInt(COUNT_OFFSET, row % segmentRows + 1);
+        rows++;
+        return row;
+    }
+
+    @Override
+    public float dot(int row, float[] query) {
+        float[] buffer = scratch(0);
+        read(row, buffer);
+        return VectorKernels.dot(buffer, 0, query, 0, dimension);
+    }
+
+    @Override
+    public float dot(int rowA, int rowB) {
+        float[] a = scratch(0);
+        float[] b = scratch(1);
+        read(rowA, a);
+        read(rowB, b);
+        return VectorKernels.dot(a, 0, b, 0, dimension);
+    }
+
+    @Override
+    public void read(int row, float[] destination) {
+        views.get(row / segmentRows).get((row % segmentRows) * dimension, destination, 0, dimension);
+    }
+
+    private float[] scratch(int slot) {
+        float[][] buffers = scratch.get();
+        if (buffers[slot].length != dimension) {
+            buffers[slot] = new float[dimension];
+        }
+        return buffers[slot];
+    }
+
+    protected void register(ByteBuffer buffer) {
+        segments.add(buffer);
+        views.add(buffer.slice(HEADER_BYTES, buffer.capacity() - HEADER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asFloatBuffer());
+    }
+}
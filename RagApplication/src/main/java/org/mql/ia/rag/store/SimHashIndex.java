@@ -0,0 +1,110 @@
+package org.mql.ia.rag.store;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index LSH d'empreintes SimHash 64 bits. L'empreinte est coupée en
+ * maxDistance + 1 bandes : deux empreintes à distance de Hamming au plus
+ * maxDistance ont forcément une bande identique (principe des tiroirs), si
+ * bien que la recherche ne compare que les ids partageant une bande au lieu
+ * de tout l'index. Plus le seuil est large, plus les bandes sont courtes et
+ * les seaux peuplés.
+ */
+public class SimHashIndex {
+
+    /** Empreinte la plus proche trouvée et sa distance de Hamming. */
+    public record Match(String id, int distance) {
+    }
+
+    // Au-delà, un seau trop peuplé (texte très répétitif) n'est parcouru qu'en partie
+    private static final int MAX_CANDIDATES_PER_BAND = 256;
+
+    private final int maxDistance;
+    private final int bands;
+    private final int bandBits;
+    private final Map<String, Long> fingerprints = new ConcurrentHashMap<>();
+    private final Map<Long, Set<String>>[] buckets;
+
+    @SuppressWarnings("unchecked")
+    public SimHashIndex(int maxDistance) {
+        if (maxDistance < 0 || maxDistance > 15) {
+            throw new IllegalArgumentException("Distance de Hamming maximale hors de [0, 15]: " + maxDistance);
+        }
+        this.maxDistance = maxDistance;
+        this.bands = maxDistance + 1;
+        this.bandBits = Long.SIZE / bands;
+        this.buckets = new Map[bands];
+        for (int i = 0; i < bands; i++) {
+            buckets[i] = new ConcurrentHashMap<>();
+        }
+    }
+
+    public void add(String id, long fingerprint) {
+        Long previous = fingerprints.put(id, fingerprint);
+        if (previous != null) {
+            unbucket(id, previous);
+        }
+        for (int band = 0; band < bands; band++) {
+            buckets[band].computeIfAbsent(band(fingerprint, band), k -> ConcurrentHashMap.newKeySet()).add(id);
+        }
+    }
+
+    public void remove(String id) {
+        Long fingerprint = fingerprints.remove(id);
+        if (fingerprint != null) {
+            unbucket(id, fingerprint);
+        }
+    }
+
+    /** Id d'empreinte la plus proche à distance au plus maxDistance, ou null. */
+    public Match nearest(long fingerprint) {
+        Match best = null;
+        for (int band = 0; band < bands; band++) {
+            Set<String> bucket = buckets[band].get(band(fingerprint, band));
+            if (bucket == null) {
+                continue;
+            }
+            int examined = 0;
+            for (String id : bucket) {
+                if (examined++ >= MAX_CANDIDATES_PER_BAND) {
+                    break;
+                }
+                Long candidate = fingerprints.get(id);
+                if (candidate == null) {
+                    continue;
+                }
+                int distance = Long.bitCount(candidate ^ fingerprint);
+                if (distance <= maxDistance && (best == null || distance < best.distance())) {
+                    best = new Match(id, distance);
+                    if (distance == 0) {
+                        return best;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    public int size() {
+        return fingerprints.size();
+    }
+
+    private void unbucket(String id, long fingerprint) {
+        for (int band = 0; band < bands; band++) {
+            buckets[band].computeIfPresent(band(fingerprint, band), (k, ids) -> {
+                ids.remove(id);
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+
+    /** Bits de la bande (la dernière prend le reste des 64 bits). */
+    private long band(long fingerprint, int band) {
+        int from = band * bandBits;
+        int width = band == bands - 1 ? Long.SIZE - from : bandBits;
+        long mask = width == Long.SIZE ? -1L : (1L << width) - 1;
+        return (fingerprint >>> from) & mask;
+    }
+}
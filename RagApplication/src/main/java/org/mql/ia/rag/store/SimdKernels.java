@@ -0,0 +1,78 @@
+package org.mql.ia.rag.store;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Implémentation jdk.incubator.vector de VectorKernels : largeur préférée du
+ * CPU (AVX2 = 8 floats, AVX-512 = 16), reste traité en scalaire.
+ */
+final class SimdKernels {
+
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    // Autant d'octets que de floats par registre, pour la conversion int8 -> float
+    private static final VectorSpecies<Byte> BYTES =
+        VectorSpecies.of(byte.class, VectorShape.forBitSize(Math.max(64, FLOATS.vectorBitSize() / 4)));
+
+    private SimdKernels() {
+    }
+
+    static int bitSize() {
+        return FLOATS.vectorBitSize();
+    }
+
+    static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector acc = FloatVector.zero(FLOATS);
+        int bound = FLOATS.loopBound(length);
+        int j = 0;
+        for (; j < bound; j += FLOATS.length()) {
+            FloatVector va = FloatVector.fromArray(FLOATS, a, aOffset + j);
+            FloatVector vb = FloatVector.fromArray(FLOATS, b, bOffset + j);
+            acc = acc.add(va.mul(vb));
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; j < length; j++) {
+            sum += a[aOffset + j] * b[bOffset + j];
+        }
+        return sum;
+    }
+
+    static float dot(byte[] codes, int offset, float[] q, int length) {
+        int j = 0;
+        float sum = 0f;
+        if (BYTES.length() == FLOATS.length()) {
+            FloatVector acc = FloatVector.zero(FLOATS);
+            int bound = FLOATS.loopBound(length);
+            for (; j < bound; j += FLOATS.length()) {
+                FloatVector vc = (FloatVector) ByteVector.fromArray(BYTES, codes, offset + j)
+                    .castShape(FLOATS, 0);
+                acc = acc.add(vc.mul(FloatVector.fromArray(FLOATS, q, j)));
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; j < length; j++) {
+            sum += q[j] * codes[offset + j];
+        }
+        return sum;
+    }
+
+    static float l2Squared(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector acc = FloatVector.zero(FLOATS);
+        int bound = FLOATS.loopBound(length);
+        int j = 0;
+        for (; j < bound; j += FLOATS.length()) {
+            FloatVector d = FloatVector.fromArray(FLOATS, a, aOffset + j)
+                .sub(FloatVector.fromArray(FLOATS, b, bOffset + j));
+            acc = acc.add(d.mul(d));
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; j < length; j++) {
+            float d = a[aOffset + j] - b[bOffset + j];
+            sum += d * d;
+        }
+        return sum;
+    }
+}
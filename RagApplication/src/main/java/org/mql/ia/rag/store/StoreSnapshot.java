@@ -0,0 +1,148 @@
+package org.mql.ia.rag.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Snapshot complet du store : snapshot-NNNNNNNNNN.bin contient tous les
+ * chunks vivants au moment de la rotation du WAL numéro NNNNNNNNNN. La
+ * reprise charge le dernier snapshot puis ne rejoue que les fichiers WAL
+ * à partir de ce numéro.
+ */
+public final class StoreSnapshot {
+
+    private static final int MAGIC = 0x52414753; // "RAGS"
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+
+    private StoreSnapshot() {
+    }
+
+    public static final class Writer {
+
+        private final Path target;
+        private final Path temporary;
+        private final FileChannel channel;
+        private final DataOutputStream out;
+        private int count;
+
+        private Writer(Path directory, long sequence) throws IOException {
+            Files.createDirectories(directory);
+            this.target = file(directory, sequence);
+            this.temporary = target.resolveSibling(target.getFileName() + ".tmp");
+            this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 256 * 1024));
+            out.writeInt(MAGIC);
+            out.writeLong(sequence);
+        }
+
+        public void append(JournalRecord record) {
+            try {
+                out.writeBoolean(true);
+                record.writeTo(out);
+                count++;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Écriture du snapshot impossible: " + temporary, e);
+            }
+        }
+
+        /** Termine le fichier, le synchronise et le publie par renommage atomique. */
+        public int commit() {
+            try {
+                out.writeBoolean(false);
+                out.flush();
+                channel.force(true);
+                out.close();
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                return count;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Publication du snapshot impossible: " + target, e);
+            }
+        }
+
+        public void abort() {
+            try {
+                out.close();
+                Files.deleteIfExists(temporary);
+            } catch (IOException e) {
+                System.err.println("Abandon du snapshot: " + e.getMessage());
+            }
+        }
+    }
+
+    public static Writer begin(Path directory, long sequence) {
+        try {
+            return new Writer(directory, sequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Création du snapshot impossible: " + directory, e);
+        }
+    }
+
+    /** Numéro du dernier snapshot publié, -1 s'il n'y en a pas. */
+    public static long latest(Path directory) {
+        List<Long> sequences = sequences(directory);
+        return sequences.isEmpty() ? -1 : sequences.get(sequences.size() - 1);
+    }
+
+    public static int load(Path directory, long sequence, Consumer<JournalRecord> consumer) {
+        Path file = file(directory, sequence);
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 256 * 1024))) {
+            if (in.readInt() != MAGIC || in.readLong() != sequence) {
+                throw new IOException("Snapshot invalide: " + file);
+            }
+            while (in.readBoolean()) {
+                consumer.accept(JournalRecord.readFrom(in));
+                count++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Lecture du snapshot impossible: " + file, e);
+        }
+        return count;
+    }
+
+    public static void deleteOlderThan(Path directory, long sequence) {
+        for (long s : sequences(directory)) {
+            if (s < sequence) {
+                try {
+                    Files.deleteIfExists(file(directory, s));
+                } catch (IOException e) {
+                    System.err.println("Suppression du snapshot impossible: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static Path file(Path directory, long sequence) {
+        return directory.resolve(String.format("%s%010d%s", PREFIX, sequence, SUFFIX));
+    }
+
+    private static List<Long> sequences(Path directory) {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(p -> p.getFileName().toString())
+                .filter(n -> n.startsWith(PREFIX) && n.endsWith(SUFFIX))
+                .map(n -> Long.parseLong(n.substring(PREFIX.length(), n.length() - SUFFIX.length())))
+                .sorted()
+                .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Lecture du répertoire impossible: " + directory, e);
+        }
+    }
+}
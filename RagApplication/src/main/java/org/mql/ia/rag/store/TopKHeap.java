@@ -0,0 +1,98 @@
+package org.mql.ia.rag.store;
+
+/**
+ * Tas-min borné sur des tableaux primitifs : garde les k meilleures
+ * similarités sans allouer d'objet par candidat.
+ */
+final class TopKHeap {
+
+    private final float[] scores;
+    private final int[] rows;
+    private int size;
+
+    TopKHeap(int capacity) {
+        this.scores = new float[capacity];
+        this.rows = new int[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isFull() {
+        return size == scores.length;
+    }
+
+    /** Plus petite similarité retenue (seuil d'entrée une fois le tas plein). */
+    float minScore() {
+        return size == 0 ? Float.NEGATIVE_INFINITY : scores[0];
+    }
+
+    void offer(int row, float score) {
+        if (scores.length == 0) {
+            return;
+        }
+        if (size < scores.length) {
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (scores[parent] <= score) {
+                    break;
+                }
+                scores[i] = scores[parent];
+                rows[i] = rows[parent];
+                i = parent;
+            }
+            scores[i] = score;
+            rows[i] = row;
+        } else if (score > scores[0]) {
+            siftDown(row, score);
+        }
+    }
+
+    /** Fusionne un autre tas (top-K local d'un worker) dans celui-ci. */
+    void merge(TopKHeap other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.rows[i], other.scores[i]);
+        }
+    }
+
+    private void siftDown(int row, float score) {
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && scores[right] < scores[child]) {
+                child = right;
+            }
+            if (score <= scores[child]) {
+                break;
+            }
+            scores[i] = scores[child];
+            rows[i] = rows[child];
+            i = child;
+        }
+        scores[i] = score;
+        rows[i] = row;
+    }
+
+    /**
+     * Vide le tas dans outRows / outScores par similarité décroissante
+     * et retourne le nombre d'éléments écrits.
+     */
+    int drainDescending(int[] outRows, float[] outScores) {
+        int n = size;
+        for (int k = n - 1; k >= 0; k--) {
+            outRows[k] = rows[0];
+            outScores[k] = scores[0];
+            size--;
+            if (size > 0) {
+                int lastRow = rows[size];
+                float lastScore = scores[size];
+                siftDown(lastRow, lastScore);
+            }
+        }
+        return n;
+    }
+}
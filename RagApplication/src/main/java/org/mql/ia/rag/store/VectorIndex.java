@@ -0,0 +1,45 @@
+package org.mql.ia.rag.store;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moteur de recherche vectorielle utilisé par ChromaDBService.
+ * Les similarités sont des similarités cosinus (hnsw:space=cosine).
+ */
+public interface VectorIndex {
+
+    /** Ajoute (ou remplace) le vecteur et retourne sa ligne dans le stockage. */
+    int add(String id, float[] vector);
+
+    /** Rattache un identifiant à une ligne déjà présente dans le stockage (reprise après redémarrage). */
+    void attach(String id, int row);
+
+    boolean remove(String id);
+
+    /**
+     * Passe le vecteur de from sous l'identifiant to, dont l'ancien vecteur
+     * est retiré, en une seule opération ; false si from est absent.
+     */
+    boolean rename(String from, String to);
+
+    /** Ligne du vecteur dans le stockage, -1 si l'identifiant est absent. */
+    int rowOf(String id);
+
+    /** Copie du vecteur normalisé, null si l'identifiant est absent. */
+    float[] vector(String id);
+
+    List<SearchHit> search(float[] query, int topK);
+
+    int size();
+
+    /** Lignes occupées dans le stockage, vecteurs retirés compris. */
+    int storedRows();
+
+    void flush();
+
+    /** Indicateurs propres au moteur (mémoire, rappel mesuré...). */
+    default Map<String, Object> stats() {
+        return Map.of();
+    }
+}
@@ -0,0 +1,289 @@
+package org.mql.ia.rag.store;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+/**
+ * Crée le moteur d'index choisi par vector.store.engine (exact | hnsw | ivf) et
+ * son stockage selon vector.store.persistence :
+ * memory (aucune durabilité), wal (vecteurs en mémoire, WAL + snapshots)
+ * ou mmap (vecteurs et graphe hnsw dans des fichiers mappés, WAL + snapshots du catalogue).
+ * vector.store.quantization=int8 remplace le scan exact par un scan sur codes
+ * int8 suivi d'un reclassement pleine précision (vecteurs hors du tas).
+ * Les entraînements k-means des index ivf de toutes les partitions passent
+ * par un unique thread de fond. Le scan exact des grosses partitions est
+ * parallélisé sur un pool fork/join dédié (vector.store.exact.parallelism).
+ * En mode mmap, une partition est compactée dans un répertoire voisin
+ * (NOM.compacting) qui ne remplace l'original qu'une fois publié le snapshot
+ * portant ses nouvelles lignes.
+ */
+@Component
+public class VectorIndexFactory {
+
+    private static final String COMPACTING_SUFFIX = ".compacting";
+    private static final String COMPACTION_MARKER = "compaction-snapshot";
+
+    private final String engine;
+    private final int hnswM;
+    private final int hnswEfConstruction;
+    private final int hnswEfSearch;
+    private final boolean persistent;
+    private final boolean mapped;
+    private final Path dataDir;
+    private final int segmentRows;
+    private final boolean quantized;
+    private final int rerankFactor;
+    private final int recallSampleInterval;
+    private final int ivfLists;
+    private final int ivfNprobe;
+    private final int ivfMinTrainSize;
+    private final double ivfRetrainGrowth;
+    private final ExecutorService ivfTrainer;
+    private final ForkJoinPool scanPool;
+    private final int scanMinSegmentRows;
+
+    public VectorIndexFactory(@Value("${vector.store.engine:exact}") String engine,
+                              @Value("${vector.store.hnsw.m:16}") int hnswM,
+                              @Value("${vector.store.hnsw.ef-construction:200}") int hnswEfConstruction,
+                              @Value("${vector.store.hnsw.ef-search:64}") int hnswEfSearch,
+                              @Value("${vector.store.persistence:memory}") String persistence,
+                              @Value("${vector.store.data-dir:./data/vector-store}") String dataDir,
+                              @Value("${vector.store.mmap.segment-rows:16384}") int segmentRows,
+                              @Value("${vector.store.quantization:none}") String quantization,
+                              @Value("${vector.store.quantization.rerank-factor:4}") int rerankFactor,
+                              @Value("${vector.store.quantization.recall-sample-interval:50}") int recallSampleInterval,
+                              @Value("${vector.store.ivf.lists:0}") int ivfLists,
+                              @Value("${vector.store.ivf.nprobe:8}") int ivfNprobe,
+                              @Value("${vector.store.ivf.min-train-size:4096}") int ivfMinTrainSize,
+                              @Value("${vector.store.ivf.retrain-growth:2.0}") double ivfRetrainGrowth,
+                              @Value("${vector.store.exact.parallelism:0}") int scanParallelism,
+                              @Value("${vector.store.exact.min-segment-rows:16384}") int scanMinSegmentRows) {
+        this.engine = engine.trim().toLowerCase();
+        this.hnswM = hnswM;
+        this.hnswEfConstruction = hnswEfConstruction;
+        this.hnswEfSearch = hnswEfSearch;
+        this.dataDir = Paths.get(dataDir);
+        this.segmentRows = segmentRows;
+        this.rerankFactor = rerankFactor;
+        this.recallSampleInterval = recallSampleInterval;
+        this.ivfLists = ivfLists;
+        this.ivfNprobe = ivfNprobe;
+        this.ivfMinTrainSize = ivfMinTrainSize;
+        this.ivfRetrainGrowth = ivfRetrainGrowth;
+        this.scanMinSegmentRows = scanMinSegmentRows;
+
+        if (!this.engine.equals("exact") && !this.engine.equals("hnsw") && !this.engine.equals("ivf")) {
+            throw new IllegalArgumentException("vector.store.engine inconnu: " + engine);
+        }
+        String mode = persistence.trim().toLowerCase();
+        if (!mode.equals("memory") && !mode.equals("wal") && !mode.equals("mmap")) {
+            throw new IllegalArgumentException("vector.store.persistence inconnu: " + persistence);
+        }
+        this.persistent = !mode.equals("memory");
+        this.mapped = mode.equals("mmap");
+
+        String codec = quantization.trim().toLowerCase();
+        if (!codec.equals("none") && !codec.equals("int8")) {
+            throw new IllegalArgumentException("vector.store.quantization inconnu: " + quantization);
+        }
+        this.quantized = codec.equals("int8");
+        if (quantized && !this.engine.equals("exact")) {
+            throw new IllegalArgumentException("vector.store.quantization=int8 n'est supporté qu'avec vector.store.engine=exact");
+        }
+
+        this.ivfTrainer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "ivf-trainer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // parallelism=0 : un worker par cœur ; 1 : scan séquentiel
+        int parallelism = scanParallelism > 0 ? scanParallelism : Runtime.getRuntime().availableProcessors();
+        this.scanPool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    public VectorIndex create(String tenant) {
+        return create(partitionDirectory(tenant));
+    }
+
+    /**
+     * Index vide, en mode mmap, dans le répertoire de compaction de la
+     * partition (un reste d'une compaction précédente est effacé).
+     */
+    public VectorIndex createCompacted(String tenant) {
+        Path directory = compactingDirectory(partitionDirectory(tenant));
+        deleteTree(directory);
+        return create(directory);
+    }
+
+    /**
+     * Lie la compaction de la partition au snapshot qui porte ses nouvelles
+     * lignes ; à appeler avant de publier ce snapshot.
+     */
+    public void markCompacted(String tenant, long snapshot) {
+        Path marker = compactingDirectory(partitionDirectory(tenant)).resolve(COMPACTION_MARKER);
+        try (FileChannel channel = FileChannel.open(marker, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(StandardCharsets.UTF_8.encode(Long.toString(snapshot)));
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Marque de compaction impossible: " + marker, e);
+        }
+    }
+
+    /** Remplace le répertoire de la partition par sa version compactée, une fois le snapshot publié. */
+    public void commitCompaction(String tenant) {
+        Path partition = partitionDirectory(tenant);
+        finishCompaction(compactingDirectory(partition), partition);
+    }
+
+    /**
+     * À appeler avant d'ouvrir les partitions : termine les compactions dont
+     * le snapshot est le dernier publié, efface les autres (arrêt avant la
+     * publication, le snapshot précédent porte encore les anciennes lignes).
+     */
+    public void recoverCompactions(long latestSnapshot) {
+        Path root = dataDir.resolve("partitions");
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        List<Path> pending;
+        try (Stream<Path> list = Files.list(root)) {
+            pending = list.filter(p -> p.getFileName().toString().endsWith(COMPACTING_SUFFIX)).toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Lecture des partitions impossible: " + root, e);
+        }
+        for (Path directory : pending) {
+            String name = directory.getFileName().toString();
+            Path partition = root.resolve(name.substring(0, name.length() - COMPACTING_SUFFIX.length()));
+            Path marker = directory.resolve(COMPACTION_MARKER);
+            try {
+                if (Files.exists(marker) && Long.parseLong(Files.readString(marker).strip()) == latestSnapshot) {
+                    finishCompaction(directory, partition);
+                    System.out.println("Compaction de " + partition.getFileName() + " terminée à la reprise");
+                } else {
+                    deleteTree(directory);
+                }
+            } catch (IOException | NumberFormatException e) {
+                throw new IllegalStateException("Compaction interrompue illisible: " + directory, e);
+            }
+        }
+    }
+
+    private VectorIndex create(Path directory) {
+        VectorStorage storage;
+        if (mapped) {
+            storage = new MappedVectorStorage(directory, segmentRows);
+        } else if (quantized) {
+            storage = new OffHeapVectorStorage(segmentRows);
+        } else {
+            storage = new HeapVectorStorage();
+        }
+
+        if (quantized) {
+            return new QuantizedVectorIndex(storage, rerankFactor, recallSampleInterval);
+        }
+        if (engine.equals("hnsw")) {
+            // En mode mmap, le graphe est lui aussi mappé : pas de reconstruction au démarrage
+            GraphStorage graph = mapped
+                ? new MappedGraphStorage(directory, segmentRows, hnswM, storage.rows())
+                : new HeapGraphStorage(hnswM);
+            return new HnswVectorIndex(storage, graph, hnswM, hnswEfConstruction, hnswEfSearch);
+        }
+        if (engine.equals("ivf")) {
+            return new IvfVectorIndex(storage, ivfLists, ivfNprobe, ivfMinTrainSize, ivfRetrainGrowth, ivfTrainer);
+        }
+        return new ExactVectorIndex(storage, scanPool, scanMinSegmentRows);
+    }
+
+    @PreDestroy
+    public void close() {
+        ivfTrainer.shutdownNow();
+        if (scanPool != null) {
+            scanPool.shutdownNow();
+        }
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public boolean isQuantized() {
+        return quantized;
+    }
+
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    /** Vrai si les vecteurs sont dans des segments mappés (le WAL ne porte alors que leur ligne). */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    public Path getDataDir() {
+        return dataDir;
+    }
+
+    /** Lignes d'un segment mappé : une compaction ne vaut que si elle en libère au moins autant. */
+    public int getSegmentRows() {
+        return segmentRows;
+    }
+
+    private Path partitionDirectory(String tenant) {
+        String name;
+        if (tenant.isEmpty()) {
+            name = "default";
+        } else if (tenant.matches("[A-Za-z0-9_-]+")) {
+            name = "user-" + tenant;
+        } else {
+            name = "hex-" + HexFormat.of().formatHex(tenant.getBytes(StandardCharsets.UTF_8));
+        }
+        return dataDir.resolve("partitions").resolve(name);
+    }
+
+    private static Path compactingDirectory(Path partition) {
+        return partition.resolveSibling(partition.getFileName() + COMPACTING_SUFFIX);
+    }
+
+    /** Rejouable : un arrêt au milieu laisse le répertoire compacté et sa marque en place. */
+    private static void finishCompaction(Path compacting, Path partition) {
+        deleteTree(partition);
+        try {
+            Files.move(compacting, partition, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(partition.resolve(COMPACTION_MARKER));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Remplacement de la partition impossible: " + partition, e);
+        }
+    }
+
+    private static void deleteTree(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Suppression impossible: " + directory, e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.mql.ia.rag.store;
+
+/**
+ * Noyaux de similarité sur tableaux primitifs utilisés par tous les moteurs
+ * du store. Si le module jdk.incubator.vector est chargé (--add-modules),
+ * les calculs passent par l'API Vector (SimdKernels) ; sinon par les boucles
+ * scalaires ci-dessous. SimdKernels n'est jamais chargée sans le module.
+ */
+public final class VectorKernels {
+
+    private static final boolean SIMD = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+        && !Boolean.getBoolean("vector.kernels.scalar");
+
+    private VectorKernels() {
+    }
+
+    public static boolean isSimd() {
+        return SIMD;
+    }
+
+    public static String description() {
+        return SIMD ? "SIMD (jdk.incubator.vector, " + SimdKernels.bitSize() + " bits)" : "scalaires";
+    }
+
+    public static float dot(float[] a, float[] b) {
+        return dot(a, 0, b, 0, a.length);
+    }
+
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        if (SIMD) {
+            return SimdKernels.dot(a, aOffset, b, bOffset, length);
+        }
+        float sum = 0f;
+        for (int j = 0; j < length; j++) {
+            sum += a[aOffset + j] * b[bOffset + j];
+        }
+        return sum;
+    }
+
+    /** Somme des q[j] * codes[offset + j] (codes int8 de QuantizedVectorIndex). */
+    public static float dot(byte[] codes, int offset, float[] q, int length) {
+        if (SIMD) {
+            return SimdKernels.dot(codes, offset, q, length);
+        }
+        float sum = 0f;
+        for (int j = 0; j < length; j++) {
+            sum += q[j] * codes[offset + j];
+        }
+        return sum;
+    }
+
+    public static float l2Squared(float[] a, float[] b) {
+        return l2Squared(a, 0, b, 0, a.length);
+    }
+
+    public static float l2Squared(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        if (SIMD) {
+            return SimdKernels.l2Squared(a, aOffset, b, bOffset, length);
+        }
+        float sum = 0f;
+        for (int j = 0; j < length; j++) {
+            float d = a[aOffset + j] - b[bOffset + j];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    /** Similarité cosinus de vecteurs quelconques (0 si l'un est nul). */
+    public static float cosine(float[] a, float[] b) {
+        float normA = dot(a, a);
+        float normB = dot(b, b);
+        if (normA == 0f || normB == 0f) {
+            return 0f;
+        }
+        return (float) (dot(a, b) / Math.sqrt((double) normA * normB));
+    }
+}
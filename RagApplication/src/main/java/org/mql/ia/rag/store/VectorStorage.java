@@ -0,0 +1,33 @@
+package org.mql.ia.rag.store;
+
+/**
+ * Stockage des vecteurs d'une partition, adressés par numéro de ligne.
+ * Les lignes sont ajoutées en fin et ne sont jamais déplacées : la
+ * suppression est gérée par l'index (pierres tombales).
+ */
+public interface VectorStorage {
+
+    /** Dimension des vecteurs, -1 tant qu'aucun vecteur n'a été ajouté. */
+    int dimension();
+
+    int rows();
+
+    /** Copie le vecteur en fin de stockage et retourne sa ligne. */
+    int append(float[] vector);
+
+    float dot(int row, float[] query);
+
+    float dot(int rowA, int rowB);
+
+    void read(int row, float[] destination);
+
+    /** Écrit les pages modifiées sur disque (sans effet en mémoire). */
+    void force();
+
+    /**
+     * Stockage vide du même type pour compacter l'index, ou null si le
+     * stockage est en ajout seul (fichiers de segments, compactés au
+     * démarrage par ChromaDBService).
+     */
+    VectorStorage emptyCopy();
+}
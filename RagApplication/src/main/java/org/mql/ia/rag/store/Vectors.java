@@ -0,0 +1,25 @@
+package org.mql.ia.rag.store;
+
+public final class Vectors {
+
+    private Vectors() {
+    }
+
+    /** Copie normalisée (norme L2 = 1) ; un vecteur nul reste nul. */
+    public static float[] normalizedCopy(float[] vector) {
+        float[] copy = vector.clone();
+        normalizeInPlace(copy);
+        return copy;
+    }
+
+    public static void normalizeInPlace(float[] vector) {
+        float norm = VectorKernels.dot(vector, vector);
+        if (norm == 0f) {
+            return;
+        }
+        float inv = (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= inv;
+        }
+    }
+}
@@ -0,0 +1,441 @@
+package org.mql.ia.rag.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Journal d'écriture anticipée du store vectoriel.
+ *
+ * Les mutations sont ajoutées séquentiellement dans wal-NNNNNNNNNN.log
+ * par trames (longueur, CRC32, nombre d'enregistrements, enregistrements) :
+ * un bloc ajouté ensemble tient dans une seule trame et se rejoue en entier
+ * ou pas du tout. Un thread de fond regroupe les écritures
+ * en attente et fait un seul fsync pour tout le lot (group commit) ; les
+ * appelants attendent seulement que leur numéro d'ordre soit durable.
+ * Chaque snapshot fait tourner le fichier, et les fichiers antérieurs au
+ * snapshot sont supprimés.
+ */
+public class WriteAheadLog {
+
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+    private static final int MAX_FRAME_BYTES = 256 * 1024 * 1024;
+
+    private final Path directory;
+    private final long groupCommitMillis;
+    private final Runnable beforeSync;
+    // ReentrantLock plutôt qu'un moniteur : un thread virtuel en attente ne bloque pas son porteur
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Thread flusher;
+
+    private FileChannel channel;
+    private DataOutputStream out;
+    private long sequence;
+    private long appendedLsn;
+    private long durableLsn;
+    private long syncCount;
+    private IOException failure;
+    private boolean closed;
+
+    /**
+     * @param beforeSync appelé avant chaque fsync, pour rendre durables les
+     *                   données référencées par le journal (segments mappés)
+     */
+    public WriteAheadLog(Path directory, long groupCommitMillis, Runnable beforeSync) {
+        this.directory = directory;
+        this.groupCommitMillis = groupCommitMillis;
+        this.beforeSync = beforeSync;
+        try {
+            Files.createDirectories(directory);
+            List<Long> existing = sequences(directory);
+            this.sequence = existing.isEmpty() ? 0 : existing.get(existing.size() - 1) + 1;
+            open(sequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ouverture du WAL impossible: " + directory, e);
+        }
+
+        this.flusher = new Thread(this::flushLoop, "wal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /** Ajoute l'enregistrement au tampon et retourne son numéro d'ordre. */
+    public long append(JournalRecord record) {
+        return appendAll(List.of(record));
+    }
+
+    /**
+     * Ajoute les enregistrements dans une seule trame : après un arrêt brutal,
+     * la relecture les applique tous ou aucun. Retourne le numéro d'ordre du
+     * dernier. La trame est sérialisée avant de prendre le verrou.
+     */
+    public long appendAll(List<JournalRecord> records) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(256 * records.size() + 4);
+        try {
+            DataOutputStream data = new DataOutputStream(payload);
+            data.writeInt(records.size());
+            for (JournalRecord record : records) {
+                record.writeTo(data);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // Une trame plus grande serait prise pour une corruption à la relecture
+        if (payload.size() > MAX_FRAME_BYTES) {
+            throw new IllegalArgumentException("Bloc trop volumineux pour le WAL : " + payload.size() + " octets");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload.toByteArray());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.size() + 8);
+        DataOutputStream frame = new DataOutputStream(bytes);
+        try {
+            frame.writeInt(payload.size());
+            frame.writeInt((int) crc.getValue());
+            payload.writeTo(frame);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        lock.lock();
+        try {
+            checkUsable();
+            try {
+                bytes.writeTo(out);
+            } catch (IOException e) {
+                failure = e;
+                throw new UncheckedIOException("Écriture du WAL impossible", e);
+            }
+            appendedLsn += records.size();
+            changed.signalAll();
+            return appendedLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Bloque jusqu'à ce que l'enregistrement lsn soit sur disque. L'attente
+     * n'est pas interruptible : la mutation est déjà appliquée en mémoire, on
+     * ne rend la main qu'une fois le fsync fait (le statut d'interruption est
+     * conservé) ou le WAL en échec. Un échec d'écriture reste enregistré et
+     * toutes les mutations suivantes sont refusées.
+     */
+    public void awaitDurable(long lsn) {
+        lock.lock();
+        try {
+            while (durableLsn < lsn) {
+                checkUsable();
+                changed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Vide le fichier courant et en ouvre un nouveau ; retourne le numéro du
+     * nouveau fichier (tout ce qui suit y sera écrit).
+     */
+    public long rotate() {
+        lock.lock();
+        try {
+            checkUsable();
+            try {
+                out.flush();
+                beforeSync.run();
+                channel.force(false);
+                durableLsn = appendedLsn;
+                out.close();
+                open(++sequence);
+            } catch (IOException e) {
+                failure = e;
+                throw new UncheckedIOException("Rotation du WAL impossible", e);
+            } finally {
+                changed.signalAll();
+            }
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Supprime les fichiers entièrement couverts par un snapshot. */
+    public void truncateBefore(long fromSequence) {
+        try {
+            for (long s : sequences(directory)) {
+                if (s < fromSequence) {
+                    Files.deleteIfExists(file(directory, s));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Nettoyage du WAL impossible: " + e.getMessage());
+        }
+    }
+
+    public long getSyncCount() {
+        lock.lock();
+        try {
+            return syncCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            out.flush();
+            beforeSync.run();
+            channel.force(false);
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Fermeture du WAL impossible: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rejoue les fichiers à partir de fromSequence. Une trame n'est transmise
+     * au consommateur qu'une fois lue et vérifiée en entier. La relecture
+     * s'arrête à la première trame tronquée ou corrompue (fin d'écriture interrompue
+     * par un arrêt brutal) : le fichier est tronqué à cet endroit et les
+     * fichiers suivants sont écartés (renommés en .discarded), pour ne jamais
+     * appliquer des mutations postérieures à un trou.
+     */
+    public static int replay(Path directory, long fromSequence, Consumer<JournalRecord> consumer) {
+        int count = 0;
+        try {
+            if (!Files.isDirectory(directory)) {
+                return 0;
+            }
+            List<Long> files = sequences(directory);
+            for (int f = 0; f < files.size(); f++) {
+                long s = files.get(f);
+                if (s < fromSequence) {
+                    continue;
+                }
+                long valid = 0;
+                String problem = null;
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        Files.newInputStream(file(directory, s))))) {
+                    while (true) {
+                        byte[] payload;
+                        int expectedCrc;
+                        try {
+                            int length = in.readInt();
+                            if (length < 4 || length > MAX_FRAME_BYTES) {
+                                problem = "longueur invalide";
+                                break;
+                            }
+                            payload = new byte[length];
+                            expectedCrc = in.readInt();
+                            in.readFully(payload);
+                        } catch (EOFException e) {
+                            if (valid < Files.size(file(directory, s))) {
+                                problem = "enregistrement tronqué";
+                            }
+                            break;
+                        }
+                        CRC32 crc = new CRC32();
+                        crc.update(payload);
+                        if ((int) crc.getValue() != expectedCrc) {
+                            problem = "enregistrement corrompu";
+                            break;
+                        }
+                        List<JournalRecord> records;
+                        try {
+                            records = readFrame(payload);
+                        } catch (IOException e) {
+                            problem = "enregistrement illisible";
+                            break;
+                        }
+                        records.forEach(consumer);
+                        count += records.size();
+                        valid += 8 + payload.length;
+                    }
+                }
+                if (problem != null) {
+                    discardAfter(directory, s, valid, files.subList(f + 1, files.size()), problem);
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Relecture du WAL impossible: " + directory, e);
+        }
+        return count;
+    }
+
+    private static List<JournalRecord> readFrame(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Nombre d'enregistrements invalide: " + size);
+        }
+        List<JournalRecord> records = new ArrayList<>(Math.min(size, 1024));
+        for (int i = 0; i < size; i++) {
+            records.add(JournalRecord.readFrom(in));
+        }
+        if (in.available() > 0) {
+            throw new IOException("Octets en trop dans la trame");
+        }
+        return records;
+    }
+
+    private static void discardAfter(Path directory, long sequence, long valid, List<Long> later,
+                                     String problem) throws IOException {
+        System.err.println("WAL " + sequence + " : " + problem + " à l'octet " + valid
+            + ", fin de relecture (" + later.size() + " fichiers suivants écartés)");
+        try (FileChannel channel = FileChannel.open(file(directory, sequence), StandardOpenOption.WRITE)) {
+            channel.truncate(valid);
+            channel.force(true);
+        }
+        for (long s : later) {
+            Path file = file(directory, s);
+            Files.move(file, file.resolveSibling(file.getFileName() + ".discarded"),
+                StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            long target;
+            lock.lock();
+            try {
+                while (appendedLsn == durableLsn && !closed && failure == null) {
+                    try {
+                        changed.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed || failure != null) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            // Laisse les écrivains concurrents rejoindre le lot avant le fsync
+            if (groupCommitMillis > 0) {
+                try {
+                    Thread.sleep(groupCommitMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            FileChannel syncChannel;
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                target = appendedLsn;
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    failure = e;
+                    changed.signalAll();
+                    return;
+                }
+                syncChannel = channel;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                beforeSync.run();
+                syncChannel.force(false);
+            } catch (IOException e) {
+                // Le fichier a pu être fermé par une rotation qui l'a déjà synchronisé
+                if (syncChannel.isOpen()) {
+                    lock.lock();
+                    try {
+                        failure = e;
+                        changed.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                    return;
+                }
+            }
+
+            lock.lock();
+            try {
+                if (target > durableLsn) {
+                    durableLsn = target;
+                }
+                syncCount++;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void open(long fileSequence) throws IOException {
+        channel = FileChannel.open(file(directory, fileSequence),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+    }
+
+    private void checkUsable() {
+        if (failure != null) {
+            throw new UncheckedIOException("WAL indisponible", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("WAL fermé");
+        }
+    }
+
+    private static Path file(Path directory, long fileSequence) {
+        return directory.resolve(String.format("%s%010d%s", PREFIX, fileSequence, SUFFIX));
+    }
+
+    private static List<Long> sequences(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(p -> p.getFileName().toString())
+                .filter(n -> n.startsWith(PREFIX) && n.endsWith(SUFFIX))
+                .map(n -> Long.parseLong(n.substring(PREFIX.length(), n.length() - SUFFIX.length())))
+                .sorted()
+                .toList();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.mql.ia.rag.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class LangChainControllerTests {
+
+	@TempDir
+	static Path directory;
+
+	@Autowired
+	private MockMvc mvc;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	@DynamicPropertySource
+	static void properties(DynamicPropertyRegistry registry) {
+		registry.add("ingestion.dir", () -> directory.resolve("ingestion").toString());
+		registry.add("embedding.cache.disk.enabled", () -> "false");
+		registry.add("embedding.model.url", () -> "http://127.0.0.1:1/v1");
+	}
+
+	@Test
+	void uploadedJobCanBePolledLikeTheFrontendDoes() throws Exception {
+		String token = json(mvc.perform(post("/api/auth/register")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"username\":\"alice\",\"email\":\"alice@example.com\",\"password\":\"secret\"}"))
+			.andExpect(status().isOk())
+			.andReturn().getResponse().getContentAsString()).get("token").asText();
+
+		// Même requêtes que RAGSystem.jsx : upload multipart puis waitForJob, avec le seul en-tête Authorization
+		MockMultipartFile file = new MockMultipartFile("file", "notes.txt", "text/plain",
+			"Quelques notes à indexer.".getBytes(StandardCharsets.UTF_8));
+		String jobId = json(mvc.perform(multipart("/api/documents/upload-langchain").file(file)
+				.header("Authorization", "Bearer " + token))
+			.andExpect(status().isAccepted())
+			.andReturn().getResponse().getContentAsString()).get("jobId").asText();
+
+		JsonNode job = null;
+		for (int wait = 0; wait < 200; wait++) {
+			job = json(mvc.perform(get("/api/documents/jobs/" + jobId)
+					.header("Authorization", "Bearer " + token))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getContentAsString());
+			if (List.of("DONE", "FAILED").contains(job.get("status").asText())) {
+				break;
+			}
+			Thread.sleep(50);
+		}
+		assertEquals(jobId, job.get("jobId").asText());
+		// Pas de serveur d'embeddings ici : le job se termine, en échec, mais reste consultable
+		assertTrue(List.of("DONE", "FAILED").contains(job.get("status").asText()), job.toString());
+
+		mvc.perform(get("/api/documents/jobs/inconnu").header("Authorization", "Bearer " + token))
+			.andExpect(status().isNotFound());
+	}
+
+	private JsonNode json(String body) throws Exception {
+		return mapper.readTree(body);
+	}
+}
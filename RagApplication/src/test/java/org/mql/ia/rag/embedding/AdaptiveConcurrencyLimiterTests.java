@@ -0,0 +1,77 @@
+package org.mql.ia.rag.embedding;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveConcurrencyLimiterTests {
+
+	@Test
+	void limitGrowsUnderLoadAndBacksOffOnErrors() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 16, 0.5, 1000.0);
+		AtomicInteger peak = new AtomicInteger();
+		AtomicInteger running = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(16);
+		CountDownLatch done = new CountDownLatch(400);
+		for (int i = 0; i < 400; i++) {
+			pool.execute(() -> {
+				limiter.execute(() -> {
+					peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+					try {
+						Thread.sleep(1);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return running.decrementAndGet();
+				});
+				done.countDown();
+			});
+		}
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		pool.shutdown();
+
+		int grown = (int) limiter.stats().get("limit");
+		assertTrue(grown > 2, "limite non augmentée: " + grown);
+		assertTrue(peak.get() <= 16);
+
+		assertThrows(IllegalStateException.class, () -> limiter.execute(() -> {
+			throw new IllegalStateException("serveur saturé");
+		}));
+		assertEquals(Math.max(1, (int) (grown * 0.5)), limiter.stats().get("limit"));
+		assertEquals(0, limiter.stats().get("inFlight"));
+	}
+
+	@Test
+	void slowLargeBatchesAreNotComparedToSmallQueries() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 16, 0.5, 3.0);
+		for (int i = 0; i < 10; i++) {
+			limiter.execute(20, () -> sleep(5));
+			// Lot de 64 chunks : dix fois plus long qu'une requête, sans être une surcharge
+			limiter.execute(64 * 2000, () -> sleep(60));
+		}
+
+		assertEquals(0L, limiter.stats().get("backoffs"));
+		assertEquals(4, limiter.stats().get("limit"));
+		assertThrows(IllegalStateException.class, () -> limiter.execute(64 * 2000, () -> {
+			throw new IllegalStateException("serveur saturé");
+		}));
+		assertEquals(2, limiter.stats().get("limit"));
+	}
+
+	private static int sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,97 @@
+package org.mql.ia.rag.embedding;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class EmbeddingCacheTests {
+
+	@Test
+	void lruEvictionRespectsByteBound() {
+		// 3 entrées de 4 floats (16 + 256 octets chacune) tiennent, pas 4
+		EmbeddingCache cache = new EmbeddingCache(3 * 272);
+		cache.put("m", "a", new float[4]);
+		cache.put("m", "b", new float[4]);
+		cache.put("m", "c", new float[4]);
+		assertNotNull(cache.get("m", "a"));
+		cache.put("m", "d", new float[4]);
+
+		assertNull(cache.get("m", "b"));
+		assertNotNull(cache.get("m", " a "));
+		assertNull(cache.get("autre-modele", "a"));
+		assertEquals(1L, cache.stats().get("evictions"));
+	}
+
+	@Test
+	void cachingModelOnlyEmbedsUnseenTexts() {
+		AtomicInteger embedded = new AtomicInteger();
+		EmbeddingModel backend = segments -> {
+			embedded.addAndGet(segments.size());
+			List<Embedding> embeddings = new ArrayList<>();
+			for (TextSegment segment : segments) {
+				embeddings.add(Embedding.from(new float[] {segment.text().length(), 1f}));
+			}
+			return Response.from(embeddings);
+		};
+		EmbeddingModel model = new CachingEmbeddingModel(backend, new EmbeddingCache(1 << 20), "m");
+
+		model.embedAll(List.of(TextSegment.from("un"), TextSegment.from("deux"), TextSegment.from("un")));
+		List<Embedding> second = model.embedAll(List.of(TextSegment.from("deux"), TextSegment.from("trois"))).content();
+
+		assertEquals(3, embedded.get());
+		assertArrayEquals(new float[] {4f, 1f}, second.get(0).vector());
+		assertArrayEquals(new float[] {5f, 1f}, second.get(1).vector());
+	}
+
+	@Test
+	void diskCacheSurvivesRestartUntilModelChanges(@TempDir Path directory) {
+		DiskEmbeddingCache disk = new DiskEmbeddingCache(true, directory.toString(), "modele-a", 1 << 20, 60);
+		new EmbeddingCache(1 << 20, disk).put("m", "texte", new float[] {1f, 2f, 3f});
+		disk.close();
+
+		DiskEmbeddingCache reopened = new DiskEmbeddingCache(true, directory.toString(), "modele-a", 1 << 20, 60);
+		EmbeddingCache cache = new EmbeddingCache(1 << 20, reopened);
+		assertArrayEquals(new float[] {1f, 2f, 3f}, cache.get("m", "texte"));
+		assertEquals(1L, cache.stats().get("diskHits"));
+		reopened.close();
+
+		DiskEmbeddingCache otherModel = new DiskEmbeddingCache(true, directory.toString(), "modele-b", 1 << 20, 60);
+		assertNull(otherModel.get(EmbeddingCache.key("m", "texte")));
+		otherModel.close();
+	}
+
+	@Test
+	void diskCacheCompactsToNewestHalfWhenFull(@TempDir Path directory) {
+		// 16 octets par vecteur, 160 octets max : la onzième écriture compacte
+		DiskEmbeddingCache disk = new DiskEmbeddingCache(true, directory.toString(), "modele-a", 160, 60);
+		for (int i = 0; i < 11; i++) {
+			disk.put("k" + i, new float[] {i, i, i, i});
+		}
+		disk.flush();
+
+		assertEquals(1L, disk.stats().get("compactions"));
+		assertEquals(96L, disk.stats().get("bytes"));
+		assertNull(disk.get("k4"));
+		assertArrayEquals(new float[] {5f, 5f, 5f, 5f}, disk.get("k5"));
+		assertArrayEquals(new float[] {10f, 10f, 10f, 10f}, disk.get("k10"));
+		disk.close();
+
+		DiskEmbeddingCache reopened = new DiskEmbeddingCache(true, directory.toString(), "modele-a", 160, 60);
+		assertEquals(6, reopened.stats().get("entries"));
+		assertArrayEquals(new float[] {7f, 7f, 7f, 7f}, reopened.get("k7"));
+		reopened.close();
+	}
+}
@@ -0,0 +1,54 @@
+package org.mql.ia.rag.embedding;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EmbeddingResponseParserTests {
+
+	@Test
+	void parsesBatchByIndexAndSkipsOtherFields() throws Exception {
+		String json = """
+			{"object":"list","data":[
+			  {"object":"embedding","embedding":[0.5,-1.25,3],"index":1},
+			  {"index":0,"extra":{"a":[1,2]},"embedding":[1e-3,2.0,-0.0]}
+			],"model":"m","usage":{"prompt_tokens":4,"total_tokens":4}}
+			""";
+		try (JsonParser parser = new JsonFactory().createParser(json)) {
+			float[][] vectors = EmbeddingResponseParser.parse(parser, 2);
+			assertArrayEquals(new float[] {0.001f, 2f, -0f}, vectors[0]);
+			assertArrayEquals(new float[] {0.5f, -1.25f, 3f}, vectors[1]);
+		}
+
+		try (JsonParser parser = new JsonFactory().createParser("{\"data\":[{\"index\":0,\"embedding\":[1]}]}")) {
+			assertThrows(IOException.class, () -> EmbeddingResponseParser.parse(parser, 2));
+		}
+	}
+
+	@Test
+	void incrementalParserHandlesChunksSplitAnywhere() throws Exception {
+		byte[] json = """
+			{"data":[{"index":1,"embedding":[0.125,-2.5e1]},{"embedding":[3,4],"index":0}],"usage":{"total_tokens":7}}
+			""".getBytes(StandardCharsets.UTF_8);
+		for (int chunk = 1; chunk <= json.length; chunk++) {
+			EmbeddingResponseParser parser = EmbeddingResponseParser.incremental(2);
+			for (int offset = 0; offset < json.length; offset += chunk) {
+				parser.feed(Arrays.copyOfRange(json, offset, Math.min(json.length, offset + chunk)));
+			}
+			float[][] vectors = parser.finish();
+			assertArrayEquals(new float[] {3f, 4f}, vectors[0]);
+			assertArrayEquals(new float[] {0.125f, -25f}, vectors[1]);
+		}
+
+		EmbeddingResponseParser truncated = EmbeddingResponseParser.incremental(1);
+		truncated.feed("{\"data\":[{\"index\":0,\"embedding\":[1,".getBytes(StandardCharsets.UTF_8));
+		assertThrows(IOException.class, truncated::finish);
+	}
+}
@@ -0,0 +1,154 @@
+package org.mql.ia.rag.ingestion;
+
+import dev.langchain4j.data.segment.TextSegment;
+import org.junit.jupiter.api.Test;
+import org.mql.ia.rag.embedding.AdaptiveConcurrencyLimiter;
+import org.mql.ia.rag.embedding.EmbeddingCache;
+import org.mql.ia.rag.service.BackendCallGate;
+import org.mql.ia.rag.service.ChromaDBService;
+import org.mql.ia.rag.service.LangChainRAGService;
+import org.mql.ia.rag.store.EmbeddingVector;
+import org.mql.ia.rag.store.VectorIndexFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkIngestionPipelineTests {
+
+	@Test
+	void failedEmbeddingsFailTheFilesWithoutLockingTheirDocuments() throws Exception {
+		ChromaDBService store = store();
+		StubEmbeddings embeddings = new StubEmbeddings(store);
+		byte[] archive = zip(Map.of("a.txt", "premier fichier", "b.txt", "second fichier"));
+
+		embeddings.failing = true;
+		Map<String, Object> failed = run(pipeline(store, embeddings, 100), archive);
+		assertEquals(2, files(failed).get("failed"));
+		assertEquals(0, files(failed).get("stored"));
+		assertEquals(0, store.getDocumentsByUser("1").size());
+
+		// Rien n'est resté verrouillé : le même import passe une fois le serveur revenu
+		embeddings.failing = false;
+		Map<String, Object> stored = assertTimeoutPreemptively(Duration.ofSeconds(10),
+			() -> run(pipeline(store, embeddings, 100), archive));
+		assertEquals(2, files(stored).get("stored"));
+		assertEquals(2, store.getDocumentsByUser("1").size());
+	}
+
+	@Test
+	void interruptedRunLeavesDocumentsFreeForTheNextImport() throws Exception {
+		ChromaDBService store = store();
+		StubEmbeddings embeddings = new StubEmbeddings(store);
+		byte[] archive = zip(Map.of("a.txt", "un", "b.txt", "deux", "c.txt", "trois"));
+
+		// Trop de fichiers : la lecture s'arrête alors que les premiers sont déjà dans le pipeline
+		BulkIngestionPipeline.Run interrupted = pipeline(store, embeddings, 2).newRun(1L, new IngestionProgress() {});
+		IOException error = assertThrows(IOException.class, () -> interrupted.execute(new ByteArrayInputStream(archive)));
+		assertTrue(error.getMessage().contains("trop volumineuse"), error.getMessage());
+
+		Map<String, Object> stored = assertTimeoutPreemptively(Duration.ofSeconds(10),
+			() -> run(pipeline(store, embeddings, 100), archive));
+		assertEquals(3, files(stored).get("stored"));
+		assertEquals(3, store.getDocumentsByUser("1").size());
+	}
+
+	@Test
+	void reimportReusesUnchangedChunksAndReplacesChangedOnes() throws Exception {
+		ChromaDBService store = store();
+		StubEmbeddings embeddings = new StubEmbeddings(store);
+		run(pipeline(store, embeddings, 100), zip(Map.of("a.txt", "version une", "b.txt", "stable")));
+		int calls = embeddings.calls.get();
+
+		run(pipeline(store, embeddings, 100), zip(Map.of("a.txt", "version une", "b.txt", "stable")));
+		assertEquals(calls, embeddings.calls.get());
+
+		run(pipeline(store, embeddings, 100), zip(Map.of("a.txt", "version deux", "b.txt", "stable")));
+		String docId = IngestionQueue.documentId(1L, "a.txt");
+		List<Map<String, Object>> chunks = store.getDocumentsByUserAndDocId("1", docId);
+		assertEquals(1, chunks.size());
+		assertEquals("version deux", chunks.get(0).get("content"));
+	}
+
+	/** Embeddings calculés sans serveur : un vecteur dérivé du texte, ou une erreur si failing. */
+	static final class StubEmbeddings extends LangChainRAGService {
+
+		final AtomicInteger calls = new AtomicInteger();
+		volatile boolean failing;
+
+		StubEmbeddings(ChromaDBService store) {
+			super(store, new EmbeddingCache(1 << 20), new AdaptiveConcurrencyLimiter(4, 1, 64, 0.7, 2.0),
+				new BackendCallGate(8, 1000), Executors.newSingleThreadExecutor(), new TextChunker(400, 40),
+				extractor(), new NearDuplicateDetector(false, 3), "http://127.0.0.1:1", "http://127.0.0.1:1/v1",
+				"chat", "embeddings", 8192, 64, 4);
+		}
+
+		@Override
+		public List<EmbeddingVector> embed(List<TextSegment> segments) {
+			calls.incrementAndGet();
+			if (failing) {
+				throw new IllegalStateException("serveur d'embeddings indisponible");
+			}
+			return segments.stream().map(segment -> vector(segment.text())).toList();
+		}
+
+		private static EmbeddingVector vector(String text) {
+			float[] values = new float[8];
+			for (int i = 0; i < text.length(); i++) {
+				values[i % 8] += text.charAt(i) / 128f;
+			}
+			return EmbeddingVector.of(values);
+		}
+	}
+
+	static ChromaDBService store() {
+		VectorIndexFactory factory = new VectorIndexFactory("exact", 16, 200, 64, "memory", "unused", 1024,
+			"none", 4, 50, 0, 8, 4096, 2.0, 1, 16384);
+		return new ChromaDBService(factory, 0, 3600, 1000, 3);
+	}
+
+	static BulkIngestionPipeline pipeline(ChromaDBService store, LangChainRAGService embeddings, int maxFiles) {
+		return new BulkIngestionPipeline(embeddings, store, new TextChunker(400, 40), extractor(),
+			new NearDuplicateDetector(false, 3), false, 4, 1, 1, 1, 1, 1 << 20, maxFiles, 8192, 64);
+	}
+
+	static byte[] zip(Map<String, String> files) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+			for (Map.Entry<String, String> file : files.entrySet()) {
+				zip.putNextEntry(new ZipEntry(file.getKey()));
+				zip.write(file.getValue().getBytes(StandardCharsets.UTF_8));
+				zip.closeEntry();
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	private static TextExtractor extractor() {
+		return new TextExtractor(1, 30, 1 << 20, 100_000, 4);
+	}
+
+	private static Map<String, Object> run(BulkIngestionPipeline pipeline, byte[] archive) throws Exception {
+		BulkIngestionPipeline.Run run = pipeline.newRun(1L, new IngestionProgress() {});
+		run.execute(new ByteArrayInputStream(archive));
+		return run.stats();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> files(Map<String, Object> stats) {
+		return (Map<String, Object>) stats.get("files");
+	}
+}
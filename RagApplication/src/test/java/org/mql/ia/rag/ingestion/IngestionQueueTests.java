@@ -0,0 +1,83 @@
+package org.mql.ia.rag.ingestion;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mql.ia.rag.service.ChromaDBService;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class IngestionQueueTests {
+
+	@Test
+	void jobsAreVisibleOnlyToTheirOwner(@TempDir Path directory) throws Exception {
+		ChromaDBService store = BulkIngestionPipelineTests.store();
+		IngestionQueue queue = queue(store, 100, directory);
+		IngestionJob job = queue.submit(IngestionJob.Kind.BULK, 1L, "docs.zip", null,
+			new ByteArrayInputStream(BulkIngestionPipelineTests.zip(Map.of("a.txt", "contenu"))));
+		awaitIdle(queue);
+
+		assertEquals(IngestionJob.Status.DONE, queue.getJob(job.getId(), 1L).getStatus());
+		assertNull(queue.getJob(job.getId(), 2L));
+		assertNull(queue.getJob("inconnu", 1L));
+		assertEquals(1, store.getDocumentsByUser("1").size());
+		assertEquals(0, fileCount(directory));
+		queue.close();
+	}
+
+	@Test
+	void failedJobIsReportedAndItsFilesRemoved(@TempDir Path directory) throws Exception {
+		IngestionQueue queue = queue(BulkIngestionPipelineTests.store(), 1, directory);
+		IngestionJob job = queue.submit(IngestionJob.Kind.BULK, 1L, "docs.zip", null,
+			new ByteArrayInputStream(BulkIngestionPipelineTests.zip(Map.of("a.txt", "un", "b.txt", "deux"))));
+		awaitIdle(queue);
+
+		assertEquals(IngestionJob.Status.FAILED, queue.getJob(job.getId(), 1L).getStatus());
+		assertEquals(1L, queue.stats().get("failed"));
+		assertEquals(0, fileCount(directory));
+		queue.close();
+	}
+
+	@Test
+	void acceptedJobSurvivesARestart(@TempDir Path directory) throws Exception {
+		ChromaDBService store = BulkIngestionPipelineTests.store();
+		IngestionQueue stopped = queue(store, 100, directory);
+		stopped.close();
+		// Accepté (écrit sur disque) mais jamais traité : repris par la file suivante
+		IngestionJob job = stopped.submit(IngestionJob.Kind.BULK, 1L, "docs.zip", null,
+			new ByteArrayInputStream(BulkIngestionPipelineTests.zip(Map.of("a.txt", "contenu"))));
+
+		IngestionQueue restarted = queue(store, 100, directory);
+		awaitIdle(restarted);
+		assertEquals(IngestionJob.Status.DONE, restarted.getJob(job.getId(), 1L).getStatus());
+		assertEquals(1, store.getDocumentsByUser("1").size());
+		restarted.close();
+	}
+
+	private static IngestionQueue queue(ChromaDBService store, int maxFiles, Path directory) {
+		BulkIngestionPipelineTests.StubEmbeddings embeddings = new BulkIngestionPipelineTests.StubEmbeddings(store);
+		// Pas de job SIMPLE dans ces tests : DocumentService n'est pas utilisé
+		return new IngestionQueue(null, embeddings, BulkIngestionPipelineTests.pipeline(store, embeddings, maxFiles),
+			directory.toString(), 10, 1, 100);
+	}
+
+	private static void awaitIdle(IngestionQueue queue) throws InterruptedException {
+		for (int wait = 0; wait < 200 && ((Number) queue.stats().get("pending")).intValue() > 0; wait++) {
+			Thread.sleep(50);
+		}
+		assertEquals(0, queue.stats().get("pending"));
+	}
+
+	private static long fileCount(Path directory) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.count();
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package org.mql.ia.rag.ingestion;
+
+import org.junit.jupiter.api.Test;
+import org.mql.ia.rag.store.SimHashIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SimHashTests {
+
+	@Test
+	void nearDuplicatesAreCloseAndUnrelatedTextsFar() {
+		Random random = new Random(7);
+		List<String> words = randomWords(random, 300);
+		String original = String.join(" ", words);
+
+		// Casse, ponctuation et blancs ignorés
+		assertEquals(SimHash.fingerprint(original),
+			SimHash.fingerprint(original.toUpperCase().replace(" ", " ,\n ")));
+
+		words.set(150, "modifié");
+		int edited = SimHash.distance(SimHash.fingerprint(original), SimHash.fingerprint(String.join(" ", words)));
+		int unrelated = SimHash.distance(SimHash.fingerprint(original),
+			SimHash.fingerprint(String.join(" ", randomWords(random, 300))));
+		assertTrue(edited <= 8, "un mot changé: " + edited);
+		assertTrue(unrelated > 16, "textes sans rapport: " + unrelated);
+	}
+
+	@Test
+	void indexFindsEveryFingerprintWithinMaxDistance() {
+		SimHashIndex index = new SimHashIndex(3);
+		long base = 0x0123456789abcdefL;
+		index.add("a", base);
+		index.add("b", base ^ 0xff00ff00ff00ff00L);
+
+		// Trois bits changés dans trois bandes différentes : une bande reste identique
+		SimHashIndex.Match match = index.nearest(base ^ (1L | 1L << 20 | 1L << 40));
+		assertNotNull(match);
+		assertEquals("a", match.id());
+		assertEquals(3, match.distance());
+		assertNull(index.nearest(base ^ 0xfL));
+
+		index.add("c", base ^ 0x3L);
+		assertEquals("c", index.nearest(base ^ 0x7L).id());
+		index.remove("c");
+		index.remove("a");
+		assertNull(index.nearest(base));
+		assertEquals(1, index.size());
+	}
+
+	private static List<String> randomWords(Random random, int count) {
+		List<String> words = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			words.add("mot" + random.nextInt(5000));
+		}
+		return words;
+	}
+}
@@ -0,0 +1,73 @@
+package org.mql.ia.rag.ingestion;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TextExtractorTests {
+
+	@Test
+	void extractsHtmlTextWithinLimitsAndAbandonsStuckParses() throws Exception {
+		TextExtractor extractor = new TextExtractor(1, 3, 100_000, 1_000, 4);
+
+		String html = "<html><head><script>var x = 1;</script></head><body><h1>Titre</h1><p>Un paragraphe.</p></body></html>";
+		assertEquals("Titre\nUn paragraphe.", extractor.extract("page.html", stream(html)).strip());
+
+		IOException tooLong = assertThrows(IOException.class,
+			() -> extractor.extract("long.html", stream("<p>" + "mot ".repeat(1_000) + "</p>")));
+		assertTrue(tooLong.getMessage().contains("trop long"), tooLong.getMessage());
+
+		// Un parseur bloqué perd sa place au bout du délai : l'analyse suivante passe
+		InputStream stuck = new InputStream() {
+			@Override
+			public int read() {
+				try {
+					Thread.sleep(60_000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return -1;
+			}
+		};
+		IOException timeout = assertThrows(IOException.class, () -> extractor.extract("stuck.pdf", stuck));
+		assertTrue(timeout.getMessage().contains("interrompue"), timeout.getMessage());
+		assertEquals("Titre\nUn paragraphe.", extractor.extract("page.html", stream(html)).strip());
+		assertEquals(1L, extractor.stats().get("timedOut"));
+	}
+
+	@Test
+	void readsPlainTextWithoutBomAndWithinMaxChars() throws Exception {
+		TextExtractor extractor = new TextExtractor(1, 3, 100_000, 10, 4);
+
+		assertEquals("dix lettre", read(extractor.open("a.txt", stream("\uFEFFdix lettre"))));
+		assertEquals("dix lettre", extractor.decode("a.txt", "\uFEFFdix lettre".getBytes(StandardCharsets.UTF_8)));
+		assertEquals("", read(extractor.open("vide.txt", stream(""))));
+
+		IOException streamed = assertThrows(IOException.class, () -> read(extractor.open("b.txt", stream("onze lettre"))));
+		assertTrue(streamed.getMessage().contains("trop long"), streamed.getMessage());
+		IOException decoded = assertThrows(IOException.class,
+			() -> extractor.decode("b.txt", "onze lettres et bien plus".getBytes(StandardCharsets.UTF_8)));
+		assertTrue(decoded.getMessage().contains("trop long"), decoded.getMessage());
+		assertThrows(CharacterCodingException.class, () -> extractor.decode("c.txt", new byte[] {'a', (byte) 0xC3}));
+	}
+
+	private static String read(Reader reader) throws IOException {
+		StringWriter text = new StringWriter();
+		reader.transferTo(text);
+		return text.toString();
+	}
+
+	private static InputStream stream(String text) {
+		return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,58 @@
+package org.mql.ia.rag.ingestion;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenChunkReaderTests {
+
+	// Un token par mot : assez pour vérifier les bornes sans dépendre du BPE
+	private static final ToIntFunction<String> WORDS = text -> text.strip().split("\\s+").length;
+
+	@Test
+	void chunksFollowSentencesWithinTokenBoundAndKeepOffsets() throws Exception {
+		// Paragraphes de 3 phrases de 5 mots
+		StringBuilder text = new StringBuilder();
+		for (int p = 0; p < 4; p++) {
+			for (int s = 0; s < 3; s++) {
+				text.append("Phrase ").append(p).append(' ').append(s).append(" du paragraphe. ");
+			}
+			text.append("\n\n");
+		}
+		text.append("x ".repeat(50));
+
+		List<TokenChunkReader.Chunk> chunks = read(text.toString(), 20, 5);
+
+		for (TokenChunkReader.Chunk chunk : chunks) {
+			assertTrue(chunk.tokens() <= 20, "chunk trop long: " + chunk);
+			assertEquals(text.substring((int) chunk.start(), (int) chunk.end()), chunk.text());
+		}
+		// Fin de paragraphe aux trois quarts de la borne : le chunk s'arrête là
+		assertEquals("Phrase 0 0 du paragraphe. Phrase 0 1 du paragraphe. Phrase 0 2 du paragraphe.",
+			chunks.get(0).text());
+		// Le suivant reprend la dernière phrase (5 tokens de chevauchement)
+		assertTrue(chunks.get(1).text().startsWith("Phrase 0 2 du paragraphe. \n\nPhrase 1 0"));
+		assertTrue(chunks.get(1).text().endsWith("Phrase 1 2 du paragraphe."));
+		// Une « phrase » sans ponctuation plus longue que la borne est coupée sur des blancs
+		TokenChunkReader.Chunk last = chunks.get(chunks.size() - 1);
+		assertTrue(last.text().startsWith("x"));
+		assertTrue(chunks.stream().noneMatch(chunk -> chunk.text().equals("Phrase 3 2 du paragraphe.")));
+		assertEquals(text.toString().stripTrailing().length(), last.end());
+	}
+
+	private static List<TokenChunkReader.Chunk> read(String text, int maxTokens, int overlapTokens) throws Exception {
+		TokenChunkReader reader = new TokenChunkReader(new StringReader(text), WORDS, maxTokens, overlapTokens);
+		List<TokenChunkReader.Chunk> chunks = new ArrayList<>();
+		TokenChunkReader.Chunk chunk;
+		while ((chunk = reader.next()) != null) {
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+}
@@ -0,0 +1,259 @@
+package org.mql.ia.rag.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mql.ia.rag.store.EmbeddingVector;
+import org.mql.ia.rag.store.VectorIndexFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChromaDBServiceTests {
+
+	@Test
+	void recoversFromSnapshotPlusWalTail(@TempDir Path directory) throws Exception {
+		VectorIndexFactory factory = factory("wal", directory);
+		ChromaDBService store = new ChromaDBService(factory, 0, 3600, 5, 3);
+		for (int i = 0; i < 6; i++) {
+			store.addDocument("c" + i, "texte " + i, vector(i), metadata("d1"));
+		}
+		// Le snapshot part en arrière-plan une fois max-wal-records atteint
+		Path snapshots = directory.resolve("snapshots");
+		for (int wait = 0; wait < 100 && count(snapshots, ".bin") == 0; wait++) {
+			Thread.sleep(50);
+		}
+		assertEquals(1, count(snapshots, ".bin"));
+		store.addDocument("c6", "texte 6", vector(6), metadata("d2"));
+		store.deleteDocument("c0");
+		store.close();
+
+		ChromaDBService reopened = new ChromaDBService(factory, 0, 3600, 1000, 3);
+		assertEquals(5, reopened.getDocumentsByUserAndDocId("1", "d1").size());
+		assertEquals(1, reopened.getDocumentsByUserAndDocId("1", "d2").size());
+		assertEquals("c6", reopened.queryDocuments(vector(6), 1, "1").get(0).get("id"));
+		reopened.close();
+		factory.close();
+	}
+
+	@Test
+	void reuploadKeepsOldVectorsVisibleUntilCommit(@TempDir Path directory) {
+		for (String persistence : List.of("memory", "mmap")) {
+			VectorIndexFactory factory = factory(persistence, directory.resolve(persistence));
+			ChromaDBService store = new ChromaDBService(factory, 0, 3600, 1000, 3);
+			ChromaDBService.DocumentUpdate first = store.beginDocument("d1");
+			for (int i = 0; i < 4; i++) {
+				first.put("c" + i, "texte " + i, vector(i), metadata("d1"));
+			}
+			first.commit();
+
+			// Nouveau vecteur pour c0 et dix chunks proches de l'ancien, pas encore visibles
+			ChromaDBService.DocumentUpdate pending = store.beginDocument("d1");
+			pending.put("c0", "texte 0 modifié", vector(5), metadata("d1"));
+			for (int i = 0; i < 10; i++) {
+				float[] crowd = vector(0).values();
+				crowd[1] = 0.01f * i;
+				pending.put("n" + i, "proche " + i, EmbeddingVector.of(crowd), metadata("d1"));
+			}
+			List<Map<String, Object>> during = store.queryDocuments(vector(0), 3, "1");
+			assertEquals(3, during.size());
+			assertEquals("c0", during.get(0).get("id"));
+			assertEquals("texte 0", during.get(0).get("content"));
+			assertEquals(3, store.queryDocuments(vector(0), 3).size());
+			pending.abort();
+			assertEquals("c0", store.queryDocuments(vector(0), 1, "1").get(0).get("id"));
+
+			ChromaDBService.DocumentUpdate replace = store.beginDocument("d1");
+			replace.put("c0", "texte 0 modifié", vector(5), metadata("d1"));
+			assertEquals(3, replace.commit());
+			store.deleteDocumentsByMetadata("docId", "d2");
+			store.close();
+
+			ChromaDBService reopened = persistence.equals("memory") ? store
+				: new ChromaDBService(factory, 0, 3600, 1000, 3);
+			List<Map<String, Object>> after = reopened.queryDocuments(vector(5), 4, "1");
+			assertEquals(1, after.size());
+			assertEquals("texte 0 modifié", after.get(0).get("content"));
+			assertEquals(1, reopened.getDocumentsByUserAndDocId("1", "d1").size());
+			reopened.close();
+			factory.close();
+		}
+	}
+
+	@Test
+	void abortedUpdateReleasesTheDocument(@TempDir Path directory) throws Exception {
+		VectorIndexFactory factory = factory("memory", directory);
+		ChromaDBService store = new ChromaDBService(factory, 0, 3600, 1000, 3);
+		ChromaDBService.DocumentUpdate first = store.beginDocument("d1");
+		first.put("c0", "texte 0", vector(0), metadata("d1"));
+		first.commit();
+
+		ChromaDBService.DocumentUpdate open = store.beginDocument("d1");
+		open.put("c1", "texte 1", vector(1), metadata("d1"));
+		assertThrows(IllegalArgumentException.class, () -> open.put("c2", "texte 2", null, metadata("d1")));
+		// La suppression du document attend la fin du remplacement en cours
+		Thread delete = Thread.ofPlatform().start(() -> store.deleteDocumentsByMetadata("docId", "d1"));
+		delete.join(200);
+		assertTrue(delete.isAlive());
+		open.abort();
+		open.abort();
+		delete.join(5000);
+		assertFalse(delete.isAlive());
+
+		assertEquals(0, store.getDocumentsByUserAndDocId("1", "d1").size());
+		// Le vecteur préparé puis abandonné n'est pas resté dans l'index
+		assertEquals(List.of(), store.queryDocuments(vector(1), 3, "1"));
+		ChromaDBService.DocumentUpdate again = store.beginDocument("d1");
+		again.put("c1", "texte 1", vector(1), metadata("d1"));
+		assertEquals(0, again.commit());
+		assertEquals("c1", store.queryDocuments(vector(1), 1, "1").get(0).get("id"));
+		store.close();
+	}
+
+	@Test
+	void aliasesShareTheSourceVectorAndOneResult(@TempDir Path directory) throws Exception {
+		for (String persistence : List.of("wal", "mmap")) {
+			VectorIndexFactory factory = factory(persistence, directory.resolve(persistence));
+			ChromaDBService store = new ChromaDBService(factory, 0, 3600, 1000, 3);
+			ChromaDBService.DocumentUpdate source = store.beginDocument("d1");
+			source.put("s0", "source", vector(0), metadata("d1"));
+			source.commit();
+			ChromaDBService.DocumentUpdate other = store.beginDocument("d4");
+			other.put("c", "autre", vector(2), metadata("d4"));
+			other.commit();
+			for (String docId : List.of("d2", "d3")) {
+				ChromaDBService.DocumentUpdate copy = store.beginDocument(docId);
+				copy.alias("a-" + docId, "source bis", "s0", vector(0), metadata(docId));
+				copy.commit();
+			}
+
+			List<Map<String, Object>> results = store.queryDocuments(vector(0), 2, "1");
+			assertEquals(List.of("s0", "c"), results.stream().map(r -> r.get("id")).toList());
+			assertEquals(List.of("a-d2", "a-d3"), aliasIds(results.get(0)));
+			assertEquals(2, store.getStats().get("nearDuplicateAliases"));
+
+			// La source retirée garde son vecteur pour ses alias, y compris après un redémarrage
+			store.deleteDocumentsByMetadata("docId", "d1");
+			store.close();
+			store = new ChromaDBService(factory, 0, 3600, 1, 3);
+			results = store.queryDocuments(vector(0), 1, "1");
+			assertEquals("a-d2", results.get(0).get("id"));
+			assertEquals(List.of("a-d3"), aliasIds(results.get(0)));
+			assertEquals(1, store.getStats().get("retainedSources"));
+
+			// Snapshot écrit avec la source conservée, puis relu
+			store.addDocument("e", "encore", vector(4), metadata("d5"));
+			Path snapshots = directory.resolve(persistence).resolve("snapshots");
+			for (int wait = 0; wait < 100 && count(snapshots, ".bin") == 0; wait++) {
+				Thread.sleep(50);
+			}
+			assertEquals(1, count(snapshots, ".bin"));
+			store.close();
+			store = new ChromaDBService(factory, 0, 3600, 1000, 3);
+			assertEquals("a-d2", store.queryDocuments(vector(0), 1, "1").get(0).get("id"));
+
+			store.deleteDocumentsByMetadata("docId", "d2");
+			results = store.queryDocuments(vector(0), 1, "1");
+			assertEquals("a-d3", results.get(0).get("id"));
+			assertEquals(List.of(), aliasIds(results.get(0)));
+			store.deleteDocumentsByMetadata("docId", "d3");
+			assertEquals(0, store.getStats().get("retainedSources"));
+			assertEquals("c", store.queryDocuments(vector(0), 1, "1").get(0).get("id"));
+			store.close();
+			factory.close();
+		}
+	}
+
+	@Test
+	void mappedSegmentsAreCompactedOnRestart(@TempDir Path directory) throws Exception {
+		for (String engine : List.of("exact", "hnsw")) {
+			VectorIndexFactory factory = factory(engine, "mmap", directory.resolve(engine));
+			Path partition = directory.resolve(engine).resolve("partitions").resolve("user-1");
+			// Pas de snapshot de fond pendant le test : seule la compaction en publie un
+			ChromaDBService store = new ChromaDBService(factory, 0, 3600, 100_000, 3);
+			List<String> ids = new ArrayList<>();
+			List<String> contents = new ArrayList<>();
+			List<EmbeddingVector> vectors = new ArrayList<>();
+			List<Map<String, Object>> metadatas = new ArrayList<>();
+			for (int i = 0; i < 1100; i++) {
+				ids.add("c" + i);
+				contents.add("texte " + i);
+				vectors.add(vector(i));
+				metadatas.add(metadata("d1"));
+			}
+			store.addDocuments(ids, contents, vectors, metadatas);
+			store.addDocument("garde", "gardé", vector(5), metadata("d2"));
+			store.deleteDocumentsByMetadata("docId", "d1");
+			assertEquals(1100L, store.getStats().get("deadRows"));
+			assertEquals(2, count(partition, ".vec"));
+			store.close();
+
+			// Un reste de compaction jamais publiée est effacé
+			Files.createDirectories(partition.resolveSibling("user-1.compacting"));
+			Files.writeString(partition.resolveSibling("user-1.compacting").resolve("segment-00000.vec"), "x");
+
+			store = new ChromaDBService(factory, 0, 3600, 100_000, 3);
+			assertEquals(0L, store.getStats().get("deadRows"));
+			assertEquals(1, count(partition, ".vec"));
+			assertFalse(Files.exists(partition.resolveSibling("user-1.compacting")));
+			assertEquals("garde", store.queryDocuments(vector(5), 1, "1").get(0).get("id"));
+			store.addDocument("apres", "après", vector(6), metadata("d3"));
+			store.close();
+
+			// Les lignes publiées par le snapshot de compaction sont celles des nouveaux segments
+			store = new ChromaDBService(factory, 0, 3600, 100_000, 3);
+			assertEquals(2, store.getDocumentsByUser("1").size());
+			assertEquals("garde", store.queryDocuments(vector(5), 1, "1").get(0).get("id"));
+			assertEquals("apres", store.queryDocuments(vector(6), 1, "1").get(0).get("id"));
+			store.close();
+			factory.close();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Object> aliasIds(Map<String, Object> result) {
+		return ((List<Map<String, Object>>) result.get("aliases")).stream().map(a -> a.get("id")).toList();
+	}
+
+	static VectorIndexFactory factory(String persistence, Path directory) {
+		return factory("exact", persistence, directory);
+	}
+
+	static VectorIndexFactory factory(String engine, String persistence, Path directory) {
+		return new VectorIndexFactory(engine, 16, 200, 64, persistence, directory.toString(), 1024,
+			"none", 4, 50, 0, 8, 4096, 2.0, 1, 16384);
+	}
+
+	static EmbeddingVector vector(int i) {
+		float[] values = new float[8];
+		values[i % 8] = 1f;
+		values[(i + 3) % 8] = 0.5f * (i / 8 + 1);
+		return EmbeddingVector.of(values);
+	}
+
+	static Map<String, Object> metadata(String docId) {
+		Map<String, Object> metadata = new HashMap<>();
+		metadata.put("userId", "1");
+		metadata.put("docId", docId);
+		return metadata;
+	}
+
+	private static long count(Path directory, String suffix) throws IOException {
+		if (!Files.isDirectory(directory)) {
+			return 0;
+		}
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(p -> p.toString().endsWith(suffix)).count();
+		}
+	}
+}
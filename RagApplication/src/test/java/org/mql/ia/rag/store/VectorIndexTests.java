@@ -0,0 +1,289 @@
+package org.mql.ia.rag.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VectorIndexTests {
+
+	@Test
+	void exactSearchReturnsTopKByCosine() {
+		VectorIndex index = new ExactVectorIndex(new HeapVectorStorage());
+		index.add("a", new float[] {1f, 0f, 0f});
+		index.add("b", new float[] {0f, 2f, 0f});
+		index.add("c", new float[] {3f, 3f, 0f});
+
+		List<SearchHit> hits = index.search(new float[] {1f, 0.1f, 0f}, 2);
+
+		assertEquals(2, hits.size());
+		assertEquals("a", hits.get(0).getId());
+		assertEquals("c", hits.get(1).getId());
+		assertTrue(hits.get(0).getDistance() < hits.get(1).getDistance());
+	}
+
+	@Test
+	void exactSearchMatchesBruteForceAfterRemovals() {
+		Random random = new Random(42);
+		VectorIndex index = new ExactVectorIndex(new HeapVectorStorage());
+		float[][] vectors = randomVectors(random, 500, 32);
+		for (int i = 0; i < vectors.length; i++) {
+			index.add("v" + i, vectors[i]);
+		}
+		for (int i = 0; i < vectors.length; i += 3) {
+			index.remove("v" + i);
+		}
+
+		float[] query = randomVectors(random, 1, 32)[0];
+		List<SearchHit> hits = index.search(query, 5);
+
+		String best = null;
+		double bestScore = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < vectors.length; i++) {
+			if (i % 3 == 0) {
+				continue;
+			}
+			double score = cosine(vectors[i], query);
+			if (score > bestScore) {
+				bestScore = score;
+				best = "v" + i;
+			}
+		}
+
+		assertEquals(333, index.size());
+		assertEquals(5, hits.size());
+		assertEquals(best, hits.get(0).getId());
+	}
+
+	@Test
+	void parallelExactScanMatchesSequential() {
+		Random random = new Random(13);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		VectorIndex sequential = new ExactVectorIndex(new HeapVectorStorage());
+		VectorIndex parallel = new ExactVectorIndex(new HeapVectorStorage(), pool, 100);
+		float[][] vectors = randomVectors(random, 3000, 16);
+		for (int i = 0; i < vectors.length; i++) {
+			sequential.add("v" + i, vectors[i]);
+			parallel.add("v" + i, vectors[i]);
+		}
+		for (int i = 0; i < vectors.length; i += 7) {
+			sequential.remove("v" + i);
+			parallel.remove("v" + i);
+		}
+
+		for (float[] query : randomVectors(random, 20, 16)) {
+			List<String> expected = sequential.search(query, 10).stream().map(SearchHit::getId).toList();
+			assertEquals(expected, parallel.search(query, 10).stream().map(SearchHit::getId).toList());
+		}
+		pool.shutdown();
+	}
+
+	@Test
+	void hnswRecallAgainstExactSearch() {
+		Random random = new Random(7);
+		VectorIndex exact = new ExactVectorIndex(new HeapVectorStorage());
+		VectorIndex hnsw = new HnswVectorIndex(new HeapVectorStorage(), 16, 200, 64);
+		float[][] vectors = randomVectors(random, 2000, 32);
+		for (int i = 0; i < vectors.length; i++) {
+			exact.add("v" + i, vectors[i]);
+			hnsw.add("v" + i, vectors[i]);
+		}
+		for (int i = 0; i < vectors.length; i += 10) {
+			exact.remove("v" + i);
+			hnsw.remove("v" + i);
+		}
+
+		int found = 0;
+		int expected = 0;
+		for (float[] query : randomVectors(random, 50, 32)) {
+			List<String> truth = exact.search(query, 10).stream().map(SearchHit::getId).toList();
+			List<String> approx = hnsw.search(query, 10).stream().map(SearchHit::getId).toList();
+			expected += truth.size();
+			found += (int) approx.stream().filter(truth::contains).count();
+			assertTrue(approx.stream().noneMatch(id -> Integer.parseInt(id.substring(1)) % 10 == 0));
+		}
+
+		assertEquals(1800, hnsw.size());
+		assertTrue(found >= expected * 0.9, "recall trop faible: " + found + "/" + expected);
+	}
+
+	@Test
+	void ivfRecallAfterTraining() {
+		Random random = new Random(5);
+		float[][] centers = randomVectors(random, 40, 32);
+		float[][] vectors = new float[3000][32];
+		for (int i = 0; i < vectors.length; i++) {
+			float[] center = centers[random.nextInt(centers.length)];
+			for (int j = 0; j < 32; j++) {
+				vectors[i][j] = center[j] + (float) random.nextGaussian() * 0.3f;
+			}
+		}
+
+		VectorIndex exact = new ExactVectorIndex(new HeapVectorStorage());
+		VectorIndex ivf = new IvfVectorIndex(new HeapVectorStorage(), 32, 8, 1000, 2.0, Runnable::run);
+		for (int i = 0; i < vectors.length; i++) {
+			exact.add("v" + i, vectors[i]);
+			ivf.add("v" + i, vectors[i]);
+		}
+		assertEquals(2L, ivf.stats().get("ivfTrainings"));
+
+		int found = 0;
+		int expected = 0;
+		for (int i = 0; i < 50; i++) {
+			float[] query = vectors[random.nextInt(vectors.length)];
+			List<String> truth = exact.search(query, 10).stream().map(SearchHit::getId).toList();
+			List<String> approx = ivf.search(query, 10).stream().map(SearchHit::getId).toList();
+			expected += truth.size();
+			found += (int) approx.stream().filter(truth::contains).count();
+		}
+		assertTrue(found >= expected * 0.9, "recall trop faible: " + found + "/" + expected);
+	}
+
+	@Test
+	void int8QuantizationRerankKeepsRecall() {
+		Random random = new Random(11);
+		VectorIndex exact = new ExactVectorIndex(new HeapVectorStorage());
+		QuantizedVectorIndex quantized = new QuantizedVectorIndex(new OffHeapVectorStorage(256), 4, 1);
+		float[][] vectors = randomVectors(random, 2000, 64);
+		for (int i = 0; i < vectors.length; i++) {
+			exact.add("v" + i, vectors[i]);
+			quantized.add("v" + i, vectors[i]);
+		}
+
+		int found = 0;
+		int expected = 0;
+		for (float[] query : randomVectors(random, 50, 64)) {
+			List<String> truth = exact.search(query, 10).stream().map(SearchHit::getId).toList();
+			List<String> approx = quantized.search(query, 10).stream().map(SearchHit::getId).toList();
+			expected += truth.size();
+			found += (int) approx.stream().filter(truth::contains).count();
+		}
+
+		assertTrue(found >= expected * 0.95, "recall trop faible: " + found + "/" + expected);
+		assertEquals(500L, quantized.stats().get("recallSamples"));
+	}
+
+	@Test
+	void mappedSegmentsSurviveReopen(@TempDir Path directory) {
+		Random random = new Random(3);
+		float[][] vectors = randomVectors(random, 300, 16);
+		VectorIndex index = new ExactVectorIndex(new MappedVectorStorage(directory, 64));
+		int[] rows = new int[vectors.length];
+		for (int i = 0; i < vectors.length; i++) {
+			rows[i] = index.add("v" + i, vectors[i]);
+		}
+		index.flush();
+		List<SearchHit> before = index.search(vectors[42], 3);
+
+		VectorStorage reopened = new MappedVectorStorage(directory, 64);
+		VectorIndex restored = new ExactVectorIndex(reopened);
+		for (int i = 0; i < vectors.length; i++) {
+			restored.attach("v" + i, rows[i]);
+		}
+		List<SearchHit> after = restored.search(vectors[42], 3);
+
+		assertEquals(300, reopened.rows());
+		assertEquals("v42", after.get(0).getId());
+		assertEquals(before.stream().map(SearchHit::getId).toList(), after.stream().map(SearchHit::getId).toList());
+	}
+
+	@Test
+	void mappedHnswGraphReopensWithoutReinsertion(@TempDir Path directory) throws Exception {
+		Random random = new Random(5);
+		float[][] vectors = randomVectors(random, 600, 16);
+		MappedVectorStorage storage = new MappedVectorStorage(directory, 256);
+		VectorIndex index = new HnswVectorIndex(storage, new MappedGraphStorage(directory, 256, 8, 0), 8, 64, 32);
+		int[] rows = new int[vectors.length];
+		for (int i = 0; i < vectors.length; i++) {
+			rows[i] = index.add("v" + i, vectors[i]);
+		}
+		index.flush();
+		List<SearchHit> before = index.search(vectors[7], 5);
+
+		// Segment créé mais jamais écrit (arrêt avant l'en-tête) : ignoré puis recréé
+		java.nio.file.Files.write(directory.resolve("segment-00003.vec"), new byte[64]);
+		MappedVectorStorage reopened = new MappedVectorStorage(directory, 256);
+		MappedGraphStorage graph = new MappedGraphStorage(directory, 256, 8, reopened.rows());
+		VectorIndex restored = new HnswVectorIndex(reopened, graph, 8, 64, 32);
+		for (int i = 0; i < vectors.length; i++) {
+			restored.attach("v" + i, rows[i]);
+			restored.attach("v" + i, rows[i]);
+		}
+
+		assertEquals(600, reopened.rows());
+		assertEquals(600, graph.size());
+		assertEquals(600, restored.size());
+		assertEquals(before.stream().map(SearchHit::getId).toList(),
+			restored.search(vectors[7], 5).stream().map(SearchHit::getId).toList());
+		assertEquals(600, restored.add("v600", vectors[0]));
+	}
+
+	@Test
+	void renameSwapsStagedVectorInPlaceOfOldOne() {
+		List<VectorIndex> indexes = List.of(
+			new ExactVectorIndex(new HeapVectorStorage()),
+			new HnswVectorIndex(new HeapVectorStorage(), 8, 64, 32),
+			new IvfVectorIndex(new HeapVectorStorage(), 4, 2, 1000, 2.0, Runnable::run),
+			new QuantizedVectorIndex(new OffHeapVectorStorage(64), 4, 0));
+		for (VectorIndex index : indexes) {
+			index.add("a", new float[] {1f, 0f, 0f});
+			index.add("b", new float[] {0f, 1f, 0f});
+			int staged = index.add("tmp", new float[] {0f, 0f, 1f});
+
+			assertTrue(index.rename("tmp", "a"));
+			assertEquals(staged, index.rowOf("a"));
+			assertEquals(-1, index.rowOf("tmp"));
+			assertEquals(2, index.size());
+			assertEquals("a", index.search(new float[] {0f, 0.1f, 1f}, 1).get(0).getId());
+			assertEquals("b", index.search(new float[] {1f, 0.2f, 0f}, 1).get(0).getId());
+			assertTrue(!index.rename("tmp", "b"));
+		}
+	}
+
+	@Test
+	void kernelsMatchScalarComputation() {
+		assertTrue(VectorKernels.isSimd(), "jdk.incubator.vector non chargé");
+		Random random = new Random(17);
+		for (int dimension : new int[] {1, 7, 16, 37, 768}) {
+			float[][] pair = randomVectors(random, 2, dimension);
+			byte[] codes = new byte[dimension];
+			random.nextBytes(codes);
+			double dot = 0, l2 = 0, quantized = 0;
+			for (int j = 0; j < dimension; j++) {
+				dot += pair[0][j] * pair[1][j];
+				l2 += (pair[0][j] - pair[1][j]) * (pair[0][j] - pair[1][j]);
+				quantized += pair[1][j] * codes[j];
+			}
+			assertEquals(dot, VectorKernels.dot(pair[0], pair[1]), 1e-3);
+			assertEquals(l2, VectorKernels.l2Squared(pair[0], pair[1]), 1e-2);
+			assertEquals(quantized, VectorKernels.dot(codes, 0, pair[1], dimension), 1e-1);
+			assertEquals(cosine(pair[0], pair[1]), VectorKernels.cosine(pair[0], pair[1]), 1e-4);
+		}
+	}
+
+	static float[][] randomVectors(Random random, int count, int dimension) {
+		float[][] vectors = new float[count][dimension];
+		for (float[] vector : vectors) {
+			for (int j = 0; j < dimension; j++) {
+				vector[j] = (float) random.nextGaussian();
+			}
+		}
+		return vectors;
+	}
+
+	static double cosine(float[] a, float[] b) {
+		double dot = 0, na = 0, nb = 0;
+		for (int i = 0; i < a.length; i++) {
+			dot += a[i] * b[i];
+			na += a[i] * a[i];
+			nb += b[i] * b[i];
+		}
+		return dot / (Math.sqrt(na) * Math.sqrt(nb));
+	}
+}
@@ -0,0 +1,90 @@
+package org.mql.ia.rag.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteAheadLogTests {
+
+	@Test
+	void tornTailIsTruncatedAndLogKeepsGoing(@TempDir Path directory) throws IOException {
+		WriteAheadLog wal = new WriteAheadLog(directory, 0, () -> {});
+		wal.awaitDurable(wal.appendAll(List.of(put("a"), put("b"))));
+		wal.close();
+		Path file = directory.resolve("wal-0000000000.log");
+		long valid = Files.size(file);
+		// Arrêt au milieu d'une écriture : longueur annoncée, contenu incomplet
+		Files.write(file, new byte[] {0, 0, 1, 0, 7, 7}, StandardOpenOption.APPEND);
+
+		assertEquals(List.of("a", "b"), replay(directory));
+		assertEquals(valid, Files.size(file));
+
+		wal = new WriteAheadLog(directory, 0, () -> {});
+		wal.awaitDurable(wal.append(JournalRecord.delete("a")));
+		wal.close();
+		assertEquals(List.of("a", "b", "a"), replay(directory));
+	}
+
+	@Test
+	void corruptRecordStopsReplayOfLaterFiles(@TempDir Path directory) throws IOException {
+		WriteAheadLog wal = new WriteAheadLog(directory, 0, () -> {});
+		wal.awaitDurable(wal.append(put("a")));
+		Path first = directory.resolve("wal-0000000000.log");
+		long valid = Files.size(first);
+		wal.append(put("b"));
+		wal.append(put("c"));
+		wal.rotate();
+		wal.awaitDurable(wal.append(put("d")));
+		wal.close();
+
+		byte[] bytes = Files.readAllBytes(first);
+		bytes[(int) valid + 12] ^= 0x5A;
+		Files.write(first, bytes);
+
+		assertEquals(List.of("a"), replay(directory));
+		assertEquals(valid, Files.size(first));
+		assertTrue(Files.exists(directory.resolve("wal-0000000001.log.discarded")));
+		assertEquals(List.of("a"), replay(directory));
+	}
+
+	@Test
+	void batchIsReplayedWholeOrNotAtAll(@TempDir Path directory) throws IOException {
+		WriteAheadLog wal = new WriteAheadLog(directory, 0, () -> {});
+		wal.awaitDurable(wal.append(put("a")));
+		Path file = directory.resolve("wal-0000000000.log");
+		long valid = Files.size(file);
+		// Remplacement d'un document : nouveaux chunks puis suppression des anciens
+		long lsn = wal.appendAll(List.of(put("b"), put("c"), JournalRecord.delete("a")));
+		assertEquals(4, lsn);
+		wal.awaitDurable(lsn);
+		wal.close();
+		assertEquals(List.of("a", "b", "c", "a"), replay(directory));
+
+		// Arrêt brutal pendant l'écriture du bloc : ni b ni c sans la suppression de a
+		byte[] bytes = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(bytes, bytes.length - 10));
+		assertEquals(List.of("a"), replay(directory));
+		assertEquals(valid, Files.size(file));
+	}
+
+	private static JournalRecord put(String id) {
+		return JournalRecord.put(id, "texte " + id, Map.of("docId", "d"), -1, new float[] {1f, 0f});
+	}
+
+	private static List<String> replay(Path directory) {
+		List<String> ids = new ArrayList<>();
+		WriteAheadLog.replay(directory, 0, record -> ids.add(record.getId()));
+		return ids;
+	}
+}
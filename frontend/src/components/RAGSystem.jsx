@@ -46,6 +46,15 @@ const RAGSystem = ({ user, onLogout }) => {
     }
   };
 
+  const waitForJob = async (jobId) => {
+    for (;;) {
+      const { data: job } = await axios.get(`${API_URL}/documents/jobs/${jobId}`, axiosConfig);
+      if (job.status === "DONE") return job;
+      if (job.status === "FAILED") throw new Error(job.error || "Échec de l'ingestion");
+      await new Promise(resolve => setTimeout(resolve, 1000));
+    }
+  };
+
   const handleFileUpload = async (event) => {
     const files = Array.from(event.target.files);
     if (files.length === 0) return;
@@ -59,8 +68,8 @@ const RAGSystem = ({ user, onLogout }) => {
         throw new Error(`${file.name}: fichier trop volumineux (max 10 MB)`);
       }
 
-      if (!file.name.endsWith('.txt')) {
-        throw new Error(`${file.name}: seuls les fichiers .txt sont acceptés`);
+      if (!/\.(txt|pdf|docx|html?)$/i.test(file.name)) {
+        throw new Error(`${file.name}: formats acceptés .txt, .pdf, .docx, .html`);
       }
 
       const formData = new FormData();
@@ -86,6 +95,9 @@ const RAGSystem = ({ user, onLogout }) => {
           }
         );
 
+        // L'ingestion est asynchrone : on suit le job jusqu'à la fin du traitement
+        const job = await waitForJob(response.data.jobId);
+
         setUploadProgress(prev => {
           const newProgress = { ...prev };
           delete newProgress[file.name];
@@ -93,10 +105,10 @@ const RAGSystem = ({ user, onLogout }) => {
         });
 
         return {
-          id: response.data.id,
-          name: response.data.filename,
-          chunkCount: response.data.chunkCount,
-          uploadedAt: response.data.uploadedAt,
+          id: job.docId,
+          name: job.filename,
+          chunkCount: job.chunksStored,
+          uploadedAt: job.finishedAt,
         };
       } catch (error) {
         setUploadProgress(prev => {
@@ -309,12 +321,12 @@ const RAGSystem = ({ user, onLogout }) => {
                     <Upload />
                   )}
                   <p className="upload-text">Glissez vos documents ici</p>
-                  <p className="upload-subtext">ou cliquez pour parcourir (.txt, max 10 MB)</p>
+                  <p className="upload-subtext">ou cliquez pour parcourir (.txt, .pdf, .docx, .html, max 10 MB)</p>
                 </div>
                 <input
                   type="file"
                   multiple
-                  accept=".txt"
+                  accept=".txt,.pdf,.docx,.html,.htm"
                   onChange={handleFileUpload}
                   disabled={isProcessing}
                   className="file-input"